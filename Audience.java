@@ -0,0 +1,417 @@
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The spectators of every game, written to from a single thread.
+ * A game copies the commands it broadcasts into its {@link Feed} once, no matter how many
+ * spectators it has, and every spectator is written to from its own position in the feed
+ * without blocking. Games never wait for a spectator, a spectator that falls more than
+ * {@link #MAX_LAG} bytes behind is dropped
+ */
+public class Audience implements Runnable, GameConstants {
+	/**
+	 * Size of the chunks a feed is kept in
+	 */
+	public static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * How many bytes a spectator can fall behind before it is dropped
+	 */
+	public static final int MAX_LAG = 64 * 1024;
+
+	/**
+	 * Size of a spectator's socket send buffer, kept small so a spectator that stops
+	 * reading falls behind in its feed instead of in the operating system
+	 */
+	public static final int SEND_BUFFER_SIZE = 16 * 1024;
+
+	private Selector selector;
+	private Map<Integer, Feed> feeds = new ConcurrentHashMap<>();
+	private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private Queue<Feed> ready = new ConcurrentLinkedQueue<>();
+	private ByteBuffer discard = ByteBuffer.allocate(64);
+	private GameLog gameLog;
+	private GameMetrics metrics;
+
+	/**
+	 * Create an audience with its own selector, it sends nothing until it is run
+	 * @param gameLog	the servers log
+	 * @param metrics	the servers metrics
+	 * @throws IOException
+	 */
+	public Audience(GameLog gameLog, GameMetrics metrics) throws IOException {
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Open the feed of a game so it can be watched
+	 * @param game		the number of the game
+	 * @param source	the game
+	 * @return the feed the game publishes to
+	 */
+	public Feed open(int game, Watchable source){
+		Feed feed = new Feed(game, source);
+		feeds.put(game, feed);
+		return feed;
+	}
+
+	/**
+	 * Add a spectator to a game
+	 * @param game		the number of the game
+	 * @param channel	the spectator's connection
+	 * @return false if there is no such game or it is over
+	 */
+	public boolean watch(int game, SocketChannel channel){
+		Feed feed = feeds.get(game);
+		return feed != null && feed.source.watch(channel);
+	}
+
+	/**
+	 * Run a task on the audience thread
+	 * @param task	the task to run
+	 */
+	private void execute(Runnable task){
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	public void run(){
+		while(selector.isOpen()){
+			try {
+				selector.select();
+				Runnable task;
+				while((task = tasks.poll()) != null)
+					task.run();
+				Feed feed;
+				while((feed = ready.poll()) != null)
+					feed.flush();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					Spectator spectator = (Spectator) key.attachment();
+					try {
+						spectator.handle(key);
+					} catch(CancelledKeyException e){
+						//the spectator was dropped while handling another one
+					}
+				}
+			} catch(IOException e){
+				log(GameLog.ERROR, GameLog.NO_GAME, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * output log messages to the server log and count errors
+	 * @param level	the level of the message
+	 * @param game	the game the message is about
+	 * @param msg	the message to output
+	 * @param vals	values used in place of tokens specified in msg
+	 */
+	private void log(int level, int game, String msg, Object... vals){
+		if(level == GameLog.ERROR)
+			metrics.error();
+		if(gameLog.isEnabled(level))
+			gameLog.log(level, game, msg, vals);
+	}
+
+	/**
+	 * Everything a game broadcasts, kept in chunks that are never changed once written.
+	 * Only the last {@link #MAX_LAG} bytes are kept, no spectator can be further behind
+	 */
+	public class Feed {
+		private int game;
+		private Watchable source;
+		private List<byte[]> chunks = new ArrayList<>();
+		private long firstChunk = 0;
+		private volatile long length = 0;
+		private volatile boolean closed = false;
+		//counts spectators that are still being added so nothing is skipped while they are
+		private AtomicInteger watchers = new AtomicInteger();
+		private AtomicBoolean scheduled = new AtomicBoolean();
+		//only used on the audience thread
+		private List<Spectator> spectators = new ArrayList<>();
+
+		Feed(int game, Watchable source){
+			this.game = game;
+			this.source = source;
+		}
+
+		/**
+		 * Copy the commands a game broadcast into the feed.
+		 * Nothing is copied while the game has no spectators
+		 * @param frames	the commands the game is about to send
+		 */
+		public void publish(Broadcast frames){
+			if(watchers.get() == 0)
+				return;
+			ByteBuffer bytes = frames.shared();
+			if(!bytes.hasRemaining())
+				return;
+			append(bytes);
+			schedule();
+		}
+
+		/**
+		 * Add a spectator that starts with a snapshot of the game.
+		 * Must be called by the game while nothing is being published so the
+		 * snapshot and the feed meet where the spectator joins
+		 * @param channel	the spectator's connection
+		 * @param snapshot	the state of the game
+		 */
+		public void subscribe(SocketChannel channel, Broadcast snapshot){
+			watchers.incrementAndGet();
+			ByteBuffer state = snapshot.shared();
+			ByteBuffer copy = ByteBuffer.allocate(state.remaining()).put(state).flip();
+			long from = length;
+			execute(() -> attach(new Spectator(this, channel, copy, from)));
+		}
+
+		/**
+		 * Stop the feed once the game is over, spectators are closed once they have everything
+		 */
+		public void close(){
+			closed = true;
+			feeds.remove(game, this);
+			schedule();
+		}
+
+		/**
+		 * have the audience thread write to the spectators, only the first call until it does counts
+		 */
+		private void schedule(){
+			if(scheduled.compareAndSet(false, true)){
+				ready.add(this);
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * @param bytes	the bytes to add to the end of the feed
+		 */
+		private synchronized void append(ByteBuffer bytes){
+			long end = length;
+			while(bytes.hasRemaining()){
+				int index = (int) (end / CHUNK_SIZE - firstChunk);
+				if(index == chunks.size())
+					chunks.add(new byte[CHUNK_SIZE]);
+				int offset = (int) (end % CHUNK_SIZE);
+				int count = Math.min(CHUNK_SIZE - offset, bytes.remaining());
+				bytes.get(chunks.get(index), offset, count);
+				end += count;
+			}
+			length = end;
+			while(firstChunk + 1 < end / CHUNK_SIZE && (firstChunk + 1) * CHUNK_SIZE <= end - MAX_LAG){
+				chunks.remove(0);
+				firstChunk++;
+			}
+		}
+
+		/**
+		 * @param position	a position in the feed
+		 * @return the written bytes of the chunk the position is in, starting at the position,
+		 * or null if the chunk isn't kept anymore
+		 */
+		private synchronized ByteBuffer view(long position){
+			int index = (int) (position / CHUNK_SIZE - firstChunk);
+			if(index < 0 || index >= chunks.size())
+				return null;
+			int offset = (int) (position % CHUNK_SIZE);
+			return ByteBuffer.wrap(chunks.get(index), offset, (int) Math.min(CHUNK_SIZE - offset, length - position));
+		}
+
+		/**
+		 * forget every chunk once the last spectator has left, the feed starts over when a new one comes
+		 */
+		private synchronized void release(){
+			if(watchers.get() > 0)
+				return;
+			chunks.clear();
+			firstChunk = length / CHUNK_SIZE;
+		}
+
+		/**
+		 * write to every spectator that isn't waiting for its socket,
+		 * spectators that are waiting are only checked for falling behind
+		 */
+		private void flush(){
+			scheduled.set(false);
+			for(int i = spectators.size() - 1; i >= 0; i--){
+				Spectator spectator = spectators.get(i);
+				if(!spectator.isBlocked())
+					spectator.flush();
+				else if(spectator.isBehind())
+					spectator.drop();
+			}
+		}
+	}
+
+	/**
+	 * start writing to a spectator
+	 * @param spectator	the spectator
+	 */
+	private void attach(Spectator spectator){
+		Feed feed = spectator.feed;
+		feed.spectators.add(spectator);
+		metrics.spectatorJoined();
+		log(GameLog.INFO, feed.game, "%s: %d spectator(s)", commandString(WATCH), feed.spectators.size());
+		try {
+			spectator.channel.configureBlocking(false);
+			spectator.channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+			spectator.key = spectator.channel.register(selector, SelectionKey.OP_READ, spectator);
+			spectator.flush();
+		} catch(IOException e){
+			spectator.close();
+		}
+	}
+
+	/**
+	 * A spectator's connection and how far it is in the feed of its game
+	 */
+	class Spectator {
+		private Feed feed;
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer snapshot;
+		private long position;
+
+		/**
+		 * @param feed		the feed of the game the spectator watches
+		 * @param channel	the spectator's connection
+		 * @param snapshot	the state of the game when the spectator joined
+		 * @param position	the position in the feed the snapshot was taken at
+		 */
+		Spectator(Feed feed, SocketChannel channel, ByteBuffer snapshot, long position){
+			this.feed = feed;
+			this.channel = channel;
+			this.snapshot = snapshot;
+			this.position = position;
+		}
+
+		/**
+		 * handle a ready key of this spectator.
+		 * Spectators don't send anything, reading only notices when they leave
+		 * @param key	the key of this spectator
+		 */
+		void handle(SelectionKey key){
+			try {
+				if(key.isReadable()){
+					discard.clear();
+					if(channel.read(discard) == -1){
+						close();
+						return;
+					}
+				}
+				if(key.isValid() && key.isWritable())
+					flush();
+			} catch(IOException e){
+				close();
+			}
+		}
+
+		/**
+		 * write as much as the socket accepts and only ask to be woken up for writing while
+		 * something is left. Dropped once it is too far behind, closed once the game is over
+		 * and it has everything
+		 */
+		void flush(){
+			try {
+				if(snapshot != null){
+					metrics.spectatorBytesOut(channel.write(snapshot));
+					if(snapshot.hasRemaining()){
+						blocked(true);
+						return;
+					}
+					snapshot = null;
+				}
+				boolean closed = feed.closed;
+				long length = feed.length;
+				while(position < length){
+					ByteBuffer view = isBehind() ? null : feed.view(position);
+					if(view == null){
+						drop();
+						return;
+					}
+					int written = channel.write(view);
+					metrics.spectatorBytesOut(written);
+					position += written;
+					if(view.hasRemaining()){
+						blocked(true);
+						return;
+					}
+				}
+				blocked(false);
+				if(closed)
+					close();
+			} catch(IOException e){
+				close();
+			}
+		}
+
+		/**
+		 * @return true if the spectator is too far behind to catch up
+		 */
+		boolean isBehind(){
+			return feed.length - position > MAX_LAG;
+		}
+
+		/**
+		 * close a spectator that fell too far behind
+		 */
+		void drop(){
+			metrics.spectatorDropped();
+			log(GameLog.INFO, feed.game, "dropped a spectator that fell %d bytes behind", feed.length - position);
+			close();
+		}
+
+		/**
+		 * @return true while the spectator's socket doesn't take any more bytes
+		 */
+		boolean isBlocked(){
+			return key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0;
+		}
+
+		/**
+		 * @param blocked	whether to wait for the socket to take more bytes
+		 */
+		private void blocked(boolean blocked){
+			if(key == null || !key.isValid())
+				return;
+			key.interestOps(blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		/**
+		 * close the spectator's socket and stop writing to it
+		 */
+		void close(){
+			if(!channel.isOpen())
+				return;
+			try {
+				channel.close();
+			} catch(IOException e){}
+			metrics.socketClosed();
+			metrics.spectatorLeft();
+			feed.spectators.remove(this);
+			feed.watchers.decrementAndGet();
+			feed.release();
+		}
+	}
+}
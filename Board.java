@@ -0,0 +1,142 @@
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * The cards of a game.
+ * Values are kept in a primitive array and matched cards in a bit set,
+ * so even a 200x200 board only takes about 160KB
+ */
+public class Board {
+	private int[] values;
+	private BitSet matched;
+	private int pairsLeft;
+	private long seed;
+
+	/**
+	 * Create a shuffled board, the same seed always gives the same board
+	 * @param cardsSize	the number of cards on the board
+	 * @param seed		the seed of the shuffle
+	 */
+	public Board(int cardsSize, long seed){
+		this.seed = seed;
+		values = shuffle(cardsSize, seed);
+		matched = new BitSet(cardsSize);
+		pairsLeft = cardsSize / 2;
+	}
+
+	/**
+	 * Shuffle the board again and turn every card face down, the cards are reused
+	 * and only the random generator of the shuffle is new
+	 * @param seed	the seed of the shuffle
+	 */
+	public void reset(long seed){
+		this.seed = seed;
+		shuffle(values, seed);
+		matched.clear();
+		pairsLeft = values.length / 2;
+	}
+
+	/**
+	 * @return the number of cards on the board
+	 */
+	public int size(){
+		return values.length;
+	}
+
+	/**
+	 * @param card	a card a player picked
+	 * @return true if the card is on the board
+	 */
+	public boolean isCard(int card){
+		return card >= 0 && card < values.length;
+	}
+
+	/**
+	 * @param card	the index of a card
+	 * @return the value of the card
+	 */
+	public int value(int card){
+		return values[card];
+	}
+
+	/**
+	 * @param card	the index of a card
+	 * @return true if the card has been matched
+	 */
+	public boolean isMatched(int card){
+		return matched.get(card);
+	}
+
+	/**
+	 * @param from	the index to start looking at
+	 * @return the first matched card at or after the index or -1 if there is none
+	 */
+	public int nextMatched(int from){
+		return matched.nextSetBit(from);
+	}
+
+	/**
+	 * @param card1	the index of a card
+	 * @param card2	the index of another card
+	 * @return true if the cards are different cards with the same value
+	 */
+	public boolean isPair(int card1, int card2){
+		return card1 != card2 && values[card1] == values[card2];
+	}
+
+	/**
+	 * Mark a pair as matched
+	 * @param card1	the index of a card
+	 * @param card2	the index of the other card of the pair
+	 */
+	public void match(int card1, int card2){
+		matched.set(card1);
+		matched.set(card2);
+		pairsLeft--;
+	}
+
+	/**
+	 * @return the amount of pairs that haven't been matched
+	 */
+	public int pairsLeft(){
+		return pairsLeft;
+	}
+
+	/**
+	 * @return the seed the board was shuffled with
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * creates a shuffled game board with a Fisher-Yates shuffle,
+	 * every pair gets its own value so there is no limit on the amount of pairs
+	 * @param cardsSize	the number of cards on the board
+	 * @param seed		the seed of the shuffle
+	 * @return the value of every card on the board
+	 */
+	static int[] shuffle(int cardsSize, long seed){
+		return shuffle(new int[cardsSize], seed);
+	}
+
+	/**
+	 * shuffle a game board in place
+	 * @param cards	filled with the value of every card on the board
+	 * @param seed	the seed of the shuffle
+	 * @return the cards
+	 */
+	static int[] shuffle(int[] cards, long seed){
+		for(int i = 0; i < cards.length; i++)
+			cards[i] = i / 2;
+
+		SplittableRandom rand = new SplittableRandom(seed);
+		for(int i = cards.length - 1; i > 0; i--){
+			int j = rand.nextInt(i + 1);
+			int card = cards[i];
+			cards[i] = cards[j];
+			cards[j] = card;
+		}
+		return cards;
+	}
+}
@@ -0,0 +1,256 @@
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+
+/**
+ * The whole game board painted by one component instead of a button per card.
+ * The cards are drawn into a back buffer kept in video memory where the platform allows it,
+ * only cards that changed are drawn again and only their part of the screen is repainted.
+ * Only used on the event dispatch thread
+ */
+public class BoardView extends JComponent {
+	private static final Color BACK_COLOR = new Color(0x3b5998);
+	private static final Color FACE_COLOR = Color.WHITE;
+	private static final Color GAP_COLOR = Color.DARK_GRAY;
+
+	private int gameWidth;
+	private int gameHeight;
+	private int[] values;
+	private IconCache icons;
+	private IntConsumer picker;
+
+	private VolatileImage buffer;
+	//cards that changed since they were last drawn into the buffer
+	private BitSet dirty = new BitSet();
+	private boolean redrawAll = true;
+
+	/**
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 * @param icons			the card images, null if images are not used
+	 * @param picker		told the index of every face down card that is clicked
+	 */
+	public BoardView(int gameWidth, int gameHeight, IconCache icons, IntConsumer picker){
+		this.gameWidth = gameWidth;
+		this.gameHeight = gameHeight;
+		this.icons = icons;
+		this.picker = picker;
+		values = new int[gameWidth * gameHeight];
+		Arrays.fill(values, GameState.HIDDEN);
+		setOpaque(true);
+		setPreferredSize(new Dimension(gameWidth * 60, gameHeight * 60));
+		addMouseListener(new MouseAdapter(){
+			@Override
+			public void mouseClicked(MouseEvent e){
+				int card = cardAt(e.getX(), e.getY());
+				if(card != -1 && values[card] == GameState.HIDDEN)
+					BoardView.this.picker.accept(card);
+			}
+		});
+	}
+
+	/**
+	 * show a card
+	 * @param card	the index of the card
+	 * @param value	the value of the card
+	 */
+	public void revealCard(int card, int value){
+		setCard(card, value);
+	}
+
+	/**
+	 * turn a card face down
+	 * @param card	the index of the card
+	 */
+	public void hideCard(int card){
+		setCard(card, GameState.HIDDEN);
+	}
+
+	/**
+	 * draw every card again, called once the images have been loaded
+	 */
+	public void updateIcons(){
+		redrawAll = true;
+		repaint();
+	}
+
+	/**
+	 * @param x	x in this component
+	 * @param y	y in this component
+	 * @return the index of the card at the point or -1 if there is none
+	 */
+	public int cardAt(int x, int y){
+		if(x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+			return -1;
+		return index(y, getHeight(), gameHeight) * gameWidth + index(x, getWidth(), gameWidth);
+	}
+
+	/**
+	 * @param card	the index of a card
+	 * @return the part of this component the card is drawn in
+	 */
+	public Rectangle cardBounds(int card){
+		int column = card % gameWidth;
+		int row = card / gameWidth;
+		int x = edge(column, getWidth(), gameWidth);
+		int y = edge(row, getHeight(), gameHeight);
+		return new Rectangle(x, y, edge(column + 1, getWidth(), gameWidth) - x, edge(row + 1, getHeight(), gameHeight) - y);
+	}
+
+	/**
+	 * @param card	the index of the card
+	 * @param value	the value to show or {@link GameState#HIDDEN}
+	 */
+	private void setCard(int card, int value){
+		if(values[card] == value)
+			return;
+		values[card] = value;
+		dirty.set(card);
+		repaint(cardBounds(card));
+	}
+
+	@Override
+	protected void paintComponent(Graphics g){
+		int width = getWidth();
+		int height = getHeight();
+		if(width <= 0 || height <= 0)
+			return;
+
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		if(config == null){
+			//not on screen so there is nothing to keep a buffer for
+			paintCards(g, g.getClipBounds(), true);
+			return;
+		}
+
+		do {
+			if(buffer == null || buffer.getWidth() != width || buffer.getHeight() != height){
+				createBuffer(width, height);
+			} else {
+				int status = buffer.validate(config);
+				if(status == VolatileImage.IMAGE_INCOMPATIBLE)
+					createBuffer(width, height);
+				else if(status == VolatileImage.IMAGE_RESTORED)
+					redrawAll = true;
+			}
+			if(buffer == null){
+				paintCards(g, g.getClipBounds(), true);
+				return;
+			}
+
+			Graphics2D bg = buffer.createGraphics();
+			try {
+				paintCards(bg, null, redrawAll);
+			} finally {
+				bg.dispose();
+			}
+			redrawAll = false;
+			dirty.clear();
+			g.drawImage(buffer, 0, 0, null);
+		} while(buffer.contentsLost());
+	}
+
+	/**
+	 * replace the back buffer, everything has to be drawn into the new one
+	 * @param width		the width of the buffer
+	 * @param height	the height of the buffer
+	 */
+	private void createBuffer(int width, int height){
+		if(buffer != null)
+			buffer.flush();
+		buffer = createVolatileImage(width, height);
+		redrawAll = true;
+	}
+
+	/**
+	 * draw cards
+	 * @param g		where to draw
+	 * @param clip	only cards in this part are drawn, null for no limit
+	 * @param all	draw every card instead of only the ones that changed
+	 */
+	private void paintCards(Graphics g, Rectangle clip, boolean all){
+		if(all){
+			g.setColor(GAP_COLOR);
+			if(clip == null)
+				g.fillRect(0, 0, getWidth(), getHeight());
+			else
+				g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		}
+
+		int first = 0;
+		int last = values.length - 1;
+		if(clip != null){
+			first = Math.max(0, cardAt(clip.x, clip.y));
+			int corner = cardAt(Math.min(clip.x + clip.width, getWidth()) - 1, Math.min(clip.y + clip.height, getHeight()) - 1);
+			last = corner == -1 ? last : corner;
+		}
+		int firstColumn = first % gameWidth;
+		int lastColumn = last % gameWidth;
+
+		if(all){
+			for(int row = first / gameWidth; row <= last / gameWidth; row++)
+				for(int column = firstColumn; column <= lastColumn; column++)
+					paintCard(g, row * gameWidth + column);
+		} else {
+			for(int card = dirty.nextSetBit(0); card >= 0; card = dirty.nextSetBit(card + 1))
+				paintCard(g, card);
+		}
+	}
+
+	/**
+	 * draw one card with a one pixel gap around it
+	 * @param g		where to draw
+	 * @param card	the index of the card
+	 */
+	private void paintCard(Graphics g, int card){
+		Rectangle bounds = cardBounds(card);
+		int x = bounds.x + 1;
+		int y = bounds.y + 1;
+		int width = Math.max(1, bounds.width - 2);
+		int height = Math.max(1, bounds.height - 2);
+		int value = values[card];
+
+		ImageIcon icon = icons != null ? icons.get(value == GameState.HIDDEN ? IconCache.BACK : value, width, height) : null;
+		if(icon != null){
+			g.drawImage(icon.getImage(), x, y, null);
+			return;
+		}
+
+		g.setColor(value == GameState.HIDDEN ? BACK_COLOR : FACE_COLOR);
+		g.fillRect(x, y, width, height);
+		if(value != GameState.HIDDEN && height > 8){
+			String text = String.valueOf(value);
+			FontMetrics metrics = g.getFontMetrics();
+			if(metrics.stringWidth(text) <= width){
+				g.setColor(Color.BLACK);
+				g.drawString(text, x + (width - metrics.stringWidth(text)) / 2, y + (height - metrics.getHeight()) / 2 + metrics.getAscent());
+			}
+		}
+	}
+
+	/**
+	 * @param position	a position along the width or height
+	 * @param size		the size of the component
+	 * @param count		the amount of rows or columns
+	 * @return the row or column the position is in, the inverse of {@link #edge}
+	 */
+	private static int index(int position, int size, int count){
+		return (int) (((long) (position + 1) * count - 1) / size);
+	}
+
+	/**
+	 * @param index		the index of a row or column
+	 * @param size		the size of the component
+	 * @param count		the amount of rows or columns
+	 * @return where the row or column starts
+	 */
+	private static int edge(int index, int size, int count){
+		return (int) ((long) index * size / count);
+	}
+}
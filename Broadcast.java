@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Commands for every client of a game encoded once into a reusable buffer.
+ * Commands for a single client are kept in a second buffer together with the
+ * point in the shared commands they were sent at, so every client gets
+ * its commands in order with one gathered write.
+ * Commands are always encoded in version 1 of the {@link Protocol} and once more in every
+ * other version a client has been set to speak
+ */
+public class Broadcast {
+	/**
+	 * Initial size of the buffers
+	 */
+	public static final int INITIAL_SIZE = 256;
+
+	private Encoding[] encodings = new Encoding[Protocol.LATEST + 1];
+	private int[] versions = new int[0];
+
+	private ByteBuffer[] views = new ByteBuffer[0];
+	private byte[] scratch = new byte[INITIAL_SIZE];
+	private GameMetrics metrics;
+
+	/**
+	 * Create a broadcast that isn't counted in any metrics
+	 */
+	public Broadcast(){
+		this(null);
+	}
+
+	/**
+	 * @param metrics	the metrics every queued command is counted in
+	 */
+	public Broadcast(GameMetrics metrics){
+		this.metrics = metrics;
+		encodings[Protocol.V1] = new Encoding(Protocol.V1);
+	}
+
+	/**
+	 * Set the version of the protocol a client speaks, clients speak version 1 until they are set.
+	 * Only call it while nothing is queued
+	 * @param client	the client
+	 * @param version	the version it speaks
+	 */
+	public void version(int client, int version){
+		if(client >= versions.length)
+			versions = Arrays.copyOf(versions, Math.max(client + 1, versions.length * 2));
+		versions[client] = version;
+		if(encodings[version] == null)
+			encodings[version] = new Encoding(version);
+	}
+
+	/**
+	 * @param client	a client
+	 * @return the version of the protocol the client speaks
+	 */
+	private int versionOf(int client){
+		return client < versions.length && versions[client] != 0 ? versions[client] : Protocol.V1;
+	}
+
+	/**
+	 * Queue a command for every client
+	 * @param values	the command followed by its arguments
+	 */
+	public void send(int... values){
+		if(metrics != null)
+			metrics.commandSent(values[0]);
+		for(Encoding encoding : encodings)
+			if(encoding != null)
+				encoding.send(values);
+	}
+
+	/**
+	 * Queue a command for one client
+	 * @param client	the client to send the command to
+	 * @param values	the command followed by its arguments
+	 */
+	public void sendTo(int client, int... values){
+		if(metrics != null)
+			metrics.commandSent(values[0]);
+		encodings[versionOf(client)].sendTo(client, values);
+	}
+
+	/**
+	 * @return true if nothing has been queued since the last {@link #clear()}
+	 */
+	public boolean isEmpty(){
+		for(Encoding encoding : encodings)
+			if(encoding != null && (encoding.shared.position() != 0 || encoding.singles != 0))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return a view of the commands queued for every client in version 1,
+	 * only valid until the next {@link #clear()}
+	 */
+	public ByteBuffer shared(){
+		return encodings[Protocol.V1].shared.duplicate().flip();
+	}
+
+	/**
+	 * Forget everything that has been queued, the buffers are kept
+	 */
+	public void clear(){
+		for(Encoding encoding : encodings)
+			if(encoding != null){
+				encoding.shared.clear();
+				encoding.single.clear();
+				encoding.singles = 0;
+			}
+	}
+
+	/**
+	 * Write everything queued for a client to its socket.
+	 * Sockets that have a channel get a single gathered write,
+	 * other sockets get a single write of a copy of the commands
+	 * @param client	the client
+	 * @param socket	the client's blocking socket
+	 * @return the amount of bytes written
+	 * @throws IOException
+	 */
+	public long write(int client, Socket socket) throws IOException {
+		int count = prepare(client);
+		if(count == 0)
+			return 0;
+
+		long written = 0;
+		SocketChannel channel = socket.getChannel();
+		if(channel != null){
+			while(views[count - 1].hasRemaining())
+				written += channel.write(views, 0, count);
+		} else {
+			OutputStream out = socket.getOutputStream();
+			if(count == 1){
+				written = views[0].remaining();
+				out.write(views[0].array(), views[0].position(), views[0].remaining());
+			} else {
+				written = copy(count);
+				out.write(scratch, 0, (int) written);
+			}
+			out.flush();
+		}
+		return written;
+	}
+
+	/**
+	 * Lay out views of the buffers in the order a client has to receive them,
+	 * in the version of the protocol the client speaks
+	 * @param client	the client
+	 * @return the amount of views in {@link #views()} that hold the client's commands
+	 */
+	int prepare(int client){
+		Encoding encoding = encodings[versionOf(client)];
+		int singles = encoding.singles;
+		if(views.length < singles * 2 + 1)
+			views = new ByteBuffer[singles * 2 + 1];
+		if(encoding.singleViews.length < singles){
+			encoding.sharedViews = new ByteBuffer[singles + 1];
+			encoding.singleViews = new ByteBuffer[singles];
+		}
+
+		int count = 0;
+		int from = 0;
+		int used = 0;
+		for(int i = 0; i < singles; i++){
+			if(encoding.to[i] != client)
+				continue;
+			if(encoding.at[i] > from)
+				views[count++] = view(encoding.sharedViews, used, encoding.shared, from, encoding.at[i]);
+			views[count++] = view(encoding.singleViews, used, encoding.single, encoding.start[i], encoding.end[i]);
+			from = encoding.at[i];
+			used++;
+		}
+		if(encoding.shared.position() > from)
+			views[count++] = view(encoding.sharedViews, used, encoding.shared, from, encoding.shared.position());
+		return count;
+	}
+
+	/**
+	 * @return the views laid out by the last call to {@link #prepare(int)}
+	 */
+	ByteBuffer[] views(){
+		return views;
+	}
+
+	/**
+	 * Copy the views laid out by {@link #prepare(int)} into one array
+	 * @param count	the amount of views
+	 * @return the amount of bytes copied into the scratch array
+	 */
+	private int copy(int count){
+		int length = 0;
+		for(int i = 0; i < count; i++)
+			length += views[i].remaining();
+		if(scratch.length < length)
+			scratch = new byte[length];
+
+		length = 0;
+		for(int i = 0; i < count; i++){
+			int remaining = views[i].remaining();
+			views[i].get(scratch, length, remaining);
+			length += remaining;
+		}
+		return length;
+	}
+
+	/**
+	 * Reuse a view of a buffer for a range of it, views are
+	 * only created again when the buffer they look at has been replaced
+	 * @param pool		the views of the buffer
+	 * @param index		the view to reuse
+	 * @param buffer	the buffer
+	 * @param from		the start of the range
+	 * @param to		the end of the range
+	 * @return the view
+	 */
+	private static ByteBuffer view(ByteBuffer[] pool, int index, ByteBuffer buffer, int from, int to){
+		ByteBuffer view = pool[index];
+		if(view == null || view.array() != buffer.array())
+			view = pool[index] = buffer.duplicate();
+		view.limit(to);
+		view.position(from);
+		return view;
+	}
+
+	/**
+	 * @param buffer	a buffer
+	 * @param bytes		the amount of bytes that are about to be put into it
+	 * @return the buffer or a larger copy of it if it doesn't have room for the bytes
+	 */
+	private static ByteBuffer ensure(ByteBuffer buffer, int bytes){
+		if(buffer.remaining() >= bytes)
+			return buffer;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * The commands queued in one version of the protocol
+	 */
+	private static class Encoding {
+		private int version;
+		private ByteBuffer shared = ByteBuffer.allocate(INITIAL_SIZE);
+		private ByteBuffer single = ByteBuffer.allocate(INITIAL_SIZE);
+
+		private int singles = 0;
+		private int[] to = new int[4];
+		private int[] at = new int[4];
+		private int[] start = new int[4];
+		private int[] end = new int[4];
+
+		private ByteBuffer[] sharedViews = new ByteBuffer[1];
+		private ByteBuffer[] singleViews = new ByteBuffer[0];
+
+		/**
+		 * @param version	the version of the protocol to encode in
+		 */
+		Encoding(int version){
+			this.version = version;
+		}
+
+		/**
+		 * @param values	the command followed by its arguments
+		 */
+		void send(int... values){
+			shared = ensure(shared, Protocol.size(version, values));
+			Protocol.put(shared, version, values);
+		}
+
+		/**
+		 * @param client	the client to send the command to
+		 * @param values	the command followed by its arguments
+		 */
+		void sendTo(int client, int... values){
+			if(singles == to.length){
+				to = Arrays.copyOf(to, singles * 2);
+				at = Arrays.copyOf(at, singles * 2);
+				start = Arrays.copyOf(start, singles * 2);
+				end = Arrays.copyOf(end, singles * 2);
+			}
+			single = ensure(single, Protocol.size(version, values));
+			to[singles] = client;
+			at[singles] = shared.position();
+			start[singles] = single.position();
+			Protocol.put(single, version, values);
+			end[singles] = single.position();
+			singles++;
+		}
+	}
+}
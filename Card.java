@@ -1,86 +1,83 @@
-import java.awt.*;
 import javax.swing.JButton;
-import javax.swing.ImageIcon;
 
 public class Card extends JButton {
 	private int index;
-	private String imagePath;
 	public final String BACK_TEXT = "hello";
-	public static final int NUM_OF_FRONT_IMAGES = 19;
-	private ImageIcon backIcon;
-	private ImageIcon frontIcon;
-	private boolean hasImages = false;
-	
+	private IconCache icons;
+	private int value = -1;
+
 	/**
-	 *	Construct a card
+	 *	Construct a card, it shows text until the images are loaded
 	 *	@param i index of the card
-	 *	@param hasImages If all the images are available then images will be used
+	 *	@param icons the images shared by every card, null if images are not used
 	 */
-	public Card(int i, String imagePath, boolean hasImages){
-		this.imagePath = imagePath;
-		this.hasImages = hasImages;
-		if(hasImages)
-			backIcon = new ImageIcon(imagePath + "/back.jpg");
-		else 
-			setText(BACK_TEXT);
+	public Card(int i, IconCache icons){
+		this.icons = icons;
+		setText(BACK_TEXT);
 		index = i;
 	}
-	
-	
+
+	/**
+	 *	the card's images are only scaled again when its size changes
+	 */
 	@Override
-	public void paintComponent(Graphics g){
-		super.paintComponent(g);
-		
-		if(hasImages){
-			setIcon(getScaledImage(backIcon));
-			if(frontIcon != null)
-				setDisabledIcon(getScaledImage(frontIcon));
-		}
-		
+	public void setBounds(int x, int y, int width, int height){
+		boolean resized = width != getWidth() || height != getHeight();
+		super.setBounds(x, y, width, height);
+		if(resized)
+			updateIcons();
 	}
-	
+
 	/**
 	 *	@return the index of the card
 	 */
 	public int getIndex(){
 		return index;
 	}
-	
+
 	/**
 	 *	show card and disable it
 	 *	@param value	the value of the card
 	 */
 	public void revealCard(int value){
-		if(hasImages){
-			if(frontIcon == null)
-				frontIcon = new ImageIcon(imagePath + "/" + value + ".jpg");
-			else
-				setDisabledIcon(getScaledImage(frontIcon));
-		} else
+		this.value = value;
+		if(hasIcons())
+			updateIcons();
+		else
 			setText(String.valueOf(value));
-		
+
 		setEnabled(false);
 	}
-	
+
 	/**
 	 *	hide card and enable it
 	 */
 	public void hideCard(){
-		if(hasImages)
-			setIcon(getScaledImage(backIcon));
+		if(hasIcons())
+			setText(null);
 		else
 			setText(BACK_TEXT);
-		
+
 		setEnabled(true);
 	}
-	
+
+	/**
+	 *	use the images for the current size of the card,
+	 *	called again once the images have been loaded
+	 */
+	void updateIcons(){
+		if(!hasIcons())
+			return;
+		setText(null);
+		setIcon(icons.get(IconCache.BACK, getWidth(), getHeight()));
+		if(value != -1)
+			setDisabledIcon(icons.get(value, getWidth(), getHeight()));
+	}
+
 	/**
-	 * returns a scaled version of the image
-	 * @param icon	the image to scale
-	 * @return
+	 *	@return true if the card shows images
 	 */
-	private ImageIcon getScaledImage(ImageIcon icon){
-		Image img = icon.getImage();
-		return new ImageIcon(img.getScaledInstance(getWidth(), getHeight(), Image.SCALE_FAST));
+	private boolean hasIcons(){
+		return icons != null && icons.isLoaded();
 	}
-}
\ No newline at end of file
+}
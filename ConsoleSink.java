@@ -0,0 +1,10 @@
+/**
+ * Writes log messages to standard output
+ */
+public class ConsoleSink implements LogSink {
+
+	public void write(String text){
+		System.out.print(text);
+		System.out.flush();
+	}
+}
@@ -0,0 +1,233 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The deadlines of every game, how long a player can take for a turn and how long a connection
+ * can leave the bytes sent to it unread, kept on a single hashed wheel.
+ * Scheduling and cancelling a deadline are O(1) no matter how many are pending, a deadline
+ * only ever runs late by up to one {@link #TICK} and never early.
+ * Deadlines run on the wheel's thread and must not block, anything that waits for a game
+ * is handed to another thread
+ */
+public class Deadlines implements Runnable {
+	/**
+	 * Default amount of ms a player has for a turn
+	 */
+	public static final int DEFAULT_TURN_TIME = 60000;
+
+	/**
+	 * Default amount of ms a connection can leave the bytes sent to it unread
+	 */
+	public static final int DEFAULT_IDLE_TIME = 10000;
+
+	/**
+	 * How often the wheel moves on in ms, the precision of every deadline
+	 */
+	public static final int TICK = 100;
+
+	/**
+	 * Number of buckets on the wheel, deadlines further out than a turn of the wheel wait for more turns
+	 */
+	public static final int WHEEL_SIZE = 512;
+
+	//the most new deadlines put on the wheel per tick so a burst doesn't hold up the ones that are due
+	private static final int MAX_ADDED_PER_TICK = 100000;
+
+	private Bucket[] wheel = new Bucket[WHEEL_SIZE];
+	private Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	private Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+	private long tick = TimeUnit.MILLISECONDS.toNanos(TICK);
+	private long start = System.nanoTime();
+	private long ticks = 0;
+	private int turnTime;
+	private int idleTime;
+
+	/**
+	 * Create the wheel, nothing runs until the wheel is run
+	 * @param turnTime	the amount of ms a player has for a turn, 0 for no limit
+	 * @param idleTime	the amount of ms a connection can leave bytes unread, 0 for no limit
+	 */
+	public Deadlines(int turnTime, int idleTime){
+		this.turnTime = turnTime;
+		this.idleTime = idleTime;
+		for(int i = 0; i < wheel.length; i++)
+			wheel[i] = new Bucket();
+	}
+
+	/**
+	 * @return the amount of ms a player has for a turn, 0 for no limit
+	 */
+	public int getTurnTime(){
+		return turnTime;
+	}
+
+	/**
+	 * @return the amount of ms a connection can leave bytes unread, 0 for no limit
+	 */
+	public int getIdleTime(){
+		return idleTime;
+	}
+
+	/**
+	 * Run a task once a deadline has passed, unless it is cancelled first.
+	 * The task runs on the wheel's thread and must not block
+	 * @param task	the task to run
+	 * @param delay	the amount of ms until the deadline
+	 * @return the deadline
+	 */
+	public Timeout schedule(Runnable task, long delay){
+		Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+		added.add(timeout);
+		return timeout;
+	}
+
+	public void run(){
+		while(true){
+			long deadline = start + (ticks + 1) * tick;
+			long now;
+			while((now = System.nanoTime()) < deadline)
+				LockSupport.parkNanos(deadline - now);
+
+			removeCancelled();
+			addNew();
+			wheel[(int) (ticks & (WHEEL_SIZE - 1))].expire();
+			ticks++;
+		}
+	}
+
+	/**
+	 * take the deadlines that were cancelled since the last tick off the wheel
+	 */
+	private void removeCancelled(){
+		Timeout timeout;
+		while((timeout = cancelled.poll()) != null)
+			if(timeout.bucket != null){
+				timeout.bucket.remove(timeout);
+				timeout.task = null;
+			}
+	}
+
+	/**
+	 * put the deadlines that were scheduled since the last tick in their bucket.
+	 * A deadline that is already due goes in the bucket of this tick
+	 */
+	private void addNew(){
+		for(int i = 0; i < MAX_ADDED_PER_TICK; i++){
+			Timeout timeout = added.poll();
+			if(timeout == null)
+				return;
+			if(timeout.state.get() != Timeout.PENDING)
+				continue;
+			long due = Math.max((timeout.deadline - start) / tick, ticks);
+			timeout.rounds = (due - ticks) / WHEEL_SIZE;
+			wheel[(int) (due & (WHEEL_SIZE - 1))].add(timeout);
+		}
+	}
+
+	/**
+	 * A deadline that can be cancelled until its task runs
+	 */
+	public class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private Runnable task;
+		private long deadline;
+		private AtomicInteger state = new AtomicInteger(PENDING);
+		//only used on the wheel's thread
+		private long rounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		/**
+		 * @param task		the task to run
+		 * @param deadline	when to run it in {@link System#nanoTime()}
+		 */
+		Timeout(Runnable task, long deadline){
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the deadline, its task doesn't run unless it already has
+		 */
+		public void cancel(){
+			if(state.compareAndSet(PENDING, CANCELLED))
+				cancelled.add(this);
+		}
+
+		/**
+		 * run the task unless the deadline was cancelled
+		 */
+		private void expire(){
+			if(state.compareAndSet(PENDING, EXPIRED))
+				task.run();
+		}
+	}
+
+	/**
+	 * The deadlines that are due on the same tick of a turn of the wheel, as a linked list
+	 * so a cancelled deadline can be taken out without looking for it
+	 */
+	private static class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		/**
+		 * @param timeout	the deadline to add
+		 */
+		void add(Timeout timeout){
+			timeout.bucket = this;
+			if(head == null)
+				head = tail = timeout;
+			else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		/**
+		 * @param timeout	the deadline to take out
+		 */
+		void remove(Timeout timeout){
+			if(timeout.previous != null)
+				timeout.previous.next = timeout.next;
+			else
+				head = timeout.next;
+			if(timeout.next != null)
+				timeout.next.previous = timeout.previous;
+			else
+				tail = timeout.previous;
+			timeout.bucket = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+
+		/**
+		 * run the deadlines that are due this turn of the wheel, the others wait for another turn
+		 */
+		void expire(){
+			Timeout timeout = head;
+			while(timeout != null){
+				Timeout next = timeout.next;
+				if(timeout.rounds <= 0){
+					remove(timeout);
+					try {
+						timeout.expire();
+					} catch(RuntimeException e){
+						Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+					}
+					timeout.task = null;
+				} else
+					timeout.rounds--;
+				timeout = next;
+			}
+		}
+	}
+}
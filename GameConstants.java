@@ -12,6 +12,61 @@ public interface GameConstants {
 	 */
 	int INIT = 101;
 
+	/**
+	 * JOIN p w h
+	 * Ask the server for a game, sent by the client right after connecting.
+	 * Clients that don't send it get the server's default game
+	 * p the amount of players, 0 for the server's default
+	 * w game width, 0 for the server's default
+	 * h game height, 0 for the server's default
+	 */
+	int JOIN = 102;
+
+	/**
+	 * SESSION t1 t2
+	 * The token a player can take its seat in the game again with, sent after INIT.
+	 * Both halves are negative so clients that don't know the command skip all three values
+	 * t1 the high half of the token
+	 * t2 the low half of the token
+	 */
+	int SESSION = 103;
+
+	/**
+	 * RESUME t1 t2
+	 * Take a seat in a game again after losing the connection, sent instead of JOIN.
+	 * The server answers with INIT and the state of the game or with DONE if the game is over
+	 * t1 the high half of the token
+	 * t2 the low half of the token
+	 */
+	int RESUME = 104;
+
+	/**
+	 * WATCH g
+	 * Watch a game without playing in it, sent instead of JOIN.
+	 * The server answers with INIT for player -1 and the state of the game followed by
+	 * everything that happens in it, or with DONE if there is no such game
+	 * g the number of the game, counting from 0
+	 */
+	int WATCH = 105;
+
+	/**
+	 * VERSION v
+	 * The version of the {@link Protocol} to speak. Sent by the client before JOIN or RESUME
+	 * with the newest version it speaks, the server answers with the version it picked before INIT
+	 * and both sides speak it from then on. Both are sent in version 1
+	 * v the version of the protocol
+	 */
+	int VERSION = 106;
+
+	/**
+	 * PLAYER i1 i2
+	 * Who the player is across games, sent by the client before JOIN so its results
+	 * count on the leaderboard. Sent in version 1
+	 * i1 the high half of the id
+	 * i2 the low half of the id
+	 */
+	int PLAYER = 107;
+
 	/**
 	 * SETTURN p
 	 * give the player with the given number a turn
@@ -104,6 +159,18 @@ public interface GameConstants {
 				return "DONE";
 			case INIT:
 				return "INIT";
+			case JOIN:
+				return "JOIN";
+			case SESSION:
+				return "SESSION";
+			case RESUME:
+				return "RESUME";
+			case WATCH:
+				return "WATCH";
+			case VERSION:
+				return "VERSION";
+			case PLAYER:
+				return "PLAYER";
 			default:
 				return "INVALID COMMAND";
 		}
@@ -0,0 +1,400 @@
+import java.net.InetAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the life of every game, from the connection being accepted
+ * to the winner, so a recording shows where the time of a slow game went.
+ * Games and players are numbered like they are in the log, from 1.
+ * Every event is only created while a recording has it enabled, without a recording
+ * an event costs a check of a flag and nothing is allocated. Only I/O errors record
+ * a stack trace, the other events happen too often for one to be worth it.
+ * Events that take time are returned begun and committed with {@link #commit(Event)},
+ * null is returned and taken for events that aren't enabled
+ */
+public class GameEvents {
+	private static final EventType CONNECTION = EventType.getEventType(Connection.class);
+	private static final EventType STARTED = EventType.getEventType(Started.class);
+	private static final EventType GAME = EventType.getEventType(Game.class);
+	private static final EventType TURN = EventType.getEventType(Turn.class);
+	private static final EventType REVEAL = EventType.getEventType(Reveal.class);
+	private static final EventType MATCH = EventType.getEventType(Match.class);
+	private static final EventType HIDE = EventType.getEventType(Hide.class);
+	private static final EventType WRITE = EventType.getEventType(Write.class);
+	private static final EventType IO_ERROR = EventType.getEventType(IoError.class);
+
+	/**
+	 * @return a begun connection event or null
+	 */
+	static Connection connection(){
+		if(!CONNECTION.isEnabled())
+			return null;
+		Connection event = new Connection();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit a connection event once the client has been handed on
+	 * @param event		the event or null
+	 * @param address	the address of the client
+	 * @param command	the command the client asked for
+	 * @param version	the version of the protocol the client got
+	 * @param id		the id of the player or 0
+	 */
+	static void connected(Connection event, InetAddress address, String command, int version, long id){
+		if(event == null)
+			return;
+		event.address = address == null ? null : address.getHostAddress();
+		event.command = command;
+		event.version = version;
+		event.id = id;
+		event.commit();
+	}
+
+	/**
+	 * @return a begun event for the start of a game or null
+	 */
+	static Started started(){
+		if(!STARTED.isEnabled())
+			return null;
+		Started event = new Started();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit the start of a game once every player has been told about it
+	 * @param event		the event or null
+	 * @param game		the number of the game
+	 * @param players	the amount of players
+	 * @param width		the width of the board
+	 * @param height	the height of the board
+	 */
+	static void started(Started event, int game, int players, int width, int height){
+		if(event == null)
+			return;
+		event.game = game + 1;
+		event.players = players;
+		event.width = width;
+		event.height = height;
+		event.commit();
+	}
+
+	/**
+	 * @return a begun event for a whole game or null
+	 */
+	static Game game(){
+		if(!GAME.isEnabled())
+			return null;
+		Game event = new Game();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit a whole game once it has a winner
+	 * @param event		the event or null
+	 * @param game		the number of the game
+	 * @param winner	the player that won
+	 * @param turns		the amount of turns the game took
+	 */
+	static void ended(Game event, int game, int winner, int turns){
+		if(event == null)
+			return;
+		event.game = game + 1;
+		event.player = winner + 1;
+		event.turns = turns;
+		event.commit();
+	}
+
+	/**
+	 * @param game		the number of the game
+	 * @param player	the player whose turn it is
+	 * @param turn		the number of the turn
+	 * @return a begun turn event or null
+	 */
+	static Turn turn(int game, int player, int turn){
+		if(!TURN.isEnabled())
+			return null;
+		Turn event = new Turn();
+		event.game = game + 1;
+		event.player = player + 1;
+		event.turn = turn;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * @param game		the number of the game
+	 * @param player	the player that picked the card
+	 * @param card		the card
+	 * @param value		the value of the card
+	 */
+	static void reveal(int game, int player, int card, int value){
+		if(!REVEAL.isEnabled())
+			return;
+		Reveal event = new Reveal();
+		event.game = game + 1;
+		event.player = player + 1;
+		event.card = card;
+		event.value = value;
+		event.commit();
+	}
+
+	/**
+	 * @param game		the number of the game
+	 * @param player	the player that found the pair
+	 * @param card1		a card of the pair
+	 * @param card2		the other card of the pair
+	 * @param points	the points of the player with the pair
+	 */
+	static void match(int game, int player, int card1, int card2, int points){
+		if(!MATCH.isEnabled())
+			return;
+		Match event = new Match();
+		event.game = game + 1;
+		event.player = player + 1;
+		event.card1 = card1;
+		event.card2 = card2;
+		event.points = points;
+		event.commit();
+	}
+
+	/**
+	 * @param game		the number of the game
+	 * @param player	the player that picked the pair
+	 * @param card1		the first card of the pair
+	 * @param card2		the second card of the pair
+	 * @return a begun event for showing a mismatched pair or null
+	 */
+	static Hide hide(int game, int player, int card1, int card2){
+		if(!HIDE.isEnabled())
+			return null;
+		Hide event = new Hide();
+		event.game = game + 1;
+		event.player = player + 1;
+		event.card1 = card1;
+		event.card2 = card2;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * @return a begun write event or null
+	 */
+	static Write write(){
+		if(!WRITE.isEnabled())
+			return null;
+		Write event = new Write();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit a write once the socket has taken what it takes
+	 * @param event		the event or null
+	 * @param game		the number of the game
+	 * @param player	the player written to
+	 * @param bytes		the amount of bytes written
+	 */
+	static void wrote(Write event, int game, int player, long bytes){
+		if(event == null)
+			return;
+		event.game = game + 1;
+		event.player = player + 1;
+		event.bytes = bytes;
+		event.commit();
+	}
+
+	/**
+	 * @param game		the number of the game or -1 for a client without one
+	 * @param player	the player or -1 for a client without a seat
+	 * @param message	what went wrong
+	 */
+	static void ioError(int game, int player, String message){
+		if(!IO_ERROR.isEnabled())
+			return;
+		IoError event = new IoError();
+		event.game = game + 1;
+		event.player = player + 1;
+		event.message = message;
+		event.commit();
+	}
+
+	/**
+	 * Commit an event that was begun
+	 * @param event	the event or null
+	 */
+	static void commit(Event event){
+		if(event != null)
+			event.commit();
+	}
+
+	@Name("concentration.Connection")
+	@Label("Connection")
+	@Category("Concentration")
+	@Description("A client from being accepted until it is in the lobby, back in its game or watching one")
+	@StackTrace(false)
+	static class Connection extends Event {
+		@Label("Address")
+		String address;
+
+		@Label("Command")
+		String command;
+
+		@Label("Protocol Version")
+		int version;
+
+		@Label("Player Id")
+		long id;
+	}
+
+	@Name("concentration.GameStarted")
+	@Label("Game Started")
+	@Category("Concentration")
+	@Description("Shuffling the board and telling every player about the game")
+	@StackTrace(false)
+	static class Started extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Players")
+		int players;
+
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+	}
+
+	@Name("concentration.Game")
+	@Label("Game")
+	@Category("Concentration")
+	@Description("A whole game, committed once it has a winner")
+	@StackTrace(false)
+	static class Game extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Winner")
+		int player;
+
+		@Label("Turns")
+		int turns;
+	}
+
+	@Name("concentration.Turn")
+	@Label("Turn")
+	@Category("Concentration")
+	@Description("A player's turn, from being given the turn to the next player getting it")
+	@StackTrace(false)
+	static class Turn extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Player")
+		int player;
+
+		@Label("Turn")
+		int turn;
+	}
+
+	@Name("concentration.Reveal")
+	@Label("Card Revealed")
+	@Category("Concentration")
+	@StackTrace(false)
+	static class Reveal extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Player")
+		int player;
+
+		@Label("Card")
+		int card;
+
+		@Label("Value")
+		int value;
+	}
+
+	@Name("concentration.Match")
+	@Label("Match")
+	@Category("Concentration")
+	@StackTrace(false)
+	static class Match extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Player")
+		int player;
+
+		@Label("First Card")
+		int card1;
+
+		@Label("Second Card")
+		int card2;
+
+		@Label("Points")
+		int points;
+	}
+
+	@Name("concentration.Hide")
+	@Label("Hide")
+	@Category("Concentration")
+	@Description("A mismatched pair being shown before it is hidden and the turn is handed on")
+	@StackTrace(false)
+	static class Hide extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Player")
+		int player;
+
+		@Label("First Card")
+		int card1;
+
+		@Label("Second Card")
+		int card2;
+	}
+
+	@Name("concentration.Write")
+	@Label("Socket Write")
+	@Category("Concentration")
+	@Description("Writing what was queued for a player to its socket")
+	@StackTrace(false)
+	static class Write extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Player")
+		int player;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("concentration.IoError")
+	@Label("I/O Error")
+	@Category("Concentration")
+	@Description("A connection that failed, game and player are 0 for clients that weren't in a game")
+	static class IoError extends Event {
+		@Label("Game")
+		int game;
+
+		@Label("Player")
+		int player;
+
+		@Label("Message")
+		String message;
+	}
+}
@@ -0,0 +1,587 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only journal of the games being played so they survive a crash or restart.
+ * A game is its seed, its size, the session tokens and ids of its players and the cards that were revealed,
+ * everything else follows from replaying those moves. Game threads only copy their records into a bounded ring buffer,
+ * a single writer thread appends them to the current segment in batches and forces every batch
+ * to disk once, so the games share one fsync and never wait for the disk.
+ * Once a segment grows past its size limit a new segment is started with only the games that
+ * are still being played and the older segments are deleted, so finished games are dropped
+ */
+public class GameJournal implements Runnable {
+	/**
+	 * Default size of a segment before it is rolled over
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Default amount of records the buffer can hold, must be a power of 2
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * The most records written with one fsync
+	 */
+	public static final int MAX_BATCH = 1024;
+
+	static final byte START = 1;
+	static final byte REVEAL = 2;
+	static final byte END = 3;
+	static final byte SESSION = 4;
+	static final byte PLAYER = 5;
+
+	private static final int MAGIC = 0x434a4e4c;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int START_SIZE = 25;
+	private static final int REVEAL_SIZE = 9;
+	private static final int END_SIZE = 5;
+	private static final int SESSION_SIZE = 17;
+	private static final String PREFIX = "journal-";
+	private static final String SUFFIX = ".log";
+
+	private Path directory;
+	private long segmentSize;
+	private int segment;
+	private FileChannel channel;
+	private ByteBuffer batch = ByteBuffer.allocateDirect(MAX_BATCH * START_SIZE);
+	private int lastGame = -1;
+	//games without an END, only touched by the writer thread once it has started
+	private Map<Integer, Game> live = new HashMap<>();
+	private Map<Integer, Game> recovered;
+
+	private Event[] events;
+	private int mask;
+	private AtomicLong head = new AtomicLong();
+	private long tail = 0;
+
+	private volatile boolean running = true;
+	private Thread writer;
+	private GameLog gameLog;
+
+	/**
+	 * Open the journal in a directory and recover the games that were still being played
+	 * @param directory	the directory the segments are kept in
+	 * @param gameLog	the log failed writes are output to
+	 * @throws IOException
+	 */
+	public GameJournal(String directory, GameLog gameLog) throws IOException {
+		this(directory, gameLog, DEFAULT_SEGMENT_SIZE, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Open the journal in a directory and recover the games that were still being played
+	 * @param directory		the directory the segments are kept in
+	 * @param gameLog		the log failed writes are output to
+	 * @param segmentSize	the size of a segment before it is rolled over
+	 * @param capacity		the amount of records the buffer can hold, rounded up to a power of 2
+	 * @throws IOException
+	 */
+	public GameJournal(String directory, GameLog gameLog, long segmentSize, int capacity) throws IOException {
+		this.directory = Paths.get(directory);
+		this.gameLog = gameLog;
+		this.segmentSize = segmentSize;
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		events = new Event[size];
+		mask = size - 1;
+		for(int i = 0; i < size; i++)
+			events[i] = new Event(i);
+
+		Files.createDirectories(this.directory);
+		for(int number : segments()){
+			read(number);
+			segment = number;
+		}
+		recovered = Collections.unmodifiableMap(new HashMap<>(live));
+		roll();
+	}
+
+	/**
+	 * Start the writer thread
+	 * @return this journal
+	 */
+	public GameJournal start(){
+		writer = new Thread(this, "game-journal");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+		return this;
+	}
+
+	/**
+	 * @return the games that were still being played when the journal was last closed, by game number
+	 */
+	public Map<Integer, Game> getRecovered(){
+		return recovered;
+	}
+
+	/**
+	 * @return the highest game number the journal has seen or -1
+	 */
+	public int getLastGame(){
+		return lastGame;
+	}
+
+	/**
+	 * Record a new game
+	 * @param game		the number of the game
+	 * @param seed		the seed the board was shuffled with
+	 * @param width		the width of the board
+	 * @param height	the height of the board
+	 * @param players	the amount of players
+	 */
+	public void start(int game, long seed, int width, int height, int players){
+		append(START, game, seed, width, height, players);
+	}
+
+	/**
+	 * Record a card that was revealed
+	 * @param game	the number of the game
+	 * @param card	the card
+	 */
+	public void reveal(int game, int card){
+		append(REVEAL, game, 0, card, 0, 0);
+	}
+
+	/**
+	 * Record the token a player can take its seat again with
+	 * @param game		the number of the game
+	 * @param player	the player
+	 * @param token		the token
+	 */
+	public void session(int game, int player, long token){
+		append(SESSION, game, token, player, 0, 0);
+	}
+
+	/**
+	 * Record who a player is across games
+	 * @param game		the number of the game
+	 * @param player	the player
+	 * @param id		the id the player sent, 0 if it didn't send one
+	 */
+	public void player(int game, int player, long id){
+		append(PLAYER, game, id, player, 0, 0);
+	}
+
+	/**
+	 * Record the end of a game, it won't be recovered
+	 * @param game	the number of the game
+	 */
+	public void end(int game){
+		append(END, game, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Queue a record. If the buffer is full the caller waits for the writer,
+	 * unlike a log message a record can't be dropped
+	 * @param type	the type of the record
+	 * @param game	the number of the game
+	 * @param seed	the seed of a {@link #START}, the token of a {@link #SESSION} or the id of a {@link #PLAYER}
+	 * @param a		the first value of the record
+	 * @param b		the second value of the record
+	 * @param c		the third value of the record
+	 */
+	private void append(byte type, int game, long seed, int a, int b, int c){
+		long position = head.get();
+		Event event;
+		while(true){
+			event = events[(int) position & mask];
+			long difference = event.sequence - position;
+			if(difference == 0){
+				if(head.compareAndSet(position, position + 1))
+					break;
+			} else if(difference < 0){
+				LockSupport.parkNanos(10_000L);
+			}
+			position = head.get();
+		}
+
+		event.type = type;
+		event.game = game;
+		event.seed = seed;
+		event.a = a;
+		event.b = b;
+		event.c = c;
+		event.sequence = position + 1;
+	}
+
+	public void run(){
+		int idle = 0;
+		while(running){
+			try {
+				if(drain() > 0)
+					idle = 0;
+				else
+					LockSupport.parkNanos(idle < 7 ? 100_000L << idle++ : 10_000_000L);
+			} catch(IOException e){
+				error(e);
+				LockSupport.parkNanos(100_000_000L);
+			}
+		}
+		try {
+			drain();
+		} catch(IOException e){
+			error(e);
+		}
+	}
+
+	/**
+	 * write every queued record in batches, each batch is forced to disk once.
+	 * Only called by the writer thread
+	 * @return the amount of records that were written
+	 * @throws IOException
+	 */
+	int drain() throws IOException {
+		int total = 0;
+		int count;
+		do {
+			count = 0;
+			batch.clear();
+			Event event;
+			while(count < MAX_BATCH && (event = events[(int) tail & mask]).sequence == tail + 1){
+				batch = put(batch, event.type, event.game, event.seed, event.a, event.b, event.c);
+				apply(event.type, event.game, event.seed, event.a, event.b, event.c);
+				event.sequence = tail + events.length;
+				tail++;
+				count++;
+			}
+
+			if(count > 0){
+				batch.flip();
+				while(batch.hasRemaining())
+					channel.write(batch);
+				channel.force(false);
+				if(channel.position() >= segmentSize)
+					roll();
+			}
+			total += count;
+		} while(count == MAX_BATCH);
+		return total;
+	}
+
+	/**
+	 * start a new segment with the games that are still being played and delete the older segments
+	 * @throws IOException
+	 */
+	private void roll() throws IOException {
+		FileChannel next = FileChannel.open(segmentPath(segment + 1), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(lastGame);
+		header.flip();
+		while(header.hasRemaining())
+			next.write(header);
+
+		ByteBuffer copy = ByteBuffer.allocate(64 * 1024);
+		for(Game game : live.values()){
+			copy = put(copy, START, game.game, game.seed, game.width, game.height, game.players);
+			for(int i = 0; i < game.players; i++){
+				copy = put(copy, SESSION, game.game, game.tokens[i], i, 0, 0);
+				if(game.ids[i] != 0)
+					copy = put(copy, PLAYER, game.game, game.ids[i], i, 0, 0);
+			}
+			for(int i = 0; i < game.size; i++)
+				copy = put(copy, REVEAL, game.game, 0, game.moves[i], 0, 0);
+		}
+		copy.flip();
+		while(copy.hasRemaining())
+			next.write(copy);
+		next.force(true);
+
+		if(channel != null)
+			channel.close();
+		channel = next;
+		segment++;
+		for(int number : segments())
+			if(number < segment)
+				Files.deleteIfExists(segmentPath(number));
+	}
+
+	/**
+	 * replay a segment into the games being played,
+	 * a record cut short by a crash ends the segment
+	 * @param number	the number of the segment
+	 * @throws IOException
+	 */
+	private void read(int number) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segmentPath(number)));
+		if(bytes.remaining() < HEADER_SIZE || bytes.getInt() != MAGIC || bytes.getInt() != VERSION)
+			throw new IOException(segmentPath(number) + " is not a journal segment");
+		lastGame = Math.max(lastGame, bytes.getInt());
+		try {
+			while(bytes.hasRemaining()){
+				byte type = bytes.get();
+				if(bytes.remaining() < size(type) - 1)
+					throw new EOFException();
+				int game = bytes.getInt();
+				if(type == START)
+					apply(type, game, bytes.getLong(), bytes.getInt(), bytes.getInt(), bytes.getInt());
+				else if(type == REVEAL)
+					apply(type, game, 0, bytes.getInt(), 0, 0);
+				else if(type == SESSION || type == PLAYER)
+					apply(type, game, bytes.getLong(), bytes.getInt(), 0, 0);
+				else
+					apply(type, game, 0, 0, 0, 0);
+			}
+		} catch(EOFException e){
+			//the last batch was only partly written
+		}
+	}
+
+	/**
+	 * keep track of the games being played
+	 * @param type	the type of the record
+	 * @param game	the number of the game
+	 * @param seed	the seed of a {@link #START}, the token of a {@link #SESSION} or the id of a {@link #PLAYER}
+	 * @param a		the width of a {@link #START}, the card of a {@link #REVEAL} or the player of a {@link #SESSION} or {@link #PLAYER}
+	 * @param b		the height of a {@link #START}
+	 * @param c		the players of a {@link #START}
+	 */
+	private void apply(byte type, int game, long seed, int a, int b, int c){
+		if(type == START){
+			live.put(game, new Game(game, seed, a, b, c));
+			lastGame = Math.max(lastGame, game);
+		} else if(type == REVEAL){
+			Game playing = live.get(game);
+			if(playing != null)
+				playing.add(a);
+		} else if(type == SESSION){
+			Game playing = live.get(game);
+			if(playing != null && a >= 0 && a < playing.players)
+				playing.tokens[a] = seed;
+		} else if(type == PLAYER){
+			Game playing = live.get(game);
+			if(playing != null && a >= 0 && a < playing.players)
+				playing.ids[a] = seed;
+		} else
+			live.remove(game);
+	}
+
+	/**
+	 * encode a record
+	 * @param buffer	the buffer to put the record in
+	 * @param type		the type of the record
+	 * @param game		the number of the game
+	 * @param seed		the seed of a {@link #START}, the token of a {@link #SESSION} or the id of a {@link #PLAYER}
+	 * @param a			the first value of the record
+	 * @param b			the second value of the record
+	 * @param c			the third value of the record
+	 * @return the buffer the record was put in, a larger copy if it didn't fit
+	 */
+	private static ByteBuffer put(ByteBuffer buffer, byte type, int game, long seed, int a, int b, int c){
+		if(buffer.remaining() < START_SIZE){
+			ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			buffer = larger.put(buffer);
+		}
+		buffer.put(type).putInt(game);
+		if(type == START)
+			buffer.putLong(seed).putInt(a).putInt(b).putInt(c);
+		else if(type == REVEAL)
+			buffer.putInt(a);
+		else if(type == SESSION || type == PLAYER)
+			buffer.putLong(seed).putInt(a);
+		return buffer;
+	}
+
+	/**
+	 * @param type	the type of a record
+	 * @return the size of the record in bytes
+	 * @throws EOFException if the type isn't known, the rest of the segment can't be trusted
+	 */
+	private static int size(byte type) throws EOFException {
+		switch(type){
+			case START:
+				return START_SIZE;
+			case REVEAL:
+				return REVEAL_SIZE;
+			case END:
+				return END_SIZE;
+			case SESSION:
+			case PLAYER:
+				return SESSION_SIZE;
+			default:
+				throw new EOFException();
+		}
+	}
+
+	/**
+	 * @return the numbers of the segments in the directory from old to new
+	 * @throws IOException
+	 */
+	private List<Integer> segments() throws IOException {
+		List<Integer> numbers = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)){
+			for(Path file : files){
+				String name = file.getFileName().toString();
+				try {
+					numbers.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+				} catch(NumberFormatException e){}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * @param number	the number of a segment
+	 * @return the file of the segment
+	 */
+	private Path segmentPath(int number){
+		return directory.resolve(String.format("%s%08d%s", PREFIX, number, SUFFIX));
+	}
+
+	/**
+	 * wait for the writer to write everything that is queued and close the current segment
+	 */
+	public void close(){
+		if(!running)
+			return;
+		running = false;
+		if(writer != null){
+			LockSupport.unpark(writer);
+			try {
+				writer.join();
+			} catch(InterruptedException e){
+				//the writer may still be writing, it keeps the file open
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		try {
+			channel.close();
+		} catch(IOException e){
+			error(e);
+		}
+	}
+
+	/**
+	 * output a failed write to the server log
+	 * @param e	what went wrong
+	 */
+	private void error(IOException e){
+		gameLog.log(GameLog.ERROR, GameLog.NO_GAME, "JOURNAL: %s", e.getMessage());
+	}
+
+	/**
+	 * A game that hasn't ended, enough to play it again from the start
+	 */
+	public static class Game {
+		private int game;
+		private long seed;
+		private int width;
+		private int height;
+		private int players;
+		private long[] tokens;
+		private long[] ids;
+		private int[] moves = new int[16];
+		private int size = 0;
+
+		Game(int game, long seed, int width, int height, int players){
+			this.game = game;
+			this.seed = seed;
+			this.width = width;
+			this.height = height;
+			this.players = players;
+			this.tokens = new long[players];
+			this.ids = new long[players];
+		}
+
+		/**
+		 * @param card	a card that was revealed
+		 */
+		private void add(int card){
+			if(size == moves.length)
+				moves = Arrays.copyOf(moves, size * 2);
+			moves[size++] = card;
+		}
+
+		/**
+		 * @return the number of the game
+		 */
+		public int getGame(){
+			return game;
+		}
+
+		/**
+		 * @return the seed the board was shuffled with
+		 */
+		public long getSeed(){
+			return seed;
+		}
+
+		/**
+		 * @return the width of the board
+		 */
+		public int getWidth(){
+			return width;
+		}
+
+		/**
+		 * @return the height of the board
+		 */
+		public int getHeight(){
+			return height;
+		}
+
+		/**
+		 * @return the amount of players
+		 */
+		public int getPlayers(){
+			return players;
+		}
+
+		/**
+		 * @return the session token of every player
+		 */
+		public long[] getTokens(){
+			return tokens.clone();
+		}
+
+		/**
+		 * @return the id of every player, 0 for players that didn't send one
+		 */
+		public long[] getIds(){
+			return ids.clone();
+		}
+
+		/**
+		 * @return the cards that were revealed in the order they were revealed
+		 */
+		public int[] getMoves(){
+			return Arrays.copyOf(moves, size);
+		}
+	}
+
+	/**
+	 * A slot in the ring buffer
+	 */
+	private static class Event {
+		private volatile long sequence;
+		private byte type;
+		private int game;
+		private long seed;
+		private int a;
+		private int b;
+		private int c;
+
+		Event(long sequence){
+			this.sequence = sequence;
+		}
+	}
+}
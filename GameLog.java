@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server log.
+ * Game threads only copy their message and arguments into a bounded ring buffer,
+ * a single consumer thread formats the messages in batches and hands the text to the sinks.
+ * If the buffer is full messages are dropped rather than making a game wait
+ */
+public class GameLog implements Runnable {
+	public static final int DEBUG = 0;
+	public static final int INFO = 1;
+	public static final int ERROR = 2;
+
+	/**
+	 * Used in place of a game number for messages from the server itself
+	 */
+	public static final int NO_GAME = -1;
+
+	/**
+	 * Default amount of messages the buffer can hold, must be a power of 2
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * The most messages formatted into one batch
+	 */
+	public static final int MAX_BATCH = 512;
+
+	private static final String[] LEVELS = {"debug", "info", "error"};
+
+	private Event[] events;
+	private int mask;
+	private AtomicLong head = new AtomicLong();
+	private long tail = 0;
+	private LongAdder dropped = new LongAdder();
+
+	private volatile int level;
+	private volatile boolean running = true;
+	private List<LogSink> sinks = new ArrayList<>();
+	private Thread consumer;
+
+	private StringBuilder batch = new StringBuilder();
+	private Formatter formatter = new Formatter(batch);
+
+	/**
+	 * Create a log that drops messages below the given level
+	 * @param level	the lowest level that is logged
+	 */
+	public GameLog(int level){
+		this(level, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a log that drops messages below the given level
+	 * @param level		the lowest level that is logged
+	 * @param capacity	the amount of messages the buffer can hold, rounded up to a power of 2
+	 */
+	public GameLog(int level, int capacity){
+		this.level = level;
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		events = new Event[size];
+		mask = size - 1;
+		for(int i = 0; i < size; i++)
+			events[i] = new Event(i);
+	}
+
+	/**
+	 * Add a sink that receives every formatted batch.
+	 * Sinks have to be added before the log is started
+	 * @param sink	the sink to add
+	 * @return this log
+	 */
+	public GameLog addSink(LogSink sink){
+		sinks.add(sink);
+		return this;
+	}
+
+	/**
+	 * Start the consumer thread
+	 * @return this log
+	 */
+	public GameLog start(){
+		consumer = new Thread(this, "game-log");
+		consumer.setDaemon(true);
+		consumer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+		return this;
+	}
+
+	/**
+	 * @param level	the level to check
+	 * @return true if messages of the level are logged
+	 */
+	public boolean isEnabled(int level){
+		return level >= this.level;
+	}
+
+	/**
+	 * @param level	the lowest level that is logged
+	 */
+	public void setLevel(int level){
+		this.level = level;
+	}
+
+	/**
+	 * @return the amount of messages dropped because the buffer was full
+	 */
+	public long getDropped(){
+		return dropped.sum();
+	}
+
+	/**
+	 * Queue a message. The message is formatted on the consumer thread with
+	 * {@link String#format(String, Object...)} so the arguments must not be changed afterwards
+	 * @param level		the level of the message
+	 * @param game		the game the message is about or {@link #NO_GAME}
+	 * @param msg		the message to output
+	 * @param vals		values used in place of tokens specified in msg
+	 */
+	public void log(int level, int game, String msg, Object... vals){
+		if(level < this.level)
+			return;
+
+		long position = head.get();
+		Event event;
+		while(true){
+			event = events[(int) position & mask];
+			long difference = event.sequence - position;
+			if(difference == 0){
+				if(head.compareAndSet(position, position + 1))
+					break;
+				position = head.get();
+			} else if(difference < 0){
+				dropped.increment();
+				return;
+			} else
+				position = head.get();
+		}
+
+		event.level = level;
+		event.game = game;
+		event.msg = msg;
+		event.vals = vals;
+		event.sequence = position + 1;
+	}
+
+	public void run(){
+		int idle = 0;
+		while(running){
+			if(drain() > 0)
+				idle = 0;
+			else
+				LockSupport.parkNanos(idle < 10 ? 100_000L << idle++ : 100_000_000L);
+		}
+		drain();
+	}
+
+	/**
+	 * format every queued message in batches and send them to the sinks.
+	 * Only called by the consumer thread
+	 * @return the amount of messages that were formatted
+	 */
+	int drain(){
+		int total = 0;
+		int count;
+		do {
+			count = 0;
+			batch.setLength(0);
+			long lost = dropped.sumThenReset();
+			if(lost > 0)
+				batch.append(lost).append(" log messages dropped").append(System.lineSeparator());
+
+			Event event;
+			while(count < MAX_BATCH && (event = events[(int) tail & mask]).sequence == tail + 1){
+				format(event);
+				event.msg = null;
+				event.vals = null;
+				event.sequence = tail + events.length;
+				tail++;
+				count++;
+			}
+
+			if(batch.length() > 0){
+				String text = batch.toString();
+				for(LogSink sink : sinks)
+					sink.write(text);
+			}
+			total += count;
+		} while(count == MAX_BATCH);
+		return total;
+	}
+
+	/**
+	 * append a message to the current batch
+	 * @param event	the message
+	 */
+	private void format(Event event){
+		if(event.level == ERROR)
+			batch.append("ERROR ");
+		if(event.game != NO_GAME)
+			batch.append("GAME ").append(event.game + 1).append(": ");
+		try {
+			formatter.format(event.msg, event.vals);
+		} catch(RuntimeException e){
+			batch.append(event.msg);
+		}
+		batch.append(System.lineSeparator());
+	}
+
+	/**
+	 * write everything that is queued and close the sinks
+	 */
+	public void close(){
+		if(!running)
+			return;
+		running = false;
+		if(consumer != null){
+			LockSupport.unpark(consumer);
+			try {
+				consumer.join(1000);
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		for(LogSink sink : sinks)
+			sink.close();
+	}
+
+	/**
+	 * @param name	the name of a level
+	 * @return the level or -1 if there is no level with that name
+	 */
+	public static int level(String name){
+		for(int i = 0; i < LEVELS.length; i++)
+			if(LEVELS[i].equalsIgnoreCase(name))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * A slot in the ring buffer
+	 */
+	private static class Event {
+		private volatile long sequence;
+		private int level;
+		private int game;
+		private String msg;
+		private Object[] vals;
+
+		Event(long sequence){
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An event loop that owns many games and reacts to whichever player's socket is ready.
+ * Games are handed to the loop from the accept thread with {@link #register(NioGameService)},
+ * anything else that has to touch a game runs on the loop with {@link #execute(Runnable)}.
+ * A task or a player that throws is logged and the loop carries on with the other games
+ */
+public class GameLoop implements Runnable {
+	private Selector selector;
+	private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private GameLog gameLog;
+	private GameMetrics metrics;
+
+	/**
+	 * Create an event loop with its own selector
+	 * @param gameLog	the log errors are output to
+	 * @param metrics	the metrics errors are counted in
+	 * @throws IOException
+	 */
+	public GameLoop(GameLog gameLog, GameMetrics metrics) throws IOException {
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Hand a game to this loop. The game is started on the loop thread
+	 * @param game	the game to run
+	 */
+	public void register(NioGameService game){
+		execute(() -> game.start(this));
+	}
+
+	/**
+	 * Run a task on the loop thread
+	 * @param task	the task to run
+	 */
+	public void execute(Runnable task){
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * @return the selector of this loop
+	 */
+	Selector selector(){
+		return selector;
+	}
+
+	public void run(){
+		while(selector.isOpen()){
+			try {
+				selector.select();
+				runTasks();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					NioGameService.Client client = (NioGameService.Client) key.attachment();
+					try {
+						client.handle(key);
+					} catch(CancelledKeyException e){
+						//the game ended while handling another player
+					} catch(RuntimeException e){
+						//a key that keeps throwing would be selected again straight away
+						key.cancel();
+						error(e);
+					}
+				}
+			} catch(IOException e){
+				error(e);
+			}
+		}
+	}
+
+	/**
+	 * run the tasks that were added since the last select
+	 */
+	private void runTasks(){
+		Runnable task;
+		while((task = tasks.poll()) != null){
+			try {
+				task.run();
+			} catch(RuntimeException e){
+				error(e);
+			}
+		}
+	}
+
+	/**
+	 * output an exception that was thrown on the loop and count it
+	 * @param e	the exception
+	 */
+	private void error(Exception e){
+		metrics.error();
+		gameLog.log(GameLog.ERROR, GameLog.NO_GAME, "%s: %s", Thread.currentThread().getName(), e);
+	}
+}
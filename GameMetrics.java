@@ -0,0 +1,400 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts and times what the games do.
+ * Every counter is a {@link LongAdder} so game threads and event loops recording at the
+ * same time never contend, the sums are only added up when the metrics are read
+ * through JMX or the Prometheus endpoint
+ */
+public class GameMetrics implements GameMetricsMXBean, GameConstants {
+	/**
+	 * The name the metrics are registered under with JMX
+	 */
+	public static final String OBJECT_NAME = "Concentration:type=GameMetrics";
+
+	private static final int[] COMMANDS = {SETTURN, RECEIVE, REVEAL, WAIT, MATCH, HIDE, WIN, QUIT, DONE, INIT, JOIN, SESSION, RESUME, WATCH, VERSION, PLAYER, -1};
+
+	private LongAdder gamesStarted = new LongAdder();
+	private LongAdder gamesEnded = new LongAdder();
+	private AtomicLong peakGames = new AtomicLong();
+	private LongAdder socketsOpened = new LongAdder();
+	private LongAdder socketsClosed = new LongAdder();
+	private LongAdder[] received = new LongAdder[COMMANDS.length];
+	private LongAdder[] sent = new LongAdder[COMMANDS.length];
+	private LongAdder bytesIn = new LongAdder();
+	private LongAdder bytesOut = new LongAdder();
+	private LongAdder errors = new LongAdder();
+	private LongAdder spectatorsJoined = new LongAdder();
+	private LongAdder spectatorsLeft = new LongAdder();
+	private LongAdder spectatorsDropped = new LongAdder();
+	private LongAdder spectatorBytesOut = new LongAdder();
+	private LongAdder turnsTimedOut = new LongAdder();
+	private LongAdder connectionsStalled = new LongAdder();
+	private LongAdder playersDropped = new LongAdder();
+	private LatencyHistogram turns = new LatencyHistogram();
+	private Lobby lobby;
+
+	public GameMetrics(){
+		for(int i = 0; i < COMMANDS.length; i++){
+			received[i] = new LongAdder();
+			sent[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Make the metrics available through JMX
+	 * @return this
+	 * @throws JMException
+	 */
+	public GameMetrics register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		return this;
+	}
+
+	/**
+	 * @param lobby	the lobby whose queues are reported with the metrics
+	 */
+	public void setLobby(Lobby lobby){
+		this.lobby = lobby;
+	}
+
+	/**
+	 * count a game that has started
+	 */
+	public void gameStarted(){
+		gamesStarted.increment();
+		long active = getActiveGames();
+		if(active > peakGames.get())
+			peakGames.accumulateAndGet(active, Math::max);
+	}
+
+	/**
+	 * count a game that has ended
+	 */
+	public void gameEnded(){
+		gamesEnded.increment();
+	}
+
+	/**
+	 * count a player socket that was accepted
+	 */
+	public void socketOpened(){
+		socketsOpened.increment();
+	}
+
+	/**
+	 * count a player socket that was closed
+	 */
+	public void socketClosed(){
+		socketsClosed.increment();
+	}
+
+	/**
+	 * @param command	a command received from a player
+	 */
+	public void commandReceived(int command){
+		received[index(command)].increment();
+	}
+
+	/**
+	 * @param command	a command sent to one or all of the players of a game
+	 */
+	public void commandSent(int command){
+		sent[index(command)].increment();
+	}
+
+	/**
+	 * @param bytes	the amount of bytes read from a player
+	 */
+	public void bytesIn(long bytes){
+		bytesIn.add(bytes);
+	}
+
+	/**
+	 * @param bytes	the amount of bytes written to a player
+	 */
+	public void bytesOut(long bytes){
+		bytesOut.add(bytes);
+	}
+
+	/**
+	 * count a spectator that started watching a game
+	 */
+	public void spectatorJoined(){
+		spectatorsJoined.increment();
+	}
+
+	/**
+	 * count a spectator that stopped watching a game
+	 */
+	public void spectatorLeft(){
+		spectatorsLeft.increment();
+	}
+
+	/**
+	 * count a spectator that was dropped because it fell too far behind
+	 */
+	public void spectatorDropped(){
+		spectatorsDropped.increment();
+	}
+
+	/**
+	 * @param bytes	the amount of bytes written to a spectator
+	 */
+	public void spectatorBytesOut(long bytes){
+		spectatorBytesOut.add(bytes);
+	}
+
+	/**
+	 * count a player that took too long for its turn
+	 */
+	public void turnTimedOut(){
+		turnsTimedOut.increment();
+	}
+
+	/**
+	 * count a connection that was closed because it stopped reading
+	 */
+	public void connectionStalled(){
+		connectionsStalled.increment();
+	}
+
+	/**
+	 * count a player that was dropped for sending too many or invalid commands
+	 */
+	public void playerDropped(){
+		playersDropped.increment();
+	}
+
+	/**
+	 * count an exception that was logged as an error
+	 */
+	public void error(){
+		errors.increment();
+	}
+
+	/**
+	 * @param nanos	the length of a turn that has ended in ns
+	 */
+	public void turnEnded(long nanos){
+		turns.record(nanos);
+	}
+
+	public long getGamesStarted(){
+		return gamesStarted.sum();
+	}
+
+	public long getGamesEnded(){
+		return gamesEnded.sum();
+	}
+
+	public long getActiveGames(){
+		return Math.max(0, gamesStarted.sum() - gamesEnded.sum());
+	}
+
+	public long getPeakGames(){
+		return peakGames.get();
+	}
+
+	public long getConnectedSockets(){
+		return Math.max(0, socketsOpened.sum() - socketsClosed.sum());
+	}
+
+	public Map<String, Long> getCommandsReceived(){
+		return sums(received);
+	}
+
+	public Map<String, Long> getCommandsSent(){
+		return sums(sent);
+	}
+
+	public long getBytesIn(){
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut(){
+		return bytesOut.sum();
+	}
+
+	public long getErrors(){
+		return errors.sum();
+	}
+
+	public long getSpectators(){
+		return Math.max(0, spectatorsJoined.sum() - spectatorsLeft.sum());
+	}
+
+	public long getSpectatorsDropped(){
+		return spectatorsDropped.sum();
+	}
+
+	public long getSpectatorBytesOut(){
+		return spectatorBytesOut.sum();
+	}
+
+	public long getTurnsTimedOut(){
+		return turnsTimedOut.sum();
+	}
+
+	public long getConnectionsStalled(){
+		return connectionsStalled.sum();
+	}
+
+	public long getPlayersDropped(){
+		return playersDropped.sum();
+	}
+
+	public long getPlayersWaiting(){
+		return lobby == null ? 0 : lobby.waiting();
+	}
+
+	public long getLobbyMatches(){
+		return lobby == null ? 0 : lobby.matches();
+	}
+
+	public long getPlayersLeftLobby(){
+		return lobby == null ? 0 : lobby.left();
+	}
+
+	public double getLobbyWaitMeanMillis(){
+		return lobby == null ? 0 : lobby.averageWait();
+	}
+
+	public double getLobbyWaitMaxMillis(){
+		return lobby == null ? 0 : lobby.maxWait();
+	}
+
+	public long getTurns(){
+		return turns.count();
+	}
+
+	public double getTurnMeanMillis(){
+		return turns.mean() / 1e6;
+	}
+
+	public double getTurnP50Millis(){
+		return turns.percentile(50) / 1e6;
+	}
+
+	public double getTurnP99Millis(){
+		return turns.percentile(99) / 1e6;
+	}
+
+	/**
+	 * @return every metric in the Prometheus text format
+	 */
+	public String prometheus(){
+		StringBuilder text = new StringBuilder();
+		metric(text, "concentration_games_started_total", "counter", "Games started", getGamesStarted());
+		metric(text, "concentration_games_ended_total", "counter", "Games ended", getGamesEnded());
+		metric(text, "concentration_games_active", "gauge", "Games being played", getActiveGames());
+		metric(text, "concentration_games_peak", "gauge", "Most games played at once", getPeakGames());
+		metric(text, "concentration_sockets_connected", "gauge", "Player sockets that are open", getConnectedSockets());
+
+		header(text, "concentration_commands_total", "counter", "Commands received from and sent to players, a command sent to every player counts once");
+		for(int i = 0; i < COMMANDS.length; i++){
+			String command = commandString(COMMANDS[i]);
+			text.append("concentration_commands_total{direction=\"in\",command=\"").append(command).append("\"} ").append(received[i].sum()).append('\n');
+			text.append("concentration_commands_total{direction=\"out\",command=\"").append(command).append("\"} ").append(sent[i].sum()).append('\n');
+		}
+
+		metric(text, "concentration_bytes_in_total", "counter", "Bytes read from players", getBytesIn());
+		metric(text, "concentration_bytes_out_total", "counter", "Bytes written to players", getBytesOut());
+		metric(text, "concentration_errors_total", "counter", "Exceptions logged as errors", getErrors());
+		metric(text, "concentration_spectators", "gauge", "Spectators watching a game", getSpectators());
+		metric(text, "concentration_spectators_dropped_total", "counter", "Spectators dropped for falling too far behind", getSpectatorsDropped());
+		metric(text, "concentration_spectator_bytes_out_total", "counter", "Bytes written to spectators", getSpectatorBytesOut());
+		metric(text, "concentration_turns_timed_out_total", "counter", "Players that took too long for their turn", getTurnsTimedOut());
+		metric(text, "concentration_players_dropped_total", "counter", "Players dropped for sending too many or invalid commands", getPlayersDropped());
+		metric(text, "concentration_connections_stalled_total", "counter", "Player sockets closed for not reading what they were sent", getConnectionsStalled());
+
+		if(lobby != null)
+			lobby(text);
+
+		header(text, "concentration_turn_seconds", "summary", "Time from a player getting a turn to the next player getting one");
+		for(double quantile : new double[]{0.5, 0.9, 0.99, 0.999})
+			text.append("concentration_turn_seconds{quantile=\"").append(quantile).append("\"} ").append(turns.percentile(quantile * 100) / 1e9).append('\n');
+		long count = turns.count();
+		text.append("concentration_turn_seconds_sum ").append(turns.mean() * count / 1e9).append('\n');
+		text.append("concentration_turn_seconds_count ").append(count).append('\n');
+		return text.toString();
+	}
+
+	/**
+	 * append the depth of every queue of the lobby and how long its players waited
+	 */
+	private void lobby(StringBuilder text){
+		header(text, "concentration_lobby_players_waiting", "gauge", "Players waiting in the lobby for a game");
+		for(Lobby.WaitingQueue queue : lobby.queues())
+			labels(text, "concentration_lobby_players_waiting", queue).append(queue.depth()).append('\n');
+		header(text, "concentration_lobby_matches_total", "counter", "Games started from the lobby");
+		for(Lobby.WaitingQueue queue : lobby.queues())
+			labels(text, "concentration_lobby_matches_total", queue).append(queue.matches()).append('\n');
+		header(text, "concentration_lobby_left_total", "counter", "Players that closed their connection in the lobby before they were matched");
+		for(Lobby.WaitingQueue queue : lobby.queues())
+			labels(text, "concentration_lobby_left_total", queue).append(queue.left()).append('\n');
+		header(text, "concentration_lobby_wait_seconds", "summary", "Time from a player joining the lobby to it being matched");
+		for(Lobby.WaitingQueue queue : lobby.queues()){
+			labels(text, "concentration_lobby_wait_seconds_sum", queue).append(queue.totalWait() / 1e3).append('\n');
+			labels(text, "concentration_lobby_wait_seconds_count", queue).append(queue.matchedPlayers()).append('\n');
+		}
+		header(text, "concentration_lobby_wait_seconds_max", "gauge", "Longest time a player waited in the lobby to be matched");
+		for(Lobby.WaitingQueue queue : lobby.queues())
+			labels(text, "concentration_lobby_wait_seconds_max", queue).append(queue.maxWait() / 1e3).append('\n');
+	}
+
+	/**
+	 * append the name of a metric of a queue and the labels of its game
+	 */
+	private static StringBuilder labels(StringBuilder text, String name, Lobby.WaitingQueue queue){
+		return text.append(name).append("{players=\"").append(queue.getNumOfPlayers())
+			.append("\",width=\"").append(queue.getGameWidth())
+			.append("\",height=\"").append(queue.getGameHeight()).append("\"} ");
+	}
+
+	/**
+	 * append a metric with a single value
+	 */
+	private static void metric(StringBuilder text, String name, String type, String help, long value){
+		header(text, name, type, help);
+		text.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * append the help and type lines of a metric
+	 */
+	private static void header(StringBuilder text, String name, String type, String help){
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * @param counters	a counter for every command
+	 * @return the sum of every counter by command
+	 */
+	private Map<String, Long> sums(LongAdder[] counters){
+		Map<String, Long> sums = new LinkedHashMap<>();
+		for(int i = 0; i < COMMANDS.length; i++)
+			sums.put(commandString(COMMANDS[i]), counters[i].sum());
+		return sums;
+	}
+
+	/**
+	 * @param command	a command
+	 * @return the counter of the command, unknown commands share the last counter
+	 */
+	private static int index(int command){
+		if(command >= SETTURN && command <= DONE)
+			return command;
+		if(command >= INIT && command <= PLAYER)
+			return DONE + 1 + command - INIT;
+		return COMMANDS.length - 1;
+	}
+}
@@ -0,0 +1,133 @@
+import java.util.Map;
+
+/**
+ * The server's metrics as seen through JMX
+ */
+public interface GameMetricsMXBean {
+
+	/**
+	 * @return the amount of games that have started
+	 */
+	long getGamesStarted();
+
+	/**
+	 * @return the amount of games that have ended
+	 */
+	long getGamesEnded();
+
+	/**
+	 * @return the amount of games being played
+	 */
+	long getActiveGames();
+
+	/**
+	 * @return the most games that have been played at once
+	 */
+	long getPeakGames();
+
+	/**
+	 * @return the amount of player sockets that are open
+	 */
+	long getConnectedSockets();
+
+	/**
+	 * @return the amount of commands received from players by command
+	 */
+	Map<String, Long> getCommandsReceived();
+
+	/**
+	 * @return the amount of commands sent to players by command,
+	 * a command sent to every player of a game counts once
+	 */
+	Map<String, Long> getCommandsSent();
+
+	/**
+	 * @return the amount of bytes read from players
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return the amount of bytes written to players
+	 */
+	long getBytesOut();
+
+	/**
+	 * @return the amount of exceptions that were logged as errors
+	 */
+	long getErrors();
+
+	/**
+	 * @return the amount of spectators watching a game
+	 */
+	long getSpectators();
+
+	/**
+	 * @return the amount of spectators that were dropped for falling too far behind
+	 */
+	long getSpectatorsDropped();
+
+	/**
+	 * @return the amount of bytes written to spectators
+	 */
+	long getSpectatorBytesOut();
+
+	/**
+	 * @return the amount of players that took too long for their turn
+	 */
+	long getTurnsTimedOut();
+
+	/**
+	 * @return the amount of player sockets that were closed for not reading what they were sent
+	 */
+	long getConnectionsStalled();
+
+	/**
+	 * @return the amount of players that were dropped for sending too many or invalid commands
+	 */
+	long getPlayersDropped();
+
+	/**
+	 * @return the amount of players waiting in the lobby for a game
+	 */
+	long getPlayersWaiting();
+
+	/**
+	 * @return the amount of games the lobby has started
+	 */
+	long getLobbyMatches();
+
+	/**
+	 * @return the amount of players that left the lobby before they were matched
+	 */
+	long getPlayersLeftLobby();
+
+	/**
+	 * @return the average time a player waited in the lobby for a game in ms
+	 */
+	double getLobbyWaitMeanMillis();
+
+	/**
+	 * @return the longest time a player waited in the lobby for a game in ms
+	 */
+	double getLobbyWaitMaxMillis();
+
+	/**
+	 * @return the amount of turns that have ended
+	 */
+	long getTurns();
+
+	/**
+	 * @return the average length of a turn in ms
+	 */
+	double getTurnMeanMillis();
+
+	/**
+	 * @return the median length of a turn in ms
+	 */
+	double getTurnP50Millis();
+
+	/**
+	 * @return the 99th percentile of the length of a turn in ms
+	 */
+	double getTurnP99Millis();
+}
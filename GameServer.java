@@ -1,26 +1,95 @@
 import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
 import javax.swing.text.DefaultCaret;
 
 import javax.swing.*;
 
-public class GameServer extends JFrame implements GameConstants {
+public class GameServer implements GameConstants {
 	JTextArea logArea;
+	GameLog gameLog;
 	private static final String CLIENTS = "-clients";
 	private static final String WIDTH = "-width";
 	private static final String HEIGHT = "-height";
+	private static final String DELAY = "-delay";
+	private static final String MODE = "-mode";
+	private static final String LOOPS = "-loops";
+	private static final String SEED = "-seed";
+	private static final String METRICS = "-metrics";
+	private static final String JOURNAL = "-journal";
+	private static final String STATS = "-stats";
+	private static final String GRACE = "-grace";
+	private static final String TURN = "-turn";
+	private static final String IDLE = "-idle";
+	private static final String RATE = "-rate";
+	private static final String PORT_OPTION = "-port";
+	private static final String ROUTER = "-router";
+	private static final String RESOLVE = "-resolve";
+	private static final String LOG = "-log";
+	private static final String LEVEL = "-level";
+	private static final String CONSOLE = "-console";
 	private static final String HELP = "-help";
 
+	/**
+	 * Run every game on its own thread with blocking sockets
+	 */
+	public static final String MODE_THREAD = "thread";
+
+	/**
+	 * Run games on a small pool of selector based event loops
+	 */
+	public static final String MODE_NIO = "nio";
+
+	/**
+	 * Run every game on its own virtual thread with blocking sockets
+	 */
+	public static final String MODE_VIRTUAL = "virtual";
+
 	public static final int MIN_CLIENTS = 2;
+	public static final int MAX_CLIENTS = 8;
 	public static final int MIN_GAME_SIZE = 2;
-	public static final int MAX_GAME_SIZE = 6;
-	private int gameNumber = 0;
+	public static final int MAX_GAME_SIZE = 200;
+
+	/**
+	 * How long a new client has to send {@code JOIN} in ms
+	 */
+	public static final int HANDSHAKE_TIMEOUT = 500;
+
+	private AtomicInteger gameCounter = new AtomicInteger();
+	private int port;
 	private int numOfClients;
+	private int gameWidth;
+	private int gameHeight;
+	private int sleepTime;
+	private String mode;
+	private Long seed;
+	private GameLoop[] loops;
+	private Lobby lobby;
+	private ScheduledExecutorService scheduler;
+	private GameMetrics metrics = new GameMetrics();
+	private GameJournal journal;
+	private Leaderboard leaderboard;
+	private Sessions sessions;
+	private Audience audience;
+	private Deadlines deadlines;
+	private int rate;
+	private HostNames hostNames;
 
-	Socket[] clients;
 	/**
 	 * Create server and pass command line arguments
 	 * Optional arguments can be add in the form of '-arg num'
@@ -28,6 +97,23 @@ public class GameServer extends JFrame implements GameConstants {
 	 * 	<li>{@code -clients n: number of clients}</li>
 	 *  <li>{@code -width n: width of the game board}</li>
 	 *  <li>{@code -height n: height of the game board}</li>
+	 *  <li>{@code -delay ms: how long a mismatched pair is shown for}</li>
+	 *  <li>{@code -mode m: how games are run, thread, virtual or nio}</li>
+	 *  <li>{@code -loops n: number of event loops used by the nio mode}</li>
+	 *  <li>{@code -seed n: shuffle every game from this seed so games can be replayed}</li>
+	 *  <li>{@code -metrics port: serve metrics for Prometheus on localhost}</li>
+	 *  <li>{@code -journal dir: record games in a journal so they survive a restart}</li>
+	 *  <li>{@code -stats dir: keep every player's results and a leaderboard}</li>
+	 *  <li>{@code -grace ms: how long a player that lost its connection has to come back}</li>
+	 *  <li>{@code -turn ms: how long a player has for a turn}</li>
+	 *  <li>{@code -idle ms: how long a player can leave what it is sent unread}</li>
+	 *  <li>{@code -rate n: how many commands a player can send per second}</li>
+	 *  <li>{@code -port n: the port to listen on for players}</li>
+	 *  <li>{@code -router host[:port]: send heartbeats to a router so it sends players here}</li>
+	 *  <li>{@code -resolve ms: log the host names of clients and keep them for ms}</li>
+	 *  <li>{@code -log file: also write the log to a rolling file}</li>
+	 *  <li>{@code -level l: lowest level that is logged, debug, info or error}</li>
+	 *  <li>{@code -console: also write the log to standard output}</li>
 	 *  <li>{@code -help: show help information}</li>
 	 * </ul>
 	 * @param args	command line arguments
@@ -36,6 +122,23 @@ public class GameServer extends JFrame implements GameConstants {
 		int numOfClients = MIN_CLIENTS;
 		int gameWidth = MIN_GAME_SIZE;
 		int gameHeight = MIN_GAME_SIZE;
+		int sleepTime = GameService.DEFAULT_SLEEP_TIME;
+		String mode = MODE_THREAD;
+		int numOfLoops = Runtime.getRuntime().availableProcessors();
+		Long seed = null;
+		int metricsPort = 0;
+		String journalPath = null;
+		String statsPath = null;
+		int grace = Sessions.DEFAULT_GRACE;
+		int turnTime = Deadlines.DEFAULT_TURN_TIME;
+		int idleTime = Deadlines.DEFAULT_IDLE_TIME;
+		int rate = TokenBucket.DEFAULT_RATE;
+		int port = PORT;
+		String router = null;
+		int resolve = 0;
+		String logFile = null;
+		int logLevel = GameLog.DEBUG;
+		boolean console = GraphicsEnvironment.isHeadless();
 
 		boolean help = false;
 
@@ -46,7 +149,7 @@ public class GameServer extends JFrame implements GameConstants {
 				while(i < args.length){
 					if(args[i].equals(CLIENTS)){
 						i++;
-						if(i == args.length || args[i].equals(WIDTH) || args[i].equals(HEIGHT) || args[i].equals(HELP))
+						if(i == args.length || isOption(args[i]))
 							break;
 						else {
 							numOfClients = Integer.parseInt(args[i]);
@@ -57,7 +160,7 @@ public class GameServer extends JFrame implements GameConstants {
 					}
 					else if(args[i].equals(WIDTH)){
 						i++;
-						if(i == args.length || args[i].equals(CLIENTS) || args[i].equals(HEIGHT) || args[i].equals(HELP))
+						if(i == args.length || isOption(args[i]))
 							break;
 						else {
 							gameWidth = Integer.parseInt(args[i]);
@@ -67,7 +170,7 @@ public class GameServer extends JFrame implements GameConstants {
 					}
 					else if(args[i].equals(HEIGHT)){
 						i++;
-						if(i == args.length || args[i].equals(CLIENTS) || args[i].equals(WIDTH) || args[i].equals(HELP))
+						if(i == args.length || isOption(args[i]))
 							break;
 						else {
 							gameHeight = Integer.parseInt(args[i]);
@@ -75,6 +178,161 @@ public class GameServer extends JFrame implements GameConstants {
 							help = false;
 						}
 					}
+					else if(args[i].equals(DELAY)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							sleepTime = Integer.parseInt(args[i]);
+							sleepTime = sleepTime < 0 ? 0 : sleepTime;
+							help = false;
+						}
+					}
+					else if(args[i].equals(MODE)){
+						i++;
+						if(i == args.length || isOption(args[i]) || !(args[i].equals(MODE_THREAD) || args[i].equals(MODE_VIRTUAL) || args[i].equals(MODE_NIO)))
+							break;
+						else {
+							mode = args[i];
+							help = false;
+						}
+					}
+					else if(args[i].equals(LOOPS)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							numOfLoops = Integer.parseInt(args[i]);
+							numOfLoops = numOfLoops < 1 ? 1 : numOfLoops;
+							help = false;
+						}
+					}
+					else if(args[i].equals(SEED)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							seed = Long.parseLong(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(METRICS)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							metricsPort = Integer.parseInt(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(JOURNAL)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							journalPath = args[i];
+							help = false;
+						}
+					}
+					else if(args[i].equals(STATS)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							statsPath = args[i];
+							help = false;
+						}
+					}
+					else if(args[i].equals(GRACE)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							grace = Integer.parseInt(args[i]);
+							grace = grace < 0 ? 0 : grace;
+							help = false;
+						}
+					}
+					else if(args[i].equals(TURN)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							turnTime = Integer.parseInt(args[i]);
+							turnTime = turnTime < 0 ? 0 : turnTime;
+							help = false;
+						}
+					}
+					else if(args[i].equals(IDLE)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							idleTime = Integer.parseInt(args[i]);
+							idleTime = idleTime < 0 ? 0 : idleTime;
+							help = false;
+						}
+					}
+					else if(args[i].equals(RATE)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							rate = Integer.parseInt(args[i]);
+							rate = rate < 0 ? 0 : rate;
+							help = false;
+						}
+					}
+					else if(args[i].equals(PORT_OPTION)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							port = Integer.parseInt(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(ROUTER)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							router = args[i];
+							help = false;
+						}
+					}
+					else if(args[i].equals(RESOLVE)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							resolve = Integer.parseInt(args[i]);
+							resolve = resolve < 0 ? 0 : resolve;
+							help = false;
+						}
+					}
+					else if(args[i].equals(LOG)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							logFile = args[i];
+							help = false;
+						}
+					}
+					else if(args[i].equals(LEVEL)){
+						i++;
+						if(i == args.length || isOption(args[i]) || GameLog.level(args[i]) == -1)
+							break;
+						else {
+							logLevel = GameLog.level(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(CONSOLE)){
+						console = true;
+						help = false;
+					}
 					else if(args[i].equals(HELP))
 						break;
 					i++;
@@ -82,50 +340,490 @@ public class GameServer extends JFrame implements GameConstants {
 			} catch(NumberFormatException e){}
 		}
 
-		if(help)
+		if(help){
 			logHelp();
-		else
-			new GameServer(numOfClients, gameWidth, gameHeight);
+			return;
+		}
+
+		GameLog gameLog = new GameLog(logLevel);
+		if(console)
+			gameLog.addSink(new ConsoleSink());
+		if(logFile != null){
+			try {
+				gameLog.addSink(new RollingFileSink(logFile));
+			} catch(IOException e){
+				System.err.println(e.getMessage());
+			}
+		}
+		new GameServer(numOfClients, gameWidth, gameHeight, sleepTime, mode, numOfLoops, seed, metricsPort, journalPath, statsPath, grace, turnTime, idleTime, rate, port, router, resolve, gameLog);
+	}
+
+	/**
+	 * @param arg	a command line argument
+	 * @return true if the argument is one of the server options
+	 */
+	private static boolean isOption(String arg){
+		return arg.equals(CLIENTS) || arg.equals(WIDTH) || arg.equals(HEIGHT) || arg.equals(DELAY) || arg.equals(MODE) || arg.equals(LOOPS)
+			|| arg.equals(SEED) || arg.equals(METRICS) || arg.equals(JOURNAL) || arg.equals(STATS) || arg.equals(GRACE) || arg.equals(TURN) || arg.equals(IDLE) || arg.equals(RATE) || arg.equals(PORT_OPTION) || arg.equals(ROUTER) || arg.equals(RESOLVE) || arg.equals(LOG) || arg.equals(LEVEL) || arg.equals(CONSOLE) || arg.equals(HELP);
 	}
 
 	/**
 	 * Starts a server that constantly listens for clients.
+	 * Every game runs on its own thread.
 	 * @param numOfClients	the number of clients per game
 	 * @param gameWidth		the width of the game board
 	 * @param gameHeight	the height of the game board
 	 */
 	public GameServer(int numOfClients, int gameWidth, int gameHeight){
-		buildGUI();
+		this(numOfClients, gameWidth, gameHeight, GameService.DEFAULT_SLEEP_TIME, MODE_THREAD, 1, null, 0, null, null, Sessions.DEFAULT_GRACE, Deadlines.DEFAULT_TURN_TIME, Deadlines.DEFAULT_IDLE_TIME, TokenBucket.DEFAULT_RATE, PORT, null, 0, new GameLog(GameLog.DEBUG));
+	}
+
+	/**
+	 * Starts a server that constantly listens for clients.
+	 * @param numOfClients	the number of clients per game
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 * @param sleepTime		the amount of ms a mismatched pair is shown for
+	 * @param mode			how games are run, {@link #MODE_THREAD}, {@link #MODE_VIRTUAL} or {@link #MODE_NIO}
+	 * @param numOfLoops	the number of event loops used by {@link #MODE_NIO}
+	 * @param seed			game n is shuffled from seed + n, null to shuffle every game from a random seed
+	 * @param metricsPort	the localhost port metrics are served on for Prometheus, 0 to only use JMX
+	 * @param journalPath	the directory games are recorded in, null to not record games
+	 * @param statsPath		the directory the leaderboard is kept in, null to not keep one
+	 * @param grace			the amount of ms a player that lost its connection has to come back
+	 * @param turnTime		the amount of ms a player has for a turn, 0 for no limit
+	 * @param idleTime		the amount of ms a player can leave what it is sent unread, 0 for no limit
+	 * @param rate			the amount of commands a player can send per second, 0 for no limit
+	 * @param port			the port to listen on for players
+	 * @param router		the router to send heartbeats to as host or host:port, null to not use a router
+	 * @param resolve		the amount of ms the host names of clients are kept for, 0 to only log their addresses
+	 * @param gameLog		the log to output to, the log area is added to it unless the server is headless
+	 */
+	public GameServer(int numOfClients, int gameWidth, int gameHeight, int sleepTime, String mode, int numOfLoops, Long seed, int metricsPort, String journalPath, String statsPath, int grace, int turnTime, int idleTime, int rate, int port, String router, int resolve, GameLog gameLog){
+		this.gameLog = gameLog;
+		this.sleepTime = sleepTime;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "game-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if(!GraphicsEnvironment.isHeadless()){
+			buildGUI();
+			gameLog.addSink(new TextAreaSink(logArea));
+		}
+		gameLog.start();
 		this.numOfClients = numOfClients;
+		this.gameWidth = gameWidth;
+		this.gameHeight = gameHeight;
+		this.mode = mode;
+		this.seed = seed;
+		this.port = port;
+		this.sessions = new Sessions(grace);
+		this.rate = rate;
+		if(resolve > 0)
+			hostNames = new HostNames(resolve);
+		if(statsPath != null)
+			openLeaderboard(statsPath);
+		startMetrics(metricsPort);
+		lobby = new Lobby(gameLog, metrics, this::startGame);
+		metrics.setLobby(lobby);
+		try {
+			audience = new Audience(gameLog, metrics);
+		} catch(IOException e){
+			log(e.getMessage());
+			return;
+		}
+		(new Thread(audience, "audience")).start();
+		deadlines = new Deadlines(turnTime, idleTime);
+		Thread wheel = new Thread(deadlines, "deadlines");
+		wheel.setDaemon(true);
+		wheel.start();
+
+		if(mode.equals(MODE_NIO)){
+			log("%nSTARTING %d EVENT LOOPS", numOfLoops);
+			loops = new GameLoop[numOfLoops];
+			for(int i = 0; i < loops.length; i++){
+				try {
+					loops[i] = new GameLoop(gameLog, metrics);
+				} catch(IOException e){
+					log(e.getMessage());
+					return;
+				}
+				(new Thread(loops[i], "game-loop-" + i)).start();
+			}
+		}
+		if(journalPath != null)
+			openJournal(journalPath);
+		if(router != null)
+			startHeartbeat(router);
+		listen();
+	}
+
+	/**
+	 * Make the metrics available through JMX and, if a port is given, to Prometheus
+	 * @param port	the localhost port to serve metrics on, 0 for none
+	 */
+	private void startMetrics(int port){
+		try {
+			metrics.register();
+		} catch(JMException e){
+			log(e.getMessage());
+		}
+		if(port <= 0)
+			return;
+		try {
+			new MetricsServer(metrics, leaderboard, port).start();
+			log("METRICS: http://localhost:%d%s", port, MetricsServer.PATH);
+			if(leaderboard != null)
+				log("LEADERBOARD: http://localhost:%d%s", port, MetricsServer.LEADERBOARD_PATH);
+		} catch(IOException e){
+			log(e.getMessage());
+		}
+	}
+
+	/**
+	 * Load the leaderboard and start recording results on it,
+	 * without it the server carries on without one
+	 * @param path	the directory of the leaderboard
+	 */
+	private void openLeaderboard(String path){
+		long start = System.nanoTime();
+		try {
+			leaderboard = new Leaderboard(path, gameLog).start();
+		} catch(IOException e){
+			log("LEADERBOARD: %s", e.getMessage());
+			return;
+		}
+		log("LEADERBOARD: %s, %d PLAYERS LOADED IN %dms", path, leaderboard.size(), (System.nanoTime() - start) / 1_000_000);
+	}
 
-		clients = new Socket[numOfClients];
+	/**
+	 * Open the journal and recover the games that were being played when the server stopped.
+	 * Recovered games wait for their players to come back with {@code RESUME},
+	 * game numbers carry on from the last game in the journal
+	 * @param path	the directory of the journal
+	 */
+	private void openJournal(String path){
+		try {
+			journal = new GameJournal(path, gameLog).start();
+		} catch(IOException e){
+			log("JOURNAL: %s", e.getMessage());
+			return;
+		}
+		gameCounter.set(journal.getLastGame() + 1);
+		Map<Integer, GameJournal.Game> recovered = journal.getRecovered();
+		log("JOURNAL: %s, %d GAMES RECOVERED", path, recovered.size());
+		for(GameJournal.Game game : recovered.values()){
+			log("GAME %d: RECOVERED %dx%d, %d PLAYERS, %d CARDS REVEALED", game.getGame() + 1, game.getWidth(), game.getHeight(), game.getPlayers(), game.getMoves().length);
+			gameStarted();
+			if(loops != null)
+				loops[game.getGame() % loops.length].register(new NioGameService(game, gameLog, metrics, sleepTime, scheduler, deadlines, rate, journal, leaderboard, sessions, audience));
+			else
+				new GameService(game, gameLog, metrics, sleepTime, scheduler, deadlines, rate, journal, leaderboard, sessions, audience, this::gameStats);
+		}
+	}
+
+	/**
+	 * Tell a router about this server once every {@link Heartbeat#INTERVAL} ms
+	 * @param router	the router as host or host:port
+	 */
+	private void startHeartbeat(String router){
+		int colon = router.lastIndexOf(':');
+		InetSocketAddress address;
+		DatagramChannel channel;
+		try {
+			address = colon == -1 ? new InetSocketAddress(router, PORT) : new InetSocketAddress(router.substring(0, colon), Integer.parseInt(router.substring(colon + 1)));
+			channel = DatagramChannel.open();
+		} catch(IOException | IllegalArgumentException e){
+			log("ROUTER: %s", e.getMessage());
+			return;
+		}
+		log("ROUTER: %s", address);
+		scheduler.scheduleAtFixedRate(() -> {
+			Heartbeat heartbeat = new Heartbeat(port, numOfClients, gameWidth, gameHeight, metrics.getActiveGames(), metrics.getConnectedSockets());
+			try {
+				channel.send(heartbeat.encode(), address);
+			} catch(IOException e){
+				metrics.error();
+			}
+		}, 0, Heartbeat.INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Listen for clients. Accepting only hands the socket on, every client gets a virtual thread
+	 * for its handshake and host names are looked up on their own threads,
+	 * so a slow client or a slow name server never holds up the next client
+	 */
+	private void listen(){
 		log("%nLISTENING FOR CLIENTS%n");
 
-		try(ServerSocket serverSocket = new ServerSocket(PORT)){
+		try(ServerSocketChannel serverChannel = ServerSocketChannel.open()){
+			serverChannel.bind(new InetSocketAddress(port));
 			serverStats();
 			while(true){
-				for(int i = 0; i < this.numOfClients; i++){
-					clients[i] = serverSocket.accept();
-					clientStats(clients[i]);
-					numOfClients--;
+				SocketChannel channel = serverChannel.accept();
+				metrics.socketOpened();
+				channel.socket().setTcpNoDelay(true);
+				clientStats(channel.socket());
+				Thread.ofVirtual().name("handshake").start(() -> handshake(channel));
+			}
+		} catch(IOException e){
+			log(e.getMessage());
+		}
+	}
+
+	/**
+	 * Read the game the client asks for and put it in the lobby.
+	 * Clients that don't send {@code JOIN} in time are given the default game,
+	 * clients that send {@code RESUME} take their seat in their game again
+	 * and clients that send {@code WATCH} become spectators.
+	 * Clients that send {@code VERSION} first are told the version of the protocol
+	 * they get before they are put in the lobby or take their seat,
+	 * spectators always get version 1. Clients that send {@code PLAYER} first
+	 * have their results recorded on the leaderboard.
+	 * The whole handshake is recorded as a flight recorder event
+	 * @param channel	the client's socket
+	 */
+	private void handshake(SocketChannel channel){
+		GameEvents.Connection event = GameEvents.connection();
+		int players = numOfClients;
+		int width = gameWidth;
+		int height = gameHeight;
+		int version = Protocol.V1;
+		boolean negotiated = false;
+		long id = 0;
+		int cmd = -1;
+
+		Socket socket = channel.socket();
+		try {
+			try {
+				socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				cmd = in.readInt();
+				metrics.commandReceived(cmd);
+				metrics.bytesIn(4);
+				while(cmd == VERSION || cmd == PLAYER){
+					if(cmd == VERSION){
+						version = Math.min(Math.max(in.readInt(), Protocol.V1), Protocol.LATEST);
+						negotiated = true;
+						metrics.bytesIn(4);
+					} else {
+						id = Sessions.token(in.readInt(), in.readInt());
+						metrics.bytesIn(8);
+					}
+					cmd = in.readInt();
+					metrics.commandReceived(cmd);
+					metrics.bytesIn(4);
+				}
+				if(cmd == JOIN){
+					int p = in.readInt();
+					int w = in.readInt();
+					int h = in.readInt();
+					metrics.bytesIn(12);
+					players = clamp(p, players, MIN_CLIENTS, MAX_CLIENTS);
+					width = clamp(w, width, MIN_GAME_SIZE, MAX_GAME_SIZE);
+					height = clamp(h, height, MIN_GAME_SIZE, MAX_GAME_SIZE);
+					if((width * height) % 2 != 0){
+						width = MIN_GAME_SIZE;
+						height = MIN_GAME_SIZE;
+					}
+				} else if(cmd == RESUME){
+					int high = in.readInt();
+					int low = in.readInt();
+					metrics.bytesIn(8);
+					socket.setSoTimeout(0);
+					resume(channel, Sessions.token(high, low), negotiated ? version : 0);
+					return;
+				} else if(cmd == WATCH){
+					int game = in.readInt();
+					metrics.bytesIn(4);
+					socket.setSoTimeout(0);
+					if(!audience.watch(game, channel))
+						refuse(channel, "WATCH: no game %d to watch%n", game + 1);
+					return;
 				}
-				log("GAME %d: STARTING GAME%n", (int) gameNumber + 1);
+			} catch(SocketTimeoutException e){
+				//clients from before the lobby never send JOIN
+			} catch(IOException e){
+				log(e.getMessage());
+				GameEvents.ioError(-1, -1, e.getMessage());
+				metrics.error();
+				metrics.socketClosed();
+				try {
+					channel.close();
+				} catch(IOException ex){}
+				return;
+			}
 
-				log("%nLISTENING FOR CLIENTS%n");
+			try {
+				socket.setSoTimeout(0);
+				if(negotiated)
+					acknowledge(channel, version);
+			} catch(IOException e){
+				log(e.getMessage());
+				GameEvents.ioError(-1, -1, e.getMessage());
+				metrics.socketClosed();
+				try {
+					channel.close();
+				} catch(IOException ex){}
+				return;
+			}
+			lobby.join(channel, version, id, players, width, height);
+		} finally {
+			GameEvents.connected(event, socket.getInetAddress(), commandString(cmd), version, id);
+		}
+	}
 
-				Runnable service = new GameService(clients, gameNumber, logArea, gameWidth, gameHeight);
-				(new Thread(service)).start();
+	/**
+	 * Tell a client the version of the protocol it gets, in version 1
+	 * @param channel	the client's socket
+	 * @param version	the version
+	 * @throws IOException
+	 */
+	private void acknowledge(SocketChannel channel, int version) throws IOException {
+		ByteBuffer ack = ByteBuffer.allocate(8).putInt(VERSION).putInt(version).flip();
+		while(ack.hasRemaining())
+			channel.write(ack);
+		metrics.commandSent(VERSION);
+		metrics.bytesOut(8);
+	}
 
-				numOfClients = this.numOfClients;
-				gameNumber++;
+	/**
+	 * @param value		a value a client asked for, 0 for the default
+	 * @param fallback	the default
+	 * @param min		the lowest allowed value
+	 * @param max		the highest allowed value
+	 * @return the value the client gets
+	 */
+	static int clamp(int value, int fallback, int min, int max){
+		return value == 0 ? fallback : value < min ? min : value > max ? max : value;
+	}
 
-				clients = new Socket[numOfClients];
+	/**
+	 * Give a client its seat back, a client without a seat is told the game is over.
+	 * A client that asked for a version of the protocol is only told the version it gets
+	 * once it has a seat, so a client without one is told in version 1
+	 * @param channel	the client's socket
+	 * @param token		the token the client sent
+	 * @param version	the version of the protocol the client gets, 0 if it didn't ask for one
+	 */
+	private void resume(SocketChannel channel, long token, int version){
+		Sessions.Session session = sessions.get(token);
+		if(session == null){
+			refuse(channel, "RESUME: no game to resume%n");
+			return;
+		}
+		if(version != 0){
+			try {
+				acknowledge(channel, version);
+			} catch(IOException e){
+				log(e.getMessage());
+				metrics.socketClosed();
+				try {
+					channel.close();
+				} catch(IOException ex){}
+				return;
 			}
-		} catch(UnknownHostException e){
-			log(e.getMessage());
-		} catch(IOException e){
-			log(e.getMessage());
 		}
+		version = Math.max(version, Protocol.V1);
+		if(!session.getGame().resume(session.getPlayer(), channel, version))
+			refuse(channel, version, "RESUME: no game to resume%n");
+	}
+
+	/**
+	 * Tell a client there is no game for it and close its socket
+	 * @param channel	the client's socket
+	 * @param msg		why the client is refused
+	 * @param vals		values used in place of tokens specified in msg
+	 */
+	private void refuse(SocketChannel channel, String msg, Object... vals){
+		refuse(channel, Protocol.V1, msg, vals);
+	}
+
+	/**
+	 * Tell a client there is no game for it and close its socket
+	 * @param channel	the client's socket
+	 * @param version	the version of the protocol the client speaks
+	 * @param msg		why the client is refused
+	 * @param vals		values used in place of tokens specified in msg
+	 */
+	private void refuse(SocketChannel channel, int version, String msg, Object... vals){
+		log(msg, vals);
+		try {
+			ByteBuffer done = ByteBuffer.allocate(Protocol.size(version, DONE));
+			Protocol.put(done, version, DONE);
+			channel.write(done.flip());
+			metrics.bytesOut(done.limit());
+			metrics.commandSent(DONE);
+		} catch(IOException e){}
+		metrics.socketClosed();
+		try {
+			channel.close();
+		} catch(IOException e){}
+	}
+
+	/**
+	 * Start a game for matched players on a thread or on one of the event loops.
+	 * The game is created and tells its players about the board on that thread or loop,
+	 * so a player that is slow to read holds up its own game and not the handshake that matched it
+	 * @param channels		the players of the game
+	 * @param versions		the version of the protocol every player speaks
+	 * @param ids			the id of every player, 0 for players that didn't send one
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 */
+	private void startGame(SocketChannel[] channels, int[] versions, long[] ids, int gameWidth, int gameHeight){
+		int gameNumber = gameCounter.getAndIncrement();
+		long gameSeed = seed == null ? ThreadLocalRandom.current().nextLong() : seed + gameNumber;
+		log("GAME %d: STARTING GAME%n", gameNumber + 1);
+
+		if(loops != null){
+			gameStarted();
+			loops[gameNumber % loops.length].register(new NioGameService(channels, versions, ids, gameNumber, gameLog, metrics, gameWidth, gameHeight, sleepTime, scheduler, deadlines, rate, gameSeed, journal, leaderboard, sessions, audience));
+			return;
+		}
+
+		Socket[] clients = new Socket[channels.length];
+		for(int i = 0; i < channels.length; i++)
+			clients[i] = channels[i].socket();
+
+		Runnable game = () -> new GameService(clients, versions, ids, gameNumber, gameLog, metrics, gameWidth, gameHeight, sleepTime, scheduler, deadlines, rate, gameSeed, journal, leaderboard, sessions, audience, this::gameStats).run();
+		gameStarted();
+		if(mode.equals(MODE_VIRTUAL))
+			Thread.ofVirtual().name("game-" + (gameNumber + 1)).start(game);
+		else
+			(new Thread(game, "game-" + (gameNumber + 1))).start();
+	}
+
+	/**
+	 * Count a game that is starting and output the number of running games
+	 */
+	private void gameStarted(){
+		metrics.gameStarted();
+		gameStats();
+	}
+
+	/**
+	 * Outputs the number of running games and the memory used by the server,
+	 * games on threads call it when they end too
+	 */
+	private void gameStats(){
+		log("ACTIVE GAMES: %d, PEAK: %d, RSS: %dMB", metrics.getActiveGames(), metrics.getPeakGames(), residentMemory() / (1024 * 1024));
+	}
+
+	/**
+	 * @return the resident set size of the server in bytes,
+	 * if the operating system doesn't report it the used heap is returned instead
+	 */
+	static long residentMemory(){
+		try {
+			for(String line : Files.readAllLines(Paths.get("/proc/self/status"))){
+				if(line.startsWith("VmRSS:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+			}
+		} catch(IOException | NumberFormatException e){}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
 	}
 
 	/**
@@ -140,12 +838,16 @@ public class GameServer extends JFrame implements GameConstants {
 	}
 
 	/**
-	 * Outputs information about the client
+	 * Outputs information about the client without blocking,
+	 * its host name is only looked up with {@code -resolve} and logged once it is known
 	 * @param socket the client's socket
 	 */
 	private void clientStats(Socket socket){
 		InetAddress adr = socket.getInetAddress();
-		log("%s - %s connected%n", adr.getHostName(), adr.getHostAddress());
+		if(hostNames == null)
+			log("%s connected%n", adr.getHostAddress());
+		else
+			hostNames.lookup(adr, name -> log("%s - %s connected%n", name, adr.getHostAddress()));
 	}
 
 	/**
@@ -157,11 +859,12 @@ public class GameServer extends JFrame implements GameConstants {
 	    DefaultCaret caret = (DefaultCaret)logArea.getCaret();
 	    caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
 
-		add(new JScrollPane(logArea), BorderLayout.CENTER);
-		setSize(600, 300);
-		setTitle("Memory Game Server");
-		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setVisible(true);
+		JFrame frame = new JFrame();
+		frame.add(new JScrollPane(logArea), BorderLayout.CENTER);
+		frame.setSize(600, 300);
+		frame.setTitle("Memory Game Server");
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setVisible(true);
 	}
 
 	/**
@@ -169,23 +872,40 @@ public class GameServer extends JFrame implements GameConstants {
 	 */
 	public static void logHelp(){
 		System.out.println("A memory game server that handles requests from memory game clients over the internet\n");
-		System.out.println("java GameServer [" + CLIENTS + " <number of clients>] [" + WIDTH + " <width>] [" + HEIGHT + " <height>] [" + HELP + "]\n");
+		System.out.println("java GameServer [" + CLIENTS + " <number of clients>] [" + WIDTH + " <width>] [" + HEIGHT + " <height>] [" + DELAY + " <ms>] [" + MODE + " <thread|virtual|nio>] [" + LOOPS + " <loops>] [" + SEED + " <seed>] [" + METRICS + " <port>] [" + JOURNAL + " <directory>] [" + STATS + " <directory>] [" + GRACE + " <ms>] [" + TURN + " <ms>] [" + IDLE + " <ms>] [" + RATE + " <commands>] [" + PORT_OPTION + " <port>] [" + ROUTER + " <host[:port]>] [" + RESOLVE + " <ms>] [" + LOG + " <file>] [" + LEVEL + " <debug|info|error>] [" + CONSOLE + "] [" + HELP + "]\n");
 		System.out.println("\t" + CLIENTS + "\tThe number of clients per game");
 		System.out.println("\t" + WIDTH + "\t\tThe width of the game board");
 		System.out.println("\t" + HEIGHT + "\t\tThe height of the game board");
+		System.out.println("\t\t\tClients can ask for their own game, these are used for clients that don't");
+		System.out.println("\t" + DELAY + "\t\tHow many milliseconds a mismatched pair is shown for, defaults to " + GameService.DEFAULT_SLEEP_TIME);
+		System.out.println("\t" + MODE + "\t\tHow games are run, one thread per game (thread), one virtual thread per game (virtual) or on selector event loops (nio)");
+		System.out.println("\t" + LOOPS + "\t\tThe number of event loops used by the nio mode, defaults to the number of processors");
+		System.out.println("\t" + SEED + "\t\tShuffle game n from seed + n so games can be replayed, every game logs its seed");
+		System.out.println("\t" + METRICS + "\tServe metrics for Prometheus on http://localhost:<port>" + MetricsServer.PATH + ", they are always available through JMX");
+		System.out.println("\t" + JOURNAL + "\tRecord games in the directory, games that were being played are recovered when the server starts again");
+		System.out.println("\t" + STATS + "\t\tKeep the results of players that say who they are in the directory, the leaderboard is served next to the metrics");
+		System.out.println("\t" + GRACE + "\t\tHow many milliseconds a player that lost its connection has to come back before it forfeits, defaults to " + Sessions.DEFAULT_GRACE);
+		System.out.println("\t" + TURN + "\t\tHow many milliseconds a player has for a turn before it forfeits, 0 for no limit, defaults to " + Deadlines.DEFAULT_TURN_TIME);
+		System.out.println("\t" + IDLE + "\t\tHow many milliseconds a player can leave what it is sent unread before its connection is closed, 0 for no limit, defaults to " + Deadlines.DEFAULT_IDLE_TIME);
+		System.out.println("\t" + RATE + "\t\tHow many commands a player can send per second before it is dropped, 0 for no limit, defaults to " + TokenBucket.DEFAULT_RATE);
+		System.out.println("\t" + PORT_OPTION + "\t\tThe port to listen on for players, defaults to " + PORT);
+		System.out.println("\t" + ROUTER + "\tSend heartbeats to a router so it sends players to this server, the router port defaults to " + PORT);
+		System.out.println("\t" + RESOLVE + "\tLog the host names of clients and keep them for this many milliseconds, off by default, try " + HostNames.DEFAULT_TTL);
+		System.out.println("\t" + LOG + "\t\tAlso write the log to the given file, the file is rolled over every 10MB");
+		System.out.println("\t" + LEVEL + "\t\tThe lowest level that is logged, debug logs every move, defaults to debug");
+		System.out.println("\t" + CONSOLE + "\tAlso write the log to standard output, always on when there is no display");
 		System.out.println("\t" + HELP + "\t\tShows this help information");
-		System.out.println("\nthere are a minimum of 2 clients per game");
-		System.out.println("width and height are restricted to values of 2 - 6");
+		System.out.println("\nthere are a minimum of 2 and a maximum of 8 clients per game");
+		System.out.println("width and height are restricted to values of " + MIN_GAME_SIZE + " - " + MAX_GAME_SIZE);
 		System.out.println("\tIf w * h ends up being odd, both w and h will default to 2");
 	}
 
 	/**
-	 * output log messages to the server log area
+	 * output log messages to the server log
 	 * @param msg	the message to output
 	 * @param vals	values used in place of tokens specified in msg
 	 */
 	private void log(String msg, Object... vals){
-		logArea.append(String.format(msg + "%n", vals));
-	    logArea.setCaretPosition(logArea.getDocument().getLength());
+		gameLog.log(GameLog.INFO, GameLog.NO_GAME, msg, vals);
 	}
 }
@@ -1,19 +1,15 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import javax.swing.JTextArea;
-
-public class GameService implements Runnable, GameConstants{
+public class GameService implements Runnable, GameConstants, Resumable, Watchable {
 	/**
-	 * Default amount of ms to sleep for
+	 * Default amount of ms to show a mismatched pair for
 	 */
 	public static final int DEFAULT_SLEEP_TIME = 2000;
 
-	/**
-	 * The amount of points to give for a matching pair
-	 */
-	public static final int POINTS_TO_GIVE = 1;
-
 	/**
 	 * The minimum size for the game board
 	 */
@@ -21,36 +17,93 @@ public class GameService implements Runnable, GameConstants{
 
 	private Socket[] socket;
 	private DataInputStream[] fromClient;
-	private DataOutputStream[] toClient;
-	private JTextArea logArea;
+	//the version of the protocol every player's connection speaks
+	private Protocol[] protocols;
+	//the last command read, followed by its arguments
+	private int[] command = new int[Protocol.MAX_ARGS + 1];
+	private Broadcast toClients;
+	private GameLog gameLog;
+	private GameMetrics metrics;
+	private GameJournal journal;
+	private Leaderboard leaderboard;
+	private Sessions sessions;
+	private Audience.Feed feed;
+	private ScheduledExecutorService scheduler;
+	private Deadlines deadlines;
 
 	private int gameNumber;
 	private int gameWidth;
 	private int gameHeight;
+	private int sleepTime;
+	private int rate;
+	//how many commands every player's connection may still send
+	private TokenBucket[] buckets;
 
-	private int currentPlayer = 0;
-	private int[] cards;
-	private int currentPick = 0;
-	private int[] chosenCards = new int[2];
-	private int pairsLeft;
+	private long turnStarted = 0;
+	//how many turns have been given, a turn deadline only counts for the turn it was set for
+	private int turns = 0;
+	private Deadlines.Timeout turnDeadline;
+	private long seed;
+	private Rules rules;
+	//flight recorder events that are still going, null while they aren't recorded
+	private GameEvents.Game gameEvent;
+	private GameEvents.Turn turnEvent;
+	private GameEvents.Hide hideEvent;
+	private boolean hiding = false;
+	private boolean replaying = false;
 
-	private int[] points;
+	private long[] tokens;
+	//who every player is across games, 0 for players that didn't say
+	private long[] ids;
+	//how often every player has lost its connection, a pending forfeit only counts for the latest one
+	private int[] drops;
+	private boolean parked = false;
+	private int parkedOn;
 	private boolean done = false;
+	private boolean ended = false;
+	private Runnable onEnd;
 
 	/**
 	 * Construct a game service for the clients
 	 * @param clients		The clients to handle
+	 * @param versions		The version of the protocol every client speaks
+	 * @param ids			The id of every client, 0 for clients that didn't send one
 	 * @param gameNumber	The number of this game
-	 * @param tA			The servers text area
+	 * @param gameLog		The servers log
+	 * @param metrics		The servers metrics
 	 * @param gameWidth		The width of the game
 	 * @param gameHeight	The height of the game
+	 * @param sleepTime		The amount of ms a mismatched pair is shown for
+	 * @param scheduler		The scheduler that hides mismatched pairs
+	 * @param deadlines		The deadlines of turns and connections
+	 * @param rate			The amount of commands a player can send per second, 0 for no limit
+	 * @param seed			The seed the board is shuffled with
+	 * @param journal		The journal the game is recorded in, null if games aren't recorded
+	 * @param leaderboard	The leaderboard the result is recorded on, null if results aren't recorded
+	 * @param sessions		The seats players can take again after losing their connection
+	 * @param audience		The spectators of every game
+	 * @param onEnd			Runs once the game has ended and is counted as ended
 	 */
-	public GameService(Socket[] clients,int gameNumber, JTextArea tA, int gameWidth, int gameHeight){
+	public GameService(Socket[] clients, int[] versions, long[] ids, int gameNumber, GameLog gameLog, GameMetrics metrics, int gameWidth, int gameHeight, int sleepTime, ScheduledExecutorService scheduler, Deadlines deadlines, int rate, long seed, GameJournal journal, Leaderboard leaderboard, Sessions sessions, Audience audience, Runnable onEnd){
+		GameEvents.Started started = GameEvents.started();
+		gameEvent = GameEvents.game();
 		socket = clients;
 		this.gameNumber = gameNumber;
-		logArea = tA;
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		this.onEnd = onEnd;
+		this.toClients = new Broadcast(metrics);
+		this.sleepTime = sleepTime;
+		this.scheduler = scheduler;
+		this.deadlines = deadlines;
+		this.rate = rate;
+		this.seed = seed;
+		this.ids = ids;
+		this.journal = journal;
+		this.leaderboard = leaderboard;
+		this.sessions = sessions;
+		this.feed = audience.open(gameNumber, this);
 		fromClient = new DataInputStream[socket.length];
-		toClient = new DataOutputStream[socket.length];
 		this.gameWidth = gameWidth;
 		this.gameHeight = gameHeight;
 
@@ -61,260 +114,686 @@ public class GameService implements Runnable, GameConstants{
 			this.gameHeight = MIN_GAME_SIZE;
 		}
 
-		points = new int[socket.length];
+		drops = new int[socket.length];
+		buckets = new TokenBucket[socket.length];
+		protocols = new Protocol[socket.length];
+		for(int i = 0; i < socket.length; i++){
+			buckets[i] = new TokenBucket(rate);
+			protocols[i] = new Protocol(versions[i]);
+			toClients.version(i, versions[i]);
+		}
 		shuffleCards();
+		createSessions();
 		initializeClients();
+		GameEvents.started(started, gameNumber, socket.length, this.gameWidth, this.gameHeight);
+	}
+
+	/**
+	 * Rebuild a game from the journal after the server restarted.
+	 * Every player has lost its connection and has the grace period to take its seat again
+	 * @param game			The game as it was recorded
+	 * @param gameLog		The servers log
+	 * @param metrics		The servers metrics
+	 * @param sleepTime		The amount of ms a mismatched pair is shown for
+	 * @param scheduler		The scheduler that hides mismatched pairs
+	 * @param deadlines		The deadlines of turns and connections
+	 * @param rate			The amount of commands a player can send per second, 0 for no limit
+	 * @param journal		The journal the game is recorded in
+	 * @param leaderboard	The leaderboard the result is recorded on, null if results aren't recorded
+	 * @param sessions		The seats players can take again after losing their connection
+	 * @param audience		The spectators of every game
+	 * @param onEnd			Runs once the game has ended and is counted as ended
+	 */
+	public GameService(GameJournal.Game game, GameLog gameLog, GameMetrics metrics, int sleepTime, ScheduledExecutorService scheduler, Deadlines deadlines, int rate, GameJournal journal, Leaderboard leaderboard, Sessions sessions, Audience audience, Runnable onEnd){
+		gameEvent = GameEvents.game();
+		socket = new Socket[game.getPlayers()];
+		this.gameNumber = game.getGame();
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		this.onEnd = onEnd;
+		this.toClients = new Broadcast(metrics);
+		this.sleepTime = sleepTime;
+		this.scheduler = scheduler;
+		this.deadlines = deadlines;
+		this.rate = rate;
+		this.seed = game.getSeed();
+		this.ids = game.getIds();
+		this.journal = journal;
+		this.leaderboard = leaderboard;
+		this.sessions = sessions;
+		this.feed = audience.open(gameNumber, this);
+		fromClient = new DataInputStream[socket.length];
+		this.gameWidth = game.getWidth();
+		this.gameHeight = game.getHeight();
+
+		drops = new int[socket.length];
+		buckets = new TokenBucket[socket.length];
+		protocols = new Protocol[socket.length];
+		for(int i = 0; i < socket.length; i++){
+			buckets[i] = new TokenBucket(rate);
+			protocols[i] = new Protocol(Protocol.V1);
+		}
+		rules = new Rules(socket.length, gameWidth * gameHeight, seed);
+		tokens = game.getTokens();
+		for(int i = 0; i < tokens.length; i++)
+			sessions.restore(tokens[i], this, i);
+		replay(game.getMoves());
+		log(GameLog.INFO, "RECOVERED, SEED: %d, %d PAIRS LEFT", seed, rules.getBoard().pairsLeft());
+
+		synchronized(this){
+			if(done){
+				end();
+				return;
+			}
+			parked = true;
+			parkedOn = hiding ? (rules.getCurrentPlayer() + 1) % socket.length : rules.getCurrentPlayer();
+			for(int i = 0; i < socket.length; i++)
+				forfeitLater(i);
+		}
 	}
 
+	/**
+	 * Play the game until it is over or the player whose turn it is has lost its connection.
+	 * A game that stops for a lost connection doesn't hold on to its thread,
+	 * it is played on a new virtual thread once the player is back
+	 */
 	public void run(){
-		int i = 0;
+		int i;
+		synchronized(this){
+			i = hiding ? (rules.getCurrentPlayer() + 1) % socket.length : rules.getCurrentPlayer();
+		}
 		try {
-			try {
-				while(!done){
-					fromClient[i] = new DataInputStream(socket[i].getInputStream());
-					processCommands(i);
-					i = ++i % socket.length;
+			while(true){
+				Socket client;
+				synchronized(this){
+					if(done)
+						break;
+					client = socket[i];
+					if(client == null){
+						parked = true;
+						parkedOn = i;
+						log(GameLog.INFO, "waiting for player %d to come back", i + 1);
+						return;
+					}
 				}
-			} finally {
-				for(i = 0; i < socket.length; i++){
-					socket[i].close();
-					socket[i] = null;
+				try {
+					fromClient[i] = new DataInputStream(client.getInputStream());
+					processCommands(i);
+				} catch(IOException e){
+					disconnected(i, client, e.getMessage());
+					continue;
 				}
+				i = ++i % socket.length;
 			}
-		} catch(IOException e){
-			log(e.getMessage());
 		} finally {
-			log("ENDING GAME%n");
+			synchronized(this){
+				if(done)
+					end();
+			}
 		}
 	}
 
 	/**
-	 * listen for commands from the client
+	 * listen for commands from the client.
+	 * Only reading blocks, commands are handled while holding the lock
+	 * shared with the scheduled hiding of mismatched pairs
 	 * @param client	the current client to listen from
 	 * @throws IOException
 	 */
 	private void processCommands(int client) throws IOException {
 		int cmd;
-		log("waiting for commands from player %d", (int) client + 1);
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "waiting for commands from player %d", (int) client + 1);
 		boolean done = false;
 		do {
-			cmd = fromClient[client].readInt();
+			metrics.bytesIn(read(client));
+			cmd = command[0];
+			metrics.commandReceived(cmd);
 			switch(cmd){
 			case RECEIVE:
-				int chosenCard = fromClient[currentPlayer].readInt();
-				log("%s: received %d from current player", commandString(cmd), chosenCard);
-				revealCard(chosenCard);
-				if(currentPick == 0)
-					done = true;
+				int chosenCard = command[1];
+				admit(client, cmd, chosenCard);
+				synchronized(this){
+					if(this.done)
+						return;
+					if(hiding){
+						if(gameLog.isEnabled(GameLog.DEBUG))
+							log(GameLog.DEBUG, "%s: ignored %d while the last pair is shown", commandString(cmd), chosenCard);
+						break;
+					}
+					if(gameLog.isEnabled(GameLog.DEBUG))
+						log(GameLog.DEBUG, "%s: received %d from current player", commandString(cmd), chosenCard);
+					revealCard(chosenCard);
+					flush();
+					if(rules.getPick() == 0)
+						done = true;
+				}
 				break;
 			case QUIT:
-				int player = fromClient[client].readInt();
-				log("%s: player %d quit the game", commandString(cmd), (int) player + 1);
-				determineWinner(player);
-				done = true;
+				int player = command[1];
+				admit(client, cmd, player);
+				synchronized(this){
+					if(this.done)
+						return;
+					log(GameLog.INFO, "%s: player %d quit the game", commandString(cmd), (int) player + 1);
+					determineWinner(player);
+					flush();
+					done = true;
+				}
 				break;
+			default:
+				admit(client, cmd, 0);
 			}
 		} while(!done);
 	}
 
+	/**
+	 * Read a command into {@link #command} in the version of the protocol the client speaks
+	 * @param client	the client to read from
+	 * @return the amount of bytes read
+	 * @throws IOException	if the client sent something that isn't a command, it is dropped
+	 */
+	private int read(int client) throws IOException {
+		try {
+			return protocols[client].read(fromClient[client], command);
+		} catch(ProtocolException e){
+			metrics.playerDropped();
+			throw new IOException("dropped for sending " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Check a command before the game acts on it. A player that sends more commands than
+	 * its bucket allows, picks a card that isn't on the board or quits for another player
+	 * is dropped before anything is sent for the command
+	 * @param client	the client the command was read from
+	 * @param cmd		the command
+	 * @param value		the argument of the command
+	 * @throws IOException	if the client is dropped
+	 */
+	private void admit(int client, int cmd, int value) throws IOException {
+		String reason = null;
+		if(!buckets[client].take())
+			reason = "sending more than " + rate + " commands a second";
+		else if(cmd == RECEIVE && !rules.getBoard().isCard(value))
+			reason = "picking card " + value + " of " + rules.getBoard().size();
+		else if(cmd == QUIT && value != client)
+			reason = "quitting for player " + (value + 1);
+		if(reason == null)
+			return;
+		metrics.playerDropped();
+		throw new IOException("dropped for " + reason);
+	}
+
+	/**
+	 * Hand every player a token to take its seat again with
+	 */
+	private void createSessions(){
+		tokens = new long[socket.length];
+		for(int i = 0; i < socket.length; i++){
+			tokens[i] = sessions.create(this, i);
+			if(journal != null)
+				journal.session(gameNumber, i, tokens[i]);
+			if(journal != null && ids[i] != 0)
+				journal.player(gameNumber, i, ids[i]);
+		}
+	}
+
 	/**
 	 * Initialize the clients
 	 */
 	private void initializeClients(){
-		log("%s: Initializing clients. gameWidth: %d, gameHeight: %d", commandString(INIT), gameWidth, gameHeight);
-		try{
+		log(GameLog.INFO, "%s: Initializing clients. gameWidth: %d, gameHeight: %d", commandString(INIT), gameWidth, gameHeight);
+		synchronized(this){
 			for(int i = 0; i < socket.length; i++){
-				toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-				toClient[i].writeInt(INIT);
-				toClient[i].writeInt(i);
-				toClient[i].writeInt(gameWidth);
-				toClient[i].writeInt(gameHeight);
-				toClient[i].flush();
+				toClients.sendTo(i, INIT, i, gameWidth, gameHeight);
+				toClients.sendTo(i, SESSION, Sessions.high(tokens[i]), Sessions.low(tokens[i]));
 			}
 			setTurn(true);
+			flush();
+		}
+	}
+
+	/**
+	 * Give a player that lost its connection a new one and catch it up with the game.
+	 * A game that was waiting for the player carries on
+	 * @param player	the player
+	 * @param channel	the player's new connection
+	 * @param version	the version of the protocol the new connection speaks
+	 * @return false if the game is over
+	 */
+	public synchronized boolean resume(int player, SocketChannel channel, int version){
+		if(done)
+			return false;
+
+		Socket old = socket[player];
+		if(old != null){
+			metrics.socketClosed();
+			try {
+				old.close();
+			} catch(IOException e){}
+		}
+		socket[player] = channel.socket();
+		drops[player]++;
+		buckets[player] = new TokenBucket(rate);
+		protocols[player] = new Protocol(version);
+		toClients.version(player, version);
+		log(GameLog.INFO, "%s: player %d is back", commandString(RESUME), player + 1);
+
+		Broadcast catchUp = new Broadcast(metrics);
+		catchUp.version(player, version);
+		catchUp(catchUp, player);
+		try {
+			write(catchUp, player, socket[player]);
 		} catch(IOException e){
-			log(e.getMessage());
+			disconnected(player, socket[player], e.getMessage());
+			return true;
+		}
+		//the player gets a whole turn once it is back
+		if(player == rules.getCurrentPlayer() && !hiding)
+			turnLater();
+
+		if(parked && parkedOn == player){
+			parked = false;
+			Thread.ofVirtual().name("game-" + (gameNumber + 1)).start(this);
 		}
+		return true;
+	}
+
+	/**
+	 * Queue everything a player needs to pick the game up again,
+	 * the cards that are face up, its points and whose turn it is
+	 * @param out		where to queue the commands
+	 * @param player	the player
+	 */
+	private void catchUp(Broadcast out, int player){
+		out.send(INIT, player, gameWidth, gameHeight);
+		out.send(SESSION, Sessions.high(tokens[player]), Sessions.low(tokens[player]));
+		faceUp(out);
+		if(rules.getPoints(player) > 0)
+			out.send(MATCH, rules.getPoints(player));
+		out.send(SETTURN, rules.getCurrentPlayer());
+	}
+
+	/**
+	 * Queue a {@code REVEAL} for every card that is face up, matched or picked this turn
+	 * @param out	where to queue the commands
+	 */
+	private void faceUp(Broadcast out){
+		Board board = rules.getBoard();
+		for(int card = board.nextMatched(0); card >= 0; card = board.nextMatched(card + 1))
+			out.send(REVEAL, card, board.value(card));
+		int picked = hiding ? 2 : rules.getPick();
+		for(int i = 0; i < picked; i++)
+			out.send(REVEAL, rules.getChosen(i), board.value(rules.getChosen(i)));
+	}
+
+	/**
+	 * Add a spectator, it gets the cards that are face up and whose turn it is
+	 * followed by everything the players are sent
+	 * @param channel	the spectator's connection
+	 * @return false if the game is over
+	 */
+	public synchronized boolean watch(SocketChannel channel){
+		if(done)
+			return false;
+		Broadcast snapshot = new Broadcast();
+		snapshot.send(INIT, -1, gameWidth, gameHeight);
+		faceUp(snapshot);
+		snapshot.send(SETTURN, rules.getCurrentPlayer());
+		feed.subscribe(channel, snapshot);
+		return true;
+	}
+
+	/**
+	 * A player's connection failed, the player forfeits the game if it isn't back in time.
+	 * Connections that were already replaced are ignored
+	 * @param player	the player
+	 * @param client	the connection that failed
+	 * @param reason	why the connection failed
+	 */
+	private synchronized void disconnected(int player, Socket client, String reason){
+		if(done || client == null || socket[player] != client)
+			return;
+		log(GameLog.INFO, "player %d lost its connection: %s", player + 1, reason);
+		GameEvents.ioError(gameNumber, player, reason);
+		metrics.socketClosed();
+		try {
+			client.close();
+		} catch(IOException e){}
+		socket[player] = null;
+		drops[player]++;
+		forfeitLater(player);
+	}
+
+	/**
+	 * Make a player forfeit the game once the grace period is over unless it comes back
+	 * @param player	the player
+	 */
+	private void forfeitLater(int player){
+		int drop = drops[player];
+		deadlines.schedule(() -> Thread.ofVirtual().start(() -> forfeit(player, drop)), sessions.getGrace());
 	}
 
 	/**
-	 * Gives a player a turn
+	 * End the game with a player that didn't come back losing it
+	 * @param player	the player
+	 * @param drop		the lost connection the forfeit was scheduled for
+	 */
+	private synchronized void forfeit(int player, int drop){
+		if(done || socket[player] != null || drops[player] != drop)
+			return;
+		log(GameLog.INFO, "player %d didn't come back", player + 1);
+		determineWinner(player);
+		flush();
+		//a game thread blocked on reading wakes up and ends the game, a parked game has none
+		closeSockets();
+		if(parked)
+			end();
+	}
+
+	/**
+	 * Treat a player that takes too long for its turn as having quit.
+	 * A game thread blocked on reading wakes up and ends the game, a parked game has none
+	 * @param turn	the turn the deadline was set for
+	 */
+	private synchronized void turnExpired(int turn){
+		if(done || hiding || turns != turn)
+			return;
+		log(GameLog.INFO, "player %d took longer than %dms for its turn", rules.getCurrentPlayer() + 1, deadlines.getTurnTime());
+		metrics.turnTimedOut();
+		determineWinner(rules.getCurrentPlayer());
+		flush();
+		closeSockets();
+		if(parked)
+			end();
+	}
+
+	/**
+	 * Give the current player until the turn deadline to finish its turn, replacing the last deadline
+	 */
+	private void turnLater(){
+		if(turnDeadline != null)
+			turnDeadline.cancel();
+		if(deadlines.getTurnTime() == 0 || replaying)
+			return;
+		int turn = turns;
+		turnDeadline = deadlines.schedule(() -> Thread.ofVirtual().start(() -> turnExpired(turn)), deadlines.getTurnTime());
+	}
+
+	/**
+	 * Gives a player a turn and times the turn that ended
 	 * @param initial	ensures the first turn is given to player 0
-	 * @throws IOException
 	 */
-	private void setTurn(boolean initial) throws IOException{
+	private void setTurn(boolean initial){
+		long now = System.nanoTime();
+		if(!initial && !replaying)
+			metrics.turnEnded(now - turnStarted);
+		turnStarted = now;
 		if(!initial)
-			currentPlayer = ++currentPlayer % socket.length;
+			rules.endPair();
+		turns++;
+		turnLater();
+		GameEvents.commit(turnEvent);
+		turnEvent = replaying ? null : GameEvents.turn(gameNumber, rules.getCurrentPlayer(), turns);
 
-		log("%s: Giving player %d a turn", commandString(SETTURN), (int) currentPlayer + 1);
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Giving player %d a turn", commandString(SETTURN), (int) rules.getCurrentPlayer() + 1);
 
-		for(int i = 0; i < socket.length; i++){
-			toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-			toClient[i].writeInt(SETTURN);
-			toClient[i].writeInt(currentPlayer);
-			toClient[i].flush();
-		}
+		toClients.send(SETTURN, rules.getCurrentPlayer());
 	}
 
 	/**
 	 * Reveals the card the client picked.
 	 * If the client has picked 2 cards, the server will determine if there is a match.
-	 * If the last 2 cards are uncovered, the server will determine a winner
+	 * If the last 2 cards are uncovered, the server will determine a winner.
+	 * Cards that are already matched or already picked this turn are ignored
 	 * @param cardToReveal	the card to reveal
-	 * @throws IOException
 	 */
-	private void revealCard(int cardToReveal) throws IOException{
-		log("%s: Revealing card %d with a value of %d", commandString(REVEAL), cardToReveal, cards[cardToReveal]);
-		chosenCards[currentPick] = cardToReveal;
-		for(int i = 0; i < socket.length; i++){
-			toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-			toClient[i].writeInt(REVEAL);
-			toClient[i].writeInt(cardToReveal);
-			toClient[i].writeInt(cards[cardToReveal]);
-			toClient[i].flush();
+	private void revealCard(int cardToReveal){
+		Board board = rules.getBoard();
+		int outcome = rules.reveal(cardToReveal);
+		if(outcome == Rules.IGNORED){
+			if(gameLog.isEnabled(GameLog.DEBUG))
+				log(GameLog.DEBUG, "%s: ignored %d, the card is already face up", commandString(RECEIVE), cardToReveal);
+			return;
 		}
-		currentPick = ++currentPick % 2;
-		if(currentPick == 0){
-			if(cards[chosenCards[0]] == cards[chosenCards[1]]){
-				log("%s: Match found at cards %d and %d, adding %d point(s)", commandString(MATCH), chosenCards[0], chosenCards[1], 1);
-				points[currentPlayer] += POINTS_TO_GIVE;
-				toClient[currentPlayer].writeInt(MATCH);
-				toClient[currentPlayer].writeInt(points[currentPlayer]);
-				toClient[currentPlayer].flush();
-				pairsLeft--;
-				if(pairsLeft == 0){
-					determineWinner();
-					return;
-				}
-			} else {
-				clientSleep();
-				hideCards();
+
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Revealing card %d with a value of %d", commandString(REVEAL), cardToReveal, board.value(cardToReveal));
+		if(journal != null && !replaying)
+			journal.reveal(gameNumber, cardToReveal);
+		if(!replaying)
+			GameEvents.reveal(gameNumber, rules.getCurrentPlayer(), cardToReveal, board.value(cardToReveal));
+		toClients.send(REVEAL, cardToReveal, board.value(cardToReveal));
+		if(outcome == Rules.PICKED)
+			return;
+		if(outcome == Rules.MATCHED || outcome == Rules.OVER){
+			int player = rules.getCurrentPlayer();
+			if(gameLog.isEnabled(GameLog.DEBUG))
+				log(GameLog.DEBUG, "%s: Match found at cards %d and %d, adding %d point(s)", commandString(MATCH), rules.getChosen(0), rules.getChosen(1), Rules.POINTS_TO_GIVE);
+			toClients.sendTo(player, MATCH, rules.getPoints(player));
+			if(!replaying)
+				GameEvents.match(gameNumber, player, rules.getChosen(0), rules.getChosen(1), rules.getPoints(player));
+			if(outcome == Rules.OVER){
+				determineWinner();
+				return;
 			}
-			setTurn(false);
+		} else if(!replaying){
+			clientSleep();
+			hiding = true;
+			hideEvent = GameEvents.hide(gameNumber, rules.getCurrentPlayer(), rules.getChosen(0), rules.getChosen(1));
+			scheduler.schedule(this::endTurn, sleepTime, TimeUnit.MILLISECONDS);
+			return;
 		}
+		setTurn(false);
 	}
 
 	/**
-	 * Make a client sleep
-	 * @throws IOException
+	 * Play the recorded moves again without telling anyone,
+	 * mismatched pairs are hidden right away
+	 * @param moves	the cards that were revealed
 	 */
-	private void clientSleep() throws IOException{
-		log("%s: Making clients sleep for %dms", commandString(WAIT), DEFAULT_SLEEP_TIME);
-		for(int i = 0; i < socket.length; i ++){
-			toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-			toClient[i].writeInt(WAIT);
-			toClient[i].writeInt(DEFAULT_SLEEP_TIME);
-			toClient[i].flush();
-		}
+	private synchronized void replay(int[] moves){
+		replaying = true;
+		for(int card : moves)
+			if(!done && card >= 0 && card < rules.getBoard().size())
+				revealCard(card);
+		replaying = false;
+		toClients.clear();
+	}
+
+	/**
+	 * Tell the clients how long the mismatched pair is shown for
+	 */
+	private void clientSleep(){
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Showing the pair for %dms", commandString(WAIT), sleepTime);
+		toClients.send(WAIT, sleepTime);
+	}
+
+	/**
+	 * Hide the mismatched pair and give the next player a turn.
+	 * Runs on the scheduler once the pair has been shown long enough
+	 */
+	private synchronized void endTurn(){
+		if(done)
+			return;
+		hiding = false;
+		GameEvents.commit(hideEvent);
+		hideEvent = null;
+		hideCards();
+		setTurn(false);
+		flush();
 	}
 
 	/**
 	 * Hides the cards a player has uncovered
-	 * @throws IOException
 	 */
-	private void hideCards() throws IOException {
-		log("%s: Hiding cards %d and %d", commandString(HIDE), chosenCards[0], chosenCards[1]);
-		for(int i = 0; i < socket.length; i++){
-			toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-			toClient[i].writeInt(HIDE);
-			toClient[i].writeInt(chosenCards[0]);
-			toClient[i].writeInt(chosenCards[1]);
-			toClient[i].flush();
-		}
+	private void hideCards(){
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Hiding cards %d and %d", commandString(HIDE), rules.getChosen(0), rules.getChosen(1));
+		toClients.send(HIDE, rules.getChosen(0), rules.getChosen(1));
 	}
 
 	/**
 	 * Determines who wins the game
-	 * @throws IOException
 	 */
-	private void determineWinner() throws IOException{
+	private void determineWinner(){
 		determineWinner(-1);
 	}
 
 	/**
-	 * Determines who wins the game.
+	 * Determines who wins the game and puts the result on the leaderboard.
 	 * The player who quit will automatically lose the game
 	 * @param quitter	The player that quit the game
-	 * @throws IOException
 	 */
-	private void determineWinner(int quitter) throws IOException{
-		int mostPoints = -1;
-		int player = 0;
-		
-		for(int i = 0; i < points.length; i++){
-			if(points[i] > mostPoints && i != quitter){
-				mostPoints = points[i];
-				player = i;
-			}
-		}
-		
-		if(points[currentPlayer] == mostPoints && currentPlayer != quitter)
-			player = currentPlayer;
-		
-		for(int i = 0; i < socket.length; i++){
-			toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-			toClient[i].writeInt(WIN);
-			toClient[i].writeInt(player);
-			toClient[i].flush();
-		}
-		log("%s: Player %d won", commandString(WIN), (int) player + 1);
+	private void determineWinner(int quitter){
+		int player = rules.winner(quitter);
+		GameEvents.commit(turnEvent);
+		turnEvent = null;
+		GameEvents.ended(gameEvent, gameNumber, player, turns);
+		gameEvent = null;
+
+		toClients.send(WIN, player);
+		log(GameLog.INFO, "%s: Player %d won", commandString(WIN), (int) player + 1);
+		if(leaderboard != null)
+			leaderboard.record(ids, rules.getPoints(), player);
 		quitGame();
 	}
 
 	/**
 	 * quit the game
+	 */
+	private void quitGame(){
+		toClients.send(DONE);
+		this.done = true;
+	}
+
+	/**
+	 * Send everything queued since the last flush,
+	 * every client gets one write no matter how many commands were queued.
+	 * A client that can't be written to has lost its connection,
+	 * the commands sent to every client are passed on to the spectators
+	 */
+	private void flush(){
+		try {
+			for(int i = 0; i < socket.length; i++){
+				if(socket[i] == null)
+					continue;
+				try {
+					write(toClients, i, socket[i]);
+				} catch(IOException e){
+					disconnected(i, socket[i], e.getMessage());
+				}
+			}
+		} finally {
+			feed.publish(toClients);
+			toClients.clear();
+		}
+	}
+
+	/**
+	 * Write what has been queued for a client. A client that doesn't take it before the idle
+	 * deadline has stopped reading, its socket is closed so the write fails instead of
+	 * holding up the game
+	 * @param frames	the commands queued for the game
+	 * @param player	the player
+	 * @param client	the player's socket
 	 * @throws IOException
 	 */
-	private void quitGame() throws IOException{
+	private void write(Broadcast frames, int player, Socket client) throws IOException {
+		GameEvents.Write event = GameEvents.write();
+		if(deadlines.getIdleTime() == 0){
+			long written = frames.write(player, client);
+			metrics.bytesOut(written);
+			GameEvents.wrote(event, gameNumber, player, written);
+			return;
+		}
+		Deadlines.Timeout stalled = deadlines.schedule(() -> stalled(player, client), deadlines.getIdleTime());
+		try {
+			long written = frames.write(player, client);
+			metrics.bytesOut(written);
+			GameEvents.wrote(event, gameNumber, player, written);
+		} finally {
+			stalled.cancel();
+		}
+	}
+
+	/**
+	 * Close the socket of a client that stopped reading, runs on the wheel without the lock
+	 * the blocked write holds
+	 * @param player	the player
+	 * @param client	the client's socket
+	 */
+	private void stalled(int player, Socket client){
+		log(GameLog.INFO, "player %d didn't read what it was sent for %dms", player + 1, deadlines.getIdleTime());
+		metrics.connectionStalled();
+		try {
+			client.close();
+		} catch(IOException e){}
+	}
+
+	/**
+	 * close every socket, a game thread blocked on reading wakes up with an exception
+	 */
+	private synchronized void closeSockets(){
+		done = true;
 		for(int i = 0; i < socket.length; i++){
-			toClient[i] = new DataOutputStream(socket[i].getOutputStream());
-			toClient[i].writeInt(DONE);
-			toClient[i].flush();
+			if(socket[i] == null || socket[i].isClosed())
+				continue;
+			metrics.socketClosed();
+			try {
+				socket[i].close();
+			} catch(IOException e){
+				log(GameLog.ERROR, e.getMessage());
+			}
 		}
-		this.done = true;
+	}
+
+	/**
+	 * close the sockets, forget the sessions, count the game as ended and report it to the server,
+	 * only the first call counts
+	 */
+	private synchronized void end(){
+		if(ended)
+			return;
+		ended = true;
+		if(turnDeadline != null)
+			turnDeadline.cancel();
+		closeSockets();
+		for(long token : tokens)
+			sessions.remove(token);
+		if(journal != null)
+			journal.end(gameNumber);
+		feed.close();
+		metrics.gameEnded();
+		log(GameLog.INFO, "ENDING GAME%n");
+		onEnd.run();
 	}
 
 	/**
 	 * creates the game board and shuffles cards
-	 * not the best algorithm but it kind of works
 	 */
 	private void shuffleCards(){
-		log("SHUFFLING CARDS");
-		int cardsSize = gameWidth * gameHeight;
-		cards = new int[cardsSize];
-		for(int i = 0; i < cards.length; i++)
-			cards[i] = -1;
-
-		int pairs = cardsSize / 2;
-		pairsLeft = pairs;
-
-		int i = 0;
-		int currentPair = 0;
-		int add = 0;
-
-		java.util.Random rand = new java.util.Random(System.currentTimeMillis());
-
-		while(currentPair < pairs){
-			i = rand.nextInt(cardsSize);
-			if(cards[i] == -1){
-				if(rand.nextInt(20) < 2){
-					cards[i] = currentPair;
-					add = ++add % 2;
-					if(add == 0)
-						currentPair++;
-				}
-			}
-		}
+		log(GameLog.INFO, "SHUFFLING CARDS, SEED: %d", seed);
+		rules = new Rules(socket.length, gameWidth * gameHeight, seed);
+		if(journal != null)
+			journal.start(gameNumber, seed, gameWidth, gameHeight, rules.getPlayers());
 	}
 
 	/**
-	 * output log messages to the server log area
+	 * output log messages to the server log and count errors.
+	 * Messages below the level of the log are dropped before anything is queued,
+	 * per move messages check the level before they are logged so their arguments aren't boxed
+	 * @param level	the level of the message
 	 * @param msg	the message to output
 	 * @param vals	values used in place of tokens specified in msg
 	 */
-	private void log(String msg, Object... vals){
-		String message = String.format("GAME %d: %s%n", (int) gameNumber + 1, msg);
-		logArea.append(String.format(message, vals));
-	    logArea.setCaretPosition(logArea.getDocument().getLength());
+	private void log(int level, String msg, Object... vals){
+		if(level == GameLog.ERROR)
+			metrics.error();
+		if(gameLog.isEnabled(level))
+			gameLog.log(level, gameNumber, msg, vals);
 	}
 }
@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/**
+ * What a player knows about their game at one point in time.
+ * States are never changed, every update returns a new state so the network thread
+ * can build the next state while the event dispatch thread draws the last one
+ */
+public final class GameState {
+	/**
+	 * The value of a card that is face down
+	 */
+	public static final int HIDDEN = -1;
+
+	/**
+	 * The player number of a spectator
+	 */
+	public static final int SPECTATOR = -1;
+
+	/**
+	 * The state before the server has initialized the game
+	 */
+	public static final GameState NONE = new GameState(0, 0, 0, new int[0], -1, 0, 0, false, false, false, "");
+
+	private final int player;
+	private final int gameWidth;
+	private final int gameHeight;
+	private final int[] cards;
+	private final int turn;
+	private final int picks;
+	private final int points;
+	private final boolean gameOver;
+	private final boolean win;
+	private final boolean closed;
+	private final String message;
+
+	private GameState(int player, int gameWidth, int gameHeight, int[] cards, int turn, int picks, int points,
+			boolean gameOver, boolean win, boolean closed, String message){
+		this.player = player;
+		this.gameWidth = gameWidth;
+		this.gameHeight = gameHeight;
+		this.cards = cards;
+		this.turn = turn;
+		this.picks = picks;
+		this.points = points;
+		this.gameOver = gameOver;
+		this.win = win;
+		this.closed = closed;
+		this.message = message;
+	}
+
+	/**
+	 * @param player		the number of this player
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 * @return the state of a new game with every card face down
+	 */
+	public GameState init(int player, int gameWidth, int gameHeight){
+		int[] cards = new int[gameWidth * gameHeight];
+		Arrays.fill(cards, HIDDEN);
+		return new GameState(player, gameWidth, gameHeight, cards, -1, 0, 0, false, false, closed, "");
+	}
+
+	/**
+	 * @param turn	the player that gets a turn
+	 * @return the state with the turn given to the player
+	 */
+	public GameState turn(int turn){
+		return new GameState(player, gameWidth, gameHeight, cards, turn, 0, points, gameOver, win, closed, "");
+	}
+
+	/**
+	 * @param card	the index of the card
+	 * @param value	the value of the card
+	 * @return the state with the card face up
+	 */
+	public GameState reveal(int card, int value){
+		int[] cards = this.cards.clone();
+		cards[card] = value;
+		return new GameState(player, gameWidth, gameHeight, cards, turn, picks, points, gameOver, win, closed, message);
+	}
+
+	/**
+	 * @param card1	the index of a card
+	 * @param card2	the index of another card
+	 * @return the state with both cards face down
+	 */
+	public GameState hide(int card1, int card2){
+		int[] cards = this.cards.clone();
+		cards[card1] = HIDDEN;
+		cards[card2] = HIDDEN;
+		return new GameState(player, gameWidth, gameHeight, cards, turn, picks, points, gameOver, win, closed, message);
+	}
+
+	/**
+	 * @param points	the points this player has now
+	 * @return the state with the points
+	 */
+	public GameState points(int points){
+		return new GameState(player, gameWidth, gameHeight, cards, turn, picks, points, gameOver, win, closed, "");
+	}
+
+	/**
+	 * @return the state after this player picked a card
+	 */
+	public GameState picked(){
+		return new GameState(player, gameWidth, gameHeight, cards, turn, picks + 1, points, gameOver, win, closed, "");
+	}
+
+	/**
+	 * @param winner	the player that won
+	 * @return the state of the ended game, the winner keeps the turn
+	 */
+	public GameState over(int winner){
+		return new GameState(player, gameWidth, gameHeight, cards, winner, picks, points, true, winner == player, closed, "");
+	}
+
+	/**
+	 * @return the state after the connection to the server was closed
+	 */
+	public GameState closed(){
+		return new GameState(player, gameWidth, gameHeight, cards, turn, picks, points, gameOver, win, true, "CONNECTION CLOSED");
+	}
+
+	/**
+	 * @param message	a message to show the player
+	 * @return the state with the message
+	 */
+	public GameState message(String message){
+		return new GameState(player, gameWidth, gameHeight, cards, turn, picks, points, gameOver, win, closed, message);
+	}
+
+	/**
+	 * @return true once the server has initialized the game
+	 */
+	public boolean isInitialized(){
+		return cards.length > 0;
+	}
+
+	/**
+	 * @return the number of this player
+	 */
+	public int getPlayer(){
+		return player;
+	}
+
+	/**
+	 * @return the width of the game board
+	 */
+	public int getGameWidth(){
+		return gameWidth;
+	}
+
+	/**
+	 * @return the height of the game board
+	 */
+	public int getGameHeight(){
+		return gameHeight;
+	}
+
+	/**
+	 * @param card	the index of a card
+	 * @return the value of the card or {@link #HIDDEN}
+	 */
+	public int card(int card){
+		return cards[card];
+	}
+
+	/**
+	 * @return true if this is a spectator's view of the game
+	 */
+	public boolean isSpectator(){
+		return player == SPECTATOR;
+	}
+
+	/**
+	 * @return the player whose turn it is, the winner once the game is over
+	 */
+	public int getTurn(){
+		return turn;
+	}
+
+	/**
+	 * @return true if this player can pick cards
+	 */
+	public boolean isMyTurn(){
+		return turn == player && !isSpectator() && !gameOver && !closed;
+	}
+
+	/**
+	 * @return the amount of cards this player picked this turn
+	 */
+	public int getPicks(){
+		return picks;
+	}
+
+	/**
+	 * @return the points of this player
+	 */
+	public int getPoints(){
+		return points;
+	}
+
+	/**
+	 * @return true once a player has won
+	 */
+	public boolean isGameOver(){
+		return gameOver;
+	}
+
+	/**
+	 * @return true if this player won
+	 */
+	public boolean isWin(){
+		return win;
+	}
+
+	/**
+	 * @return true once the connection to the server is closed
+	 */
+	public boolean isClosed(){
+		return closed;
+	}
+
+	/**
+	 * @return the message to show the player
+	 */
+	public String getMessage(){
+		return message;
+	}
+}
@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+
+/**
+ * What a game server tells the {@link Router} about itself once every {@link #INTERVAL} ms.
+ * Heartbeats are single datagrams, a server the router stops hearing from is taken out of rotation
+ */
+public class Heartbeat {
+	/**
+	 * How often a server sends a heartbeat in ms
+	 */
+	public static final int INTERVAL = 1000;
+
+	/**
+	 * Size of a heartbeat in bytes
+	 */
+	public static final int SIZE = 36;
+
+	private static final int MAGIC = 0x434e4842;
+
+	private int port;
+	private int players;
+	private int gameWidth;
+	private int gameHeight;
+	private long activeGames;
+	private long connections;
+
+	/**
+	 * @param port			the port the server listens on for players
+	 * @param players		the amount of players in a game for clients that don't ask
+	 * @param gameWidth		the width of the game board for clients that don't ask
+	 * @param gameHeight	the height of the game board for clients that don't ask
+	 * @param activeGames	the amount of games being played
+	 * @param connections	the amount of player sockets that are open
+	 */
+	public Heartbeat(int port, int players, int gameWidth, int gameHeight, long activeGames, long connections){
+		this.port = port;
+		this.players = players;
+		this.gameWidth = gameWidth;
+		this.gameHeight = gameHeight;
+		this.activeGames = activeGames;
+		this.connections = connections;
+	}
+
+	/**
+	 * @return the heartbeat as it is sent
+	 */
+	public ByteBuffer encode(){
+		ByteBuffer bytes = ByteBuffer.allocate(SIZE);
+		bytes.putInt(MAGIC).putInt(port).putInt(players).putInt(gameWidth).putInt(gameHeight);
+		bytes.putLong(activeGames).putLong(connections);
+		return bytes.flip();
+	}
+
+	/**
+	 * @param bytes	a received datagram
+	 * @return the heartbeat or null if the datagram isn't one
+	 */
+	public static Heartbeat decode(ByteBuffer bytes){
+		if(bytes.remaining() != SIZE || bytes.getInt() != MAGIC)
+			return null;
+		return new Heartbeat(bytes.getInt(), bytes.getInt(), bytes.getInt(), bytes.getInt(), bytes.getLong(), bytes.getLong());
+	}
+
+	/**
+	 * @return the port the server listens on for players
+	 */
+	public int getPort(){
+		return port;
+	}
+
+	/**
+	 * @return the amount of players in a game for clients that don't ask
+	 */
+	public int getPlayers(){
+		return players;
+	}
+
+	/**
+	 * @return the width of the game board for clients that don't ask
+	 */
+	public int getGameWidth(){
+		return gameWidth;
+	}
+
+	/**
+	 * @return the height of the game board for clients that don't ask
+	 */
+	public int getGameHeight(){
+		return gameHeight;
+	}
+
+	/**
+	 * @return the amount of games being played
+	 */
+	public long getActiveGames(){
+		return activeGames;
+	}
+
+	/**
+	 * @return the amount of player sockets that are open
+	 */
+	public long getConnections(){
+		return connections;
+	}
+}
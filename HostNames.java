@@ -0,0 +1,72 @@
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Host names of the addresses clients connect from.
+ * A reverse lookup can take seconds and the JDK doesn't cache them, every accepted
+ * socket has a new address that is looked up again. Names are looked up on a virtual thread
+ * and kept for a while, clients that connect from the same address while a lookup is
+ * running wait for that lookup instead of starting another one, so neither the accept loop
+ * nor the name server is held up by a burst of connections
+ */
+public class HostNames {
+	/**
+	 * How long a name is kept in ms by default
+	 */
+	public static final int DEFAULT_TTL = 60000;
+
+	/**
+	 * The amount of names that are kept, expired names are dropped once there are more
+	 * and every name is dropped if none of them have expired
+	 */
+	public static final int MAX_NAMES = 10000;
+
+	private ConcurrentHashMap<InetAddress, Name> names = new ConcurrentHashMap<>();
+	private long ttl;
+
+	/**
+	 * @param ttl	how long a name is kept in ms
+	 */
+	public HostNames(int ttl){
+		this.ttl = ttl * 1000000L;
+	}
+
+	/**
+	 * Look up the name of an address without blocking
+	 * @param address	the address
+	 * @param then		is given the name, or the address as text if it has none,
+	 * 					on the calling thread if the name is kept and on the lookup's thread if it isn't
+	 */
+	public void lookup(InetAddress address, Consumer<String> then){
+		long now = System.nanoTime();
+		Name name = names.get(address);
+		if(name == null || name.expired(now)){
+			if(names.size() >= MAX_NAMES){
+				names.values().removeIf(kept -> kept.expired(now));
+				if(names.size() >= MAX_NAMES)
+					names.clear();
+			}
+			name = names.compute(address, (key, kept) -> kept == null || kept.expired(now) ? new Name(key, now + ttl) : kept);
+		}
+		name.name.thenAccept(then);
+	}
+
+	/**
+	 * A name that is being looked up or has been
+	 */
+	private static class Name {
+		private CompletableFuture<String> name = new CompletableFuture<>();
+		private long expires;
+
+		private Name(InetAddress address, long expires){
+			this.expires = expires;
+			Thread.ofVirtual().name("lookup").start(() -> name.complete(address.getHostName()));
+		}
+
+		private boolean expired(long now){
+			return now - expires > 0;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * Card images shared by every card of the client.
+ * The images come from a directory with {@code back.jpg} and faces named {@code 0.jpg}, {@code 1.jpg}...
+ * or from a single sprite sheet of square cells, the back followed by the faces.
+ * Every image is decoded once by {@link #load()} off the event dispatch thread, faces past the last
+ * image are drawn instead. Scaled copies are kept for every size they are shown at and the least
+ * recently used copies are dropped once there are too many.
+ * Apart from {@link #load()} only used on the event dispatch thread
+ */
+public class IconCache {
+	/**
+	 * Default amount of scaled images to keep
+	 */
+	public static final int DEFAULT_MAX_ICONS = 256;
+
+	/**
+	 * The image on the back of every card
+	 */
+	public static final int BACK = -1;
+
+	private static final float GOLDEN_RATIO = 0.618034f;
+
+	private String imagePath;
+	private int maxIcons;
+	private BufferedImage back;
+	private BufferedImage[] faces = new BufferedImage[0];
+	private volatile boolean loaded = false;
+	private Map<Key, ImageIcon> icons = new LinkedHashMap<>(16, 0.75f, true){
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, ImageIcon> eldest){
+			return size() > maxIcons;
+		}
+	};
+
+	/**
+	 * @param imagePath	the directory the images are in or a sprite sheet
+	 */
+	public IconCache(String imagePath){
+		this(imagePath, DEFAULT_MAX_ICONS);
+	}
+
+	/**
+	 * @param imagePath	the directory the images are in or a sprite sheet
+	 * @param maxIcons	the amount of scaled images to keep
+	 */
+	public IconCache(String imagePath, int maxIcons){
+		this.imagePath = imagePath;
+		this.maxIcons = maxIcons;
+	}
+
+	/**
+	 * Decode every image, blocks until they are decoded so it shouldn't be called on the event dispatch thread
+	 * @return this
+	 * @throws IOException if there is no back image or an image can't be decoded
+	 */
+	public IconCache load() throws IOException {
+		File file = new File(imagePath);
+		if(file.isDirectory()){
+			back = read(new File(file, "back.jpg"));
+			List<BufferedImage> images = new ArrayList<>();
+			File face;
+			while((face = new File(file, images.size() + ".jpg")).exists())
+				images.add(read(face));
+			faces = images.toArray(new BufferedImage[0]);
+		} else {
+			BufferedImage sheet = read(file);
+			int size = sheet.getHeight();
+			int cells = sheet.getWidth() / size;
+			if(cells < 1)
+				throw new IOException(imagePath + " is narrower than it is high");
+			back = sheet.getSubimage(0, 0, size, size);
+			faces = new BufferedImage[cells - 1];
+			for(int i = 0; i < faces.length; i++)
+				faces[i] = sheet.getSubimage((i + 1) * size, 0, size, size);
+		}
+		loaded = true;
+		return this;
+	}
+
+	/**
+	 * @return true once the images have been decoded
+	 */
+	public boolean isLoaded(){
+		return loaded;
+	}
+
+	/**
+	 * @return the amount of faces that have an image
+	 */
+	public int getNumOfFaces(){
+		return faces.length;
+	}
+
+	/**
+	 * @param face		the value of a card or {@link #BACK}
+	 * @param width		the width to show the image at
+	 * @param height	the height to show the image at
+	 * @return the image at the size or null if the images aren't loaded or the size is empty
+	 */
+	public ImageIcon get(int face, int width, int height){
+		if(!loaded || width <= 0 || height <= 0)
+			return null;
+
+		Key key = new Key(face, width, height);
+		ImageIcon icon = icons.get(key);
+		if(icon == null){
+			if(face == BACK)
+				icon = new ImageIcon(scale(back, width, height));
+			else if(face < faces.length)
+				icon = new ImageIcon(scale(faces[face], width, height));
+			else
+				icon = new ImageIcon(draw(face, width, height));
+			icons.put(key, icon);
+		}
+		return icon;
+	}
+
+	/**
+	 * @param file	an image file
+	 * @return the decoded image
+	 * @throws IOException
+	 */
+	private static BufferedImage read(File file) throws IOException {
+		BufferedImage image = ImageIO.read(file);
+		if(image == null)
+			throw new IOException("can't read " + file);
+		return image;
+	}
+
+	/**
+	 * @param source	the image to scale
+	 * @param width		the width of the scaled image
+	 * @param height	the height of the scaled image
+	 * @return a copy of the image drawn at the size
+	 */
+	private static BufferedImage scale(Image source, int width, int height){
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(source, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * Draw a face for a value that has no image.
+	 * The shape and colour come from the value and the value is written on top,
+	 * so no two values look the same
+	 * @param value		the value of the card
+	 * @param width		the width of the face
+	 * @param height	the height of the face
+	 * @return the face
+	 */
+	private static BufferedImage draw(int value, int width, int height){
+		BufferedImage face = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = face.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+
+		int size = Math.min(width, height) * 3 / 4;
+		int x = (width - size) / 2;
+		int y = (height - size) / 2;
+		g.setColor(Color.getHSBColor((value * GOLDEN_RATIO) % 1, 0.6f, 0.9f));
+		switch(value % 4){
+			case 0:
+				g.fillOval(x, y, size, size);
+				break;
+			case 1:
+				g.fillRect(x, y, size, size);
+				break;
+			case 2:
+				g.fillPolygon(new int[]{x, x + size / 2, x + size}, new int[]{y + size, y, y + size}, 3);
+				break;
+			default:
+				g.fillPolygon(new int[]{x, x + size / 2, x + size, x + size / 2}, new int[]{y + size / 2, y, y + size / 2, y + size}, 4);
+				break;
+		}
+
+		String text = String.valueOf(value);
+		g.setColor(Color.BLACK);
+		g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(1, size / (text.length() + 1))));
+		FontMetrics metrics = g.getFontMetrics();
+		g.drawString(text, (width - metrics.stringWidth(text)) / 2, (height - metrics.getHeight()) / 2 + metrics.getAscent());
+		g.dispose();
+		return face;
+	}
+
+	/**
+	 * An image at a size
+	 */
+	private record Key(int face, int width, int height){}
+}
@@ -0,0 +1,98 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in the style of HdrHistogram.
+ * Values below 128 have their own bucket, larger values share buckets
+ * that are at most 1/64th of their value wide, so percentiles are within 2%
+ * no matter how large the values get. Recording never locks and can be
+ * done from any number of threads
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 128;
+	private static final int HALF = SUB_BUCKETS / 2;
+
+	private AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (Long.SIZE - 7) * HALF);
+	private LongAdder total = new LongAdder();
+	private AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value	the value to record, negative values are recorded as 0
+	 */
+	public void record(long value){
+		if(value < 0)
+			value = 0;
+		counts.incrementAndGet(index(value));
+		total.add(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * @return the amount of values recorded
+	 */
+	public long count(){
+		long count = 0;
+		for(int i = 0; i < counts.length(); i++)
+			count += counts.get(i);
+		return count;
+	}
+
+	/**
+	 * @return the largest value recorded
+	 */
+	public long max(){
+		return max.get();
+	}
+
+	/**
+	 * @return the average of the values recorded
+	 */
+	public double mean(){
+		long count = count();
+		return count == 0 ? 0 : (double) total.sum() / count;
+	}
+
+	/**
+	 * @param percentile	the percentile between 0 and 100
+	 * @return the highest value in the bucket the percentile falls into,
+	 * never more than the largest value recorded
+	 */
+	public long percentile(double percentile){
+		long count = count();
+		if(count == 0)
+			return 0;
+
+		long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++){
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min(value(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * @param value	a value
+	 * @return the bucket the value is counted in
+	 */
+	static int index(long value){
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - 6;
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * @param index	a bucket
+	 * @return the highest value counted in the bucket
+	 */
+	static long value(int index){
+		if(index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
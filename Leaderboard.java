@@ -0,0 +1,458 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The games, wins and points of every player across games, ranked by wins and then points.
+ * Game threads only copy their results into a bounded ring buffer, a single writer thread
+ * appends them to a log in batches with one fsync per batch and then applies them,
+ * so what is ranked is always what is on disk.
+ * Standings are kept in a skip list, moving a player after a game and reading the top of the
+ * leaderboard take O(log n) and readers never lock.
+ * Every {@link #DEFAULT_SNAPSHOT_INTERVAL} results every standing is written to a snapshot and the
+ * log starts over, a restart reads the snapshot and only the results logged after it
+ */
+public class Leaderboard implements Runnable {
+	/**
+	 * Default amount of results the buffer can hold, must be a power of 2
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * Default amount of results logged before the standings are written to a snapshot
+	 */
+	public static final int DEFAULT_SNAPSHOT_INTERVAL = 1_000_000;
+
+	/**
+	 * The most results written with one fsync
+	 */
+	public static final int MAX_BATCH = 1024;
+
+	private static final int MAGIC = 0x434c4244;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RESULT_SIZE = 13;
+	private static final int STANDING_SIZE = 32;
+	private static final String LOG = "leaderboard.log";
+	private static final String SNAPSHOT = "leaderboard.snapshot";
+
+	private Path directory;
+	private int snapshotInterval;
+	private FileChannel log;
+	//a snapshot holds every result logged in the generations before its own
+	private long generation = 0;
+	private long logged = 0;
+	private ByteBuffer batch = ByteBuffer.allocateDirect(MAX_BATCH * RESULT_SIZE);
+
+	private ConcurrentHashMap<Long, Standing> standings = new ConcurrentHashMap<>();
+	private ConcurrentSkipListSet<Standing> ranking = new ConcurrentSkipListSet<>();
+
+	private Result[] results;
+	private int mask;
+	private AtomicLong head = new AtomicLong();
+	private long tail = 0;
+
+	private volatile boolean running = true;
+	private Thread writer;
+	private GameLog gameLog;
+
+	/**
+	 * Open the leaderboard in a directory and load the standings kept in it
+	 * @param directory	the directory the log and snapshot are kept in
+	 * @param gameLog	the log failed writes are output to
+	 * @throws IOException
+	 */
+	public Leaderboard(String directory, GameLog gameLog) throws IOException {
+		this(directory, gameLog, DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Open the leaderboard in a directory and load the standings kept in it
+	 * @param directory			the directory the log and snapshot are kept in
+	 * @param gameLog			the log failed writes are output to
+	 * @param snapshotInterval	the amount of results logged before the standings are written to a snapshot
+	 * @param capacity			the amount of results the buffer can hold, rounded up to a power of 2
+	 * @throws IOException
+	 */
+	public Leaderboard(String directory, GameLog gameLog, int snapshotInterval, int capacity) throws IOException {
+		this.directory = Paths.get(directory);
+		this.gameLog = gameLog;
+		this.snapshotInterval = snapshotInterval;
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		results = new Result[size];
+		mask = size - 1;
+		for(int i = 0; i < size; i++)
+			results[i] = new Result(i);
+
+		Files.createDirectories(this.directory);
+		readSnapshot();
+		readLog();
+	}
+
+	/**
+	 * Start the writer thread
+	 * @return this leaderboard
+	 */
+	public Leaderboard start(){
+		writer = new Thread(this, "leaderboard");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+		return this;
+	}
+
+	/**
+	 * Record the result of a game for every player that said who it is.
+	 * If the buffer is full the caller waits for the writer, a result can't be dropped
+	 * @param ids		the id of every player, 0 for players that didn't say who they are
+	 * @param points	the points of every player
+	 * @param winner	the player that won
+	 */
+	public void record(long[] ids, int[] points, int winner){
+		for(int i = 0; i < ids.length; i++)
+			if(ids[i] != 0)
+				append(ids[i], points[i], i == winner);
+	}
+
+	/**
+	 * @param n	the amount of players
+	 * @return the best n players, best first
+	 */
+	public List<Standing> top(int n){
+		List<Standing> top = new ArrayList<>(Math.min(n, 1024));
+		for(Standing standing : ranking){
+			if(top.size() == n)
+				break;
+			top.add(standing);
+		}
+		return top;
+	}
+
+	/**
+	 * @param id	the id of a player
+	 * @return the standing of the player or null if it hasn't finished a game
+	 */
+	public Standing get(long id){
+		return standings.get(id);
+	}
+
+	/**
+	 * @return the amount of players that have finished a game
+	 */
+	public int size(){
+		return standings.size();
+	}
+
+	/**
+	 * Queue a result, claiming a slot works like {@link GameJournal}
+	 * @param id		the id of the player
+	 * @param points	the points the player made
+	 * @param won		true if the player won
+	 */
+	private void append(long id, int points, boolean won){
+		long position = head.get();
+		Result result;
+		while(true){
+			result = results[(int) position & mask];
+			long difference = result.sequence - position;
+			if(difference == 0){
+				if(head.compareAndSet(position, position + 1))
+					break;
+			} else if(difference < 0){
+				LockSupport.parkNanos(10_000L);
+			}
+			position = head.get();
+		}
+
+		result.id = id;
+		result.points = points;
+		result.won = won;
+		result.sequence = position + 1;
+	}
+
+	public void run(){
+		int idle = 0;
+		while(running){
+			try {
+				if(drain() > 0)
+					idle = 0;
+				else
+					LockSupport.parkNanos(idle < 7 ? 100_000L << idle++ : 10_000_000L);
+			} catch(IOException e){
+				error(e);
+				LockSupport.parkNanos(100_000_000L);
+			}
+		}
+		try {
+			drain();
+		} catch(IOException e){
+			error(e);
+		}
+	}
+
+	/**
+	 * log every queued result in batches, each batch is forced to disk once and then applied.
+	 * Only called by the writer thread
+	 * @return the amount of results that were logged
+	 * @throws IOException
+	 */
+	int drain() throws IOException {
+		int total = 0;
+		int count;
+		do {
+			count = 0;
+			batch.clear();
+			Result result;
+			while(count < MAX_BATCH && (result = results[(int) tail & mask]).sequence == tail + 1){
+				batch.putLong(result.id).putInt(result.points).put((byte) (result.won ? 1 : 0));
+				result.sequence = tail + results.length;
+				tail++;
+				count++;
+			}
+			if(count == 0)
+				break;
+
+			batch.flip();
+			while(batch.hasRemaining())
+				log.write(batch);
+			log.force(false);
+			batch.flip();
+			for(int i = 0; i < count; i++)
+				apply(batch.getLong(), batch.getInt(), batch.get() != 0);
+			logged += count;
+			total += count;
+			if(logged >= snapshotInterval)
+				snapshot();
+		} while(count == MAX_BATCH);
+		return total;
+	}
+
+	/**
+	 * move a player to its new place after a game. A reader that looks at the player
+	 * while it is being moved may miss it in the ranking, never in {@link #get(long)}
+	 * @param id		the id of the player
+	 * @param points	the points the player made
+	 * @param won		true if the player won
+	 */
+	private void apply(long id, int points, boolean won){
+		Standing old = standings.get(id);
+		Standing next = old == null ? new Standing(id, 1, won ? 1 : 0, points) : old.add(points, won);
+		standings.put(id, next);
+		if(old != null)
+			ranking.remove(old);
+		ranking.add(next);
+	}
+
+	/**
+	 * write every standing to a new snapshot in the order they are ranked and start the log over.
+	 * A crash before the log has started over leaves a log of an older generation, which is skipped
+	 * @throws IOException
+	 */
+	private void snapshot() throws IOException {
+		long next = generation + 1;
+		Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+		try(FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+			buffer.putInt(MAGIC).putInt(VERSION).putLong(next);
+			for(Standing standing : ranking){
+				if(buffer.remaining() < STANDING_SIZE){
+					write(out, buffer.flip());
+					buffer.clear();
+				}
+				buffer.putLong(standing.id).putLong(standing.games).putLong(standing.wins).putLong(standing.points);
+			}
+			write(out, buffer.flip());
+			out.force(true);
+		}
+		Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		generation = next;
+		log.truncate(0);
+		log.position(0);
+		write(log, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(generation).flip());
+		log.force(true);
+		logged = 0;
+	}
+
+	/**
+	 * load the standings of the last snapshot, they are in the order they are ranked
+	 * @throws IOException
+	 */
+	private void readSnapshot() throws IOException {
+		Path path = directory.resolve(SNAPSHOT);
+		if(!Files.exists(path))
+			return;
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+		if(bytes.remaining() < HEADER_SIZE || bytes.getInt() != MAGIC || bytes.getInt() != VERSION)
+			throw new IOException(path + " is not a leaderboard snapshot");
+		generation = bytes.getLong();
+		while(bytes.remaining() >= STANDING_SIZE){
+			Standing standing = new Standing(bytes.getLong(), bytes.getLong(), bytes.getLong(), bytes.getLong());
+			standings.put(standing.id, standing);
+			ranking.add(standing);
+		}
+	}
+
+	/**
+	 * apply the results logged since the last snapshot and open the log to append to.
+	 * A log of an older generation was already in the snapshot and is started over,
+	 * a result cut short by a crash is cut off so new results line up
+	 * @throws IOException
+	 */
+	private void readLog() throws IOException {
+		Path path = directory.resolve(LOG);
+		log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+		if(bytes.remaining() >= HEADER_SIZE){
+			if(bytes.getInt() != MAGIC || bytes.getInt() != VERSION)
+				throw new IOException(path + " is not a leaderboard log");
+			if(bytes.getLong() >= generation){
+				while(bytes.remaining() >= RESULT_SIZE){
+					apply(bytes.getLong(), bytes.getInt(), bytes.get() != 0);
+					logged++;
+				}
+				log.truncate(HEADER_SIZE + logged * RESULT_SIZE);
+				log.position(log.size());
+				return;
+			}
+		}
+		log.truncate(0);
+		write(log, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(generation).flip());
+		log.force(true);
+	}
+
+	/**
+	 * @param channel	the file to write to
+	 * @param buffer	the bytes to write
+	 * @throws IOException
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * wait for the writer to log everything that is queued and close the log
+	 */
+	public void close(){
+		if(!running)
+			return;
+		running = false;
+		if(writer != null){
+			LockSupport.unpark(writer);
+			try {
+				writer.join();
+			} catch(InterruptedException e){
+				//the writer may still be writing, it keeps the file open
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		try {
+			log.close();
+		} catch(IOException e){
+			error(e);
+		}
+	}
+
+	/**
+	 * output a failed write to the server log
+	 * @param e	what went wrong
+	 */
+	private void error(IOException e){
+		gameLog.log(GameLog.ERROR, GameLog.NO_GAME, "LEADERBOARD: %s", e.getMessage());
+	}
+
+	/**
+	 * What a player has done across games, replaced as a whole after every game
+	 * so a reader always sees a standing that adds up
+	 */
+	public static class Standing implements Comparable<Standing> {
+		private long id;
+		private long games;
+		private long wins;
+		private long points;
+
+		Standing(long id, long games, long wins, long points){
+			this.id = id;
+			this.games = games;
+			this.wins = wins;
+			this.points = points;
+		}
+
+		/**
+		 * @param points	the points made in a game
+		 * @param won		true if the game was won
+		 * @return the standing after the game
+		 */
+		private Standing add(int points, boolean won){
+			return new Standing(id, games + 1, wins + (won ? 1 : 0), this.points + points);
+		}
+
+		/**
+		 * Most wins first, then most points, then fewest games, ties are broken by id
+		 */
+		public int compareTo(Standing other){
+			if(wins != other.wins)
+				return Long.compare(other.wins, wins);
+			if(points != other.points)
+				return Long.compare(other.points, points);
+			if(games != other.games)
+				return Long.compare(games, other.games);
+			return Long.compare(id, other.id);
+		}
+
+		/**
+		 * @return the id of the player
+		 */
+		public long getId(){
+			return id;
+		}
+
+		/**
+		 * @return the amount of games the player finished
+		 */
+		public long getGames(){
+			return games;
+		}
+
+		/**
+		 * @return the amount of games the player won
+		 */
+		public long getWins(){
+			return wins;
+		}
+
+		/**
+		 * @return the points the player made in every game
+		 */
+		public long getPoints(){
+			return points;
+		}
+	}
+
+	/**
+	 * A slot in the ring buffer
+	 */
+	private static class Result {
+		private volatile long sequence;
+		private long id;
+		private int points;
+		private boolean won;
+
+		Result(long sequence){
+			this.sequence = sequence;
+		}
+	}
+}
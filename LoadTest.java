@@ -0,0 +1,470 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A headless load generator for the game server.
+ * Every bot is a virtual thread that plays games over the same protocol as {@link Player},
+ * picking random cards and quitting at the given rates, and starts a new game as soon as one ends.
+ * Reports the time from sending {@code RECEIVE} to getting its {@code REVEAL},
+ * the time between turns, finished games per second, connection errors
+ * and the bytes and commands every game takes in the version of the protocol the bots speak
+ */
+public class LoadTest implements GameConstants {
+	private static final String SERVER = "-server";
+	private static final String BOTS = "-bots";
+	private static final String PLAYERS = "-players";
+	private static final String WIDTH = "-width";
+	private static final String HEIGHT = "-height";
+	private static final String THINK = "-think";
+	private static final String QUIT_RATE = "-quit";
+	private static final String DURATION = "-duration";
+	private static final String RAMP = "-ramp";
+	private static final String PROTOCOL = "-protocol";
+	private static final String HELP = "-help";
+
+	/**
+	 * How long a bot waits before connecting again after an error in ms
+	 */
+	public static final int RETRY_DELAY = 100;
+
+	private String serverHost;
+	private int numOfBots;
+	private int players;
+	private int gameWidth;
+	private int gameHeight;
+	private int thinkTime;
+	private double quitRate;
+	private int duration;
+	private int rampTime;
+	private int version;
+	private volatile boolean running = true;
+
+	private LatencyHistogram revealLatency = new LatencyHistogram();
+	private LatencyHistogram turnLatency = new LatencyHistogram();
+	private LongAdder games = new LongAdder();
+	private LongAdder quits = new LongAdder();
+	private LongAdder connections = new LongAdder();
+	private LongAdder errors = new LongAdder();
+	private LongAdder upgraded = new LongAdder();
+	private LongAdder bytesIn = new LongAdder();
+	private LongAdder bytesOut = new LongAdder();
+	private LongAdder frames = new LongAdder();
+
+	/**
+	 * Run bots against a server
+	 * <ul>
+	 * 	<li>{@code -server host: the server to connect to, defaults to localhost}</li>
+	 *  <li>{@code -bots n: the amount of bots}</li>
+	 *  <li>{@code -players n: the amount of players the bots ask for, 0 for the server's default}</li>
+	 *  <li>{@code -width n: the board width the bots ask for, 0 for the server's default}</li>
+	 *  <li>{@code -height n: the board height the bots ask for, 0 for the server's default}</li>
+	 *  <li>{@code -think ms: how long a bot waits before picking a card}</li>
+	 *  <li>{@code -quit p: the chance a bot quits when it gets a turn}</li>
+	 *  <li>{@code -duration s: how long the test runs for}</li>
+	 *  <li>{@code -ramp ms: how long it takes to start every bot}</li>
+	 *  <li>{@code -protocol v: the version of the protocol the bots ask for}</li>
+	 *  <li>{@code -help: show help information}</li>
+	 * </ul>
+	 * @param args	command line arguments
+	 */
+	public static void main(String[] args){
+		String serverHost = "localhost";
+		int numOfBots = 100;
+		int players = 0;
+		int gameWidth = 0;
+		int gameHeight = 0;
+		int thinkTime = 0;
+		double quitRate = 0;
+		int duration = 30;
+		int rampTime = 1000;
+		int version = Protocol.LATEST;
+
+		boolean help = false;
+
+		int i = 0;
+		try {
+			while(i < args.length){
+				if(args[i].equals(SERVER)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					serverHost = args[i];
+				}
+				else if(args[i].equals(BOTS)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					numOfBots = Math.max(1, Integer.parseInt(args[i]));
+				}
+				else if(args[i].equals(PLAYERS)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					players = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(WIDTH)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					gameWidth = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(HEIGHT)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					gameHeight = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(THINK)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					thinkTime = Math.max(0, Integer.parseInt(args[i]));
+				}
+				else if(args[i].equals(QUIT_RATE)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					quitRate = Double.parseDouble(args[i]);
+				}
+				else if(args[i].equals(DURATION)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					duration = Math.max(1, Integer.parseInt(args[i]));
+				}
+				else if(args[i].equals(RAMP)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					rampTime = Math.max(0, Integer.parseInt(args[i]));
+				}
+				else if(args[i].equals(PROTOCOL)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					version = Math.min(Math.max(Integer.parseInt(args[i]), Protocol.V1), Protocol.LATEST);
+				}
+				else {
+					help = true;
+					break;
+				}
+				i++;
+			}
+		} catch(NumberFormatException e){
+			help = true;
+		}
+
+		if(help){
+			logHelp();
+			return;
+		}
+
+		new LoadTest(serverHost, numOfBots, players, gameWidth, gameHeight, thinkTime, quitRate, duration, rampTime, version).run();
+		System.exit(0);
+	}
+
+	/**
+	 * @param arg	a command line argument
+	 * @return true if the argument is one of the load test options
+	 */
+	private static boolean isOption(String arg){
+		return arg.equals(SERVER) || arg.equals(BOTS) || arg.equals(PLAYERS) || arg.equals(WIDTH) || arg.equals(HEIGHT)
+			|| arg.equals(THINK) || arg.equals(QUIT_RATE) || arg.equals(DURATION) || arg.equals(RAMP) || arg.equals(PROTOCOL) || arg.equals(HELP);
+	}
+
+	/**
+	 * @param serverHost	the server to connect to
+	 * @param numOfBots		the amount of bots
+	 * @param players		the amount of players the bots ask for, 0 for the server's default
+	 * @param gameWidth		the board width the bots ask for, 0 for the server's default
+	 * @param gameHeight	the board height the bots ask for, 0 for the server's default
+	 * @param thinkTime		how long a bot waits before picking a card in ms
+	 * @param quitRate		the chance a bot quits when it gets a turn
+	 * @param duration		how long the test runs for in seconds
+	 * @param rampTime		how long it takes to start every bot in ms
+	 * @param version		the version of the protocol the bots ask for
+	 */
+	public LoadTest(String serverHost, int numOfBots, int players, int gameWidth, int gameHeight, int thinkTime, double quitRate, int duration, int rampTime, int version){
+		this.serverHost = serverHost;
+		this.numOfBots = numOfBots;
+		this.players = players;
+		this.gameWidth = gameWidth;
+		this.gameHeight = gameHeight;
+		this.thinkTime = thinkTime;
+		this.quitRate = quitRate;
+		this.duration = duration;
+		this.rampTime = rampTime;
+		this.version = version;
+	}
+
+	/**
+	 * Start the bots, report every second and report the totals once the test is over
+	 */
+	public void run(){
+		log("%d bots against %s:%d for %ds, asking for version %d", numOfBots, serverHost, PORT, duration, version);
+		long start = System.nanoTime();
+		Thread.ofVirtual().name("bots").start(() -> {
+			for(int i = 0; i < numOfBots && running; i++){
+				Thread.ofVirtual().name("bot-" + i).start(this::bot);
+				if(rampTime > 0)
+					sleep(rampTime * (i + 1L) / numOfBots - rampTime * (long) i / numOfBots);
+			}
+		});
+
+		long lastGames = 0;
+		long lastFrames = 0;
+		for(int second = 1; second <= duration; second++){
+			sleep(start / 1_000_000 + second * 1000L - System.nanoTime() / 1_000_000);
+			long finished = games.sum();
+			long received = frames.sum();
+			log("%3ds: %d games/s, %d frames/s, %d connections, %d errors, RECEIVE->REVEAL p99 %.2fms", second, finished - lastGames,
+				received - lastFrames, connections.sum(), errors.sum(), revealLatency.percentile(99) / 1e6);
+			lastGames = finished;
+			lastFrames = received;
+		}
+		running = false;
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		log("%ngames: %d (%.1f/s), quit: %d, connections: %d, errors: %d", games.sum(), games.sum() / seconds, quits.sum(), connections.sum(), errors.sum());
+		long played = Math.max(1, games.sum());
+		log("protocol: version %d on %d of %d connections, %.0f bytes in and %.0f bytes out per game, %.0f frames/s",
+			upgraded.sum() > 0 ? version : Protocol.V1, upgraded.sum(), connections.sum(),
+			bytesIn.sum() / (double) played, bytesOut.sum() / (double) played, frames.sum() / seconds);
+		report("RECEIVE->REVEAL", revealLatency);
+		report("SETTURN->SETTURN", turnLatency);
+	}
+
+	/**
+	 * Play games until the test is over, every game under the same player id
+	 */
+	private void bot(){
+		long id = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE | 1;
+		while(running){
+			try(Socket socket = new Socket(serverHost, PORT)){
+				socket.setTcpNoDelay(true);
+				connections.increment();
+				play(socket, id);
+			} catch(IOException e){
+				if(running){
+					errors.increment();
+					sleep(RETRY_DELAY);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ask for a game and play it until the server says it's done.
+	 * The connection speaks version 1 until the server answers {@code VERSION}
+	 * @param socket	the connection to the server
+	 * @param id		the id the bot's results are kept under
+	 * @throws IOException
+	 */
+	private void play(Socket socket, long id) throws IOException {
+		DataInputStream fromServer = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream toServer = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		//bytes are only counted once the game is done so games cut off by the end of the test don't count
+		long received = 0;
+		long written = 16;
+		if(version > Protocol.V1){
+			toServer.writeInt(VERSION);
+			toServer.writeInt(version);
+			written += 8;
+		}
+		toServer.writeInt(PLAYER);
+		toServer.writeInt((int) (id >>> 32));
+		toServer.writeInt((int) id);
+		written += 12;
+		toServer.writeInt(JOIN);
+		toServer.writeInt(players);
+		toServer.writeInt(gameWidth);
+		toServer.writeInt(gameHeight);
+		toServer.flush();
+
+		Protocol protocol = new Protocol(Protocol.V1);
+		int[] command = new int[Protocol.MAX_ARGS + 1];
+
+		int me = -1;
+		boolean[] shown = new boolean[0];
+		boolean quit = false;
+		int picked = -1;
+		int picks = 0;
+		long sent = 0;
+		long lastTurn = 0;
+
+		while(true){
+			received += protocol.read(fromServer, command);
+			frames.increment();
+			int cmd = command[0];
+			switch(cmd){
+				case VERSION:
+					protocol = new Protocol(command[1]);
+					if(command[1] > Protocol.V1)
+						upgraded.increment();
+					break;
+				case INIT:
+					me = command[1];
+					shown = new boolean[command[2] * command[3]];
+					break;
+				case SETTURN:
+					int player = command[1];
+					long now = System.nanoTime();
+					//only the first player records turns so each turn is counted once
+					if(me == 0 && lastTurn != 0)
+						turnLatency.record(now - lastTurn);
+					lastTurn = now;
+					if(player != me)
+						break;
+					if(ThreadLocalRandom.current().nextDouble() < quitRate){
+						quit = true;
+						protocol.write(toServer, QUIT, me);
+						toServer.flush();
+						written += Protocol.size(protocol.getVersion(), QUIT, me);
+						break;
+					}
+					picks = 0;
+					picked = pick(shown);
+					sent = send(toServer, protocol, picked);
+					written += Protocol.size(protocol.getVersion(), RECEIVE, picked);
+					break;
+				case REVEAL:
+					int card = command[1];
+					shown[card] = true;
+					if(card != picked)
+						break;
+					revealLatency.record(System.nanoTime() - sent);
+					picked = -1;
+					if(++picks == 1){
+						picked = pick(shown);
+						sent = send(toServer, protocol, picked);
+						written += Protocol.size(protocol.getVersion(), RECEIVE, picked);
+					}
+					break;
+				case WAIT:
+				case MATCH:
+				case WIN:
+				case SESSION:
+					break;
+				case HIDE:
+					shown[command[1]] = false;
+					shown[command[2]] = false;
+					break;
+				case DONE:
+					bytesIn.add(received);
+					bytesOut.add(written);
+					if(me == 0)
+						games.increment();
+					if(quit)
+						quits.increment();
+					return;
+				default:
+					throw new IOException("unexpected command " + cmd);
+			}
+		}
+	}
+
+	/**
+	 * wait the think time and pick a card that isn't shown
+	 * @param shown	the cards that are face up
+	 * @return the card to pick
+	 */
+	private int pick(boolean[] shown){
+		if(thinkTime > 0)
+			sleep(thinkTime);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int card;
+		do {
+			card = random.nextInt(shown.length);
+		} while(shown[card]);
+		return card;
+	}
+
+	/**
+	 * @param toServer	the stream to the server
+	 * @param protocol	the version of the protocol the connection speaks
+	 * @param card		the card to pick
+	 * @return when the card was sent
+	 * @throws IOException
+	 */
+	private static long send(DataOutputStream toServer, Protocol protocol, int card) throws IOException {
+		protocol.write(toServer, RECEIVE, card);
+		long sent = System.nanoTime();
+		toServer.flush();
+		return sent;
+	}
+
+	/**
+	 * output the percentiles of a histogram
+	 * @param name		what was measured
+	 * @param latency	the measured latencies in ns
+	 */
+	private static void report(String name, LatencyHistogram latency){
+		log("%-17s count: %d, mean: %.2fms, p50: %.2fms, p99: %.2fms, p999: %.2fms, max: %.2fms", name, latency.count(), latency.mean() / 1e6,
+			latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.percentile(99.9) / 1e6, latency.max() / 1e6);
+	}
+
+	/**
+	 * sleep without being interrupted
+	 * @param ms	the amount of milliseconds to sleep, nothing happens if it isn't positive
+	 */
+	private static void sleep(long ms){
+		if(ms <= 0)
+			return;
+		try {
+			Thread.sleep(ms);
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * output help to the console
+	 */
+	public static void logHelp(){
+		System.out.println("A headless load generator that plays memory games against a server\n");
+		System.out.println("java LoadTest [" + SERVER + " <server address>] [" + BOTS + " <bots>] [" + PLAYERS + " <players>] [" + WIDTH + " <width>] [" + HEIGHT + " <height>] ["
+			+ THINK + " <ms>] [" + QUIT_RATE + " <chance>] [" + DURATION + " <seconds>] [" + RAMP + " <ms>] [" + PROTOCOL + " <version>] [" + HELP + "]\n");
+		System.out.println("\t" + SERVER + "\t\tThe server address to connect to, defaults to localhost");
+		System.out.println("\t" + BOTS + "\t\tThe amount of bots, defaults to 100");
+		System.out.println("\t" + PLAYERS + "\tThe amount of players the bots ask for, the server decides if left out");
+		System.out.println("\t" + WIDTH + "\t\tThe width of the game board, the server decides if left out");
+		System.out.println("\t" + HEIGHT + "\t\tThe height of the game board, the server decides if left out");
+		System.out.println("\t" + THINK + "\t\tHow many milliseconds a bot waits before picking a card, defaults to 0");
+		System.out.println("\t" + QUIT_RATE + "\t\tThe chance a bot quits when it gets a turn, from 0 to 1, defaults to 0");
+		System.out.println("\t" + DURATION + "\tHow many seconds the test runs for, defaults to 30");
+		System.out.println("\t" + RAMP + "\t\tHow many milliseconds it takes to start every bot, defaults to 1000");
+		System.out.println("\t" + PROTOCOL + "\tThe version of the protocol the bots ask for, 1 or 2, defaults to " + Protocol.LATEST);
+		System.out.println("\t" + HELP + "\t\tShows this help information");
+	}
+
+	/**
+	 * output log messages to the console
+	 * @param msg	the message to output
+	 * @param vals	values used in place of tokens specified in msg
+	 */
+	private static void log(String msg, Object... vals){
+		System.out.println(String.format(msg, vals));
+	}
+}
@@ -0,0 +1,349 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Players waiting for a game.
+ * Every combination of player count and board size has its own queue,
+ * a game is started as soon as a queue has enough players for it.
+ * Joining and matching never lock, so many handshakes can join at once.
+ * Players that closed their connection while they waited are dropped when they are matched
+ */
+public class Lobby {
+	private ConcurrentHashMap<Long, WaitingQueue> queues = new ConcurrentHashMap<>();
+	private Starter starter;
+	private GameLog gameLog;
+	private GameMetrics metrics;
+
+	/**
+	 * Starts a game for a group of matched players
+	 */
+	public interface Starter {
+
+		/**
+		 * @param players		the players of the game
+		 * @param versions		the version of the protocol every player speaks
+		 * @param ids			the id of every player, 0 for players that didn't send one
+		 * @param gameWidth		the width of the game board
+		 * @param gameHeight	the height of the game board
+		 */
+		void start(SocketChannel[] players, int[] versions, long[] ids, int gameWidth, int gameHeight);
+	}
+
+	/**
+	 * @param gameLog	the servers log
+	 * @param metrics	the metrics the lobby is counted in
+	 * @param starter	starts the games of matched players
+	 */
+	public Lobby(GameLog gameLog, GameMetrics metrics, Starter starter){
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		this.starter = starter;
+	}
+
+	/**
+	 * Add a player to the queue for the game it asked for
+	 * and start a game if the queue has enough players
+	 * @param player		the player's socket
+	 * @param version		the version of the protocol the player speaks
+	 * @param id			the id of the player, 0 if it didn't send one
+	 * @param numOfPlayers	the amount of players in the game
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 */
+	public void join(SocketChannel player, int version, long id, int numOfPlayers, int gameWidth, int gameHeight){
+		WaitingQueue queue = queues.computeIfAbsent(key(numOfPlayers, gameWidth, gameHeight),
+			key -> new WaitingQueue(numOfPlayers, gameWidth, gameHeight));
+		queue.players.add(new Waiting(player, version, id, System.nanoTime()));
+		int depth = queue.depth.incrementAndGet();
+		gameLog.log(GameLog.DEBUG, GameLog.NO_GAME, "LOBBY: %d of %d players waiting for a %dx%d game", depth, numOfPlayers, gameWidth, gameHeight);
+
+		Waiting[] matched;
+		while((matched = queue.match()) != null){
+			SocketChannel[] players = new SocketChannel[matched.length];
+			int[] versions = new int[matched.length];
+			long[] ids = new long[matched.length];
+			for(int i = 0; i < matched.length; i++){
+				players[i] = matched[i].player;
+				versions[i] = matched[i].version;
+				ids[i] = matched[i].id;
+			}
+			starter.start(players, versions, ids, gameWidth, gameHeight);
+		}
+	}
+
+	/**
+	 * @return every queue that has had a player join it
+	 */
+	public Collection<WaitingQueue> queues(){
+		return queues.values();
+	}
+
+	/**
+	 * @return the amount of players waiting in every queue
+	 */
+	public int waiting(){
+		int waiting = 0;
+		for(WaitingQueue queue : queues.values())
+			waiting += queue.depth();
+		return waiting;
+	}
+
+	/**
+	 * @return the amount of games started from every queue
+	 */
+	public long matches(){
+		long matches = 0;
+		for(WaitingQueue queue : queues.values())
+			matches += queue.matches();
+		return matches;
+	}
+
+	/**
+	 * @return the amount of players that left every queue before they were matched
+	 */
+	public long left(){
+		long left = 0;
+		for(WaitingQueue queue : queues.values())
+			left += queue.left();
+		return left;
+	}
+
+	/**
+	 * @return the average time a matched player waited in any queue in ms
+	 */
+	public double averageWait(){
+		long players = 0;
+		double wait = 0;
+		for(WaitingQueue queue : queues.values()){
+			players += queue.matchedPlayers();
+			wait += queue.totalWait();
+		}
+		return players == 0 ? 0 : wait / players;
+	}
+
+	/**
+	 * @return the longest time a matched player waited in any queue in ms
+	 */
+	public double maxWait(){
+		double wait = 0;
+		for(WaitingQueue queue : queues.values())
+			wait = Math.max(wait, queue.maxWait());
+		return wait;
+	}
+
+	/**
+	 * @return a key that identifies the queue of a game
+	 */
+	private static long key(int numOfPlayers, int gameWidth, int gameHeight){
+		return (long) numOfPlayers << 32 | gameWidth << 16 | gameHeight;
+	}
+
+	/**
+	 * A player in a queue, the version of the protocol it speaks, who it is and when it joined
+	 */
+	private static class Waiting {
+		private SocketChannel player;
+		private int version;
+		private long id;
+		private long joined;
+
+		Waiting(SocketChannel player, int version, long id, long joined){
+			this.player = player;
+			this.version = version;
+			this.id = id;
+			this.joined = joined;
+		}
+
+		/**
+		 * Check the connection without blocking. Players don't send anything until they have
+		 * a game, so a player that did is taken as gone too
+		 * @return false if the player closed its connection while it waited
+		 */
+		boolean connected(){
+			try {
+				player.configureBlocking(false);
+				int read = player.read(ByteBuffer.allocate(1));
+				player.configureBlocking(true);
+				return read == 0;
+			} catch(IOException e){
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * The players waiting for one kind of game
+	 */
+	public class WaitingQueue {
+		private int numOfPlayers;
+		private int gameWidth;
+		private int gameHeight;
+
+		private Queue<Waiting> players = new ConcurrentLinkedQueue<>();
+		private AtomicInteger depth = new AtomicInteger();
+		private LongAdder matches = new LongAdder();
+		private LongAdder matchedPlayers = new LongAdder();
+		private LongAdder left = new LongAdder();
+		private LongAdder totalWait = new LongAdder();
+		private AtomicLong maxWait = new AtomicLong();
+
+		WaitingQueue(int numOfPlayers, int gameWidth, int gameHeight){
+			this.numOfPlayers = numOfPlayers;
+			this.gameWidth = gameWidth;
+			this.gameHeight = gameHeight;
+		}
+
+		/**
+		 * Claim enough players for a game. A claim is made by taking the players off the
+		 * depth counter first so every claim is guaranteed to find its players in the queue.
+		 * A player that is gone is replaced by claiming another one, if there is none
+		 * the players that were found go back in the queue
+		 * @return the players of a game or null if there aren't enough players waiting
+		 */
+		private Waiting[] match(){
+			if(!claim(numOfPlayers))
+				return null;
+
+			Waiting[] matched = new Waiting[numOfPlayers];
+			int found = 0;
+			int claimed = numOfPlayers;
+			while(found < numOfPlayers){
+				if(claimed == 0){
+					if(!claim(1)){
+						for(int i = 0; i < found; i++)
+							players.add(matched[i]);
+						depth.addAndGet(found);
+						return null;
+					}
+					claimed = 1;
+				}
+				Waiting player = players.poll();
+				claimed--;
+				if(player.connected())
+					matched[found++] = player;
+				else
+					leave(player);
+			}
+
+			long now = System.nanoTime();
+			long longest = 0;
+			for(Waiting player : matched){
+				long wait = now - player.joined;
+				totalWait.add(wait);
+				longest = Math.max(longest, wait);
+			}
+			maxWait.accumulateAndGet(longest, Math::max);
+			matches.increment();
+			matchedPlayers.add(numOfPlayers);
+			gameLog.log(GameLog.INFO, GameLog.NO_GAME, "LOBBY: matched %d players for a %dx%d game after %dms, %d still waiting",
+				numOfPlayers, gameWidth, gameHeight, longest / 1_000_000, depth.get());
+			return matched;
+		}
+
+		/**
+		 * @param count	the amount of players to take off the depth counter
+		 * @return false if there aren't that many players waiting
+		 */
+		private boolean claim(int count){
+			int waiting;
+			do {
+				waiting = depth.get();
+				if(waiting < count)
+					return false;
+			} while(!depth.compareAndSet(waiting, waiting - count));
+			return true;
+		}
+
+		/**
+		 * Close the connection of a player that left the queue
+		 * @param player	the player
+		 */
+		private void leave(Waiting player){
+			left.increment();
+			metrics.socketClosed();
+			try {
+				player.player.close();
+			} catch(IOException e){}
+			gameLog.log(GameLog.DEBUG, GameLog.NO_GAME, "LOBBY: a player left the queue for a %dx%d game", gameWidth, gameHeight);
+		}
+
+		/**
+		 * @return the amount of players in a game from this queue
+		 */
+		public int getNumOfPlayers(){
+			return numOfPlayers;
+		}
+
+		/**
+		 * @return the width of a game from this queue
+		 */
+		public int getGameWidth(){
+			return gameWidth;
+		}
+
+		/**
+		 * @return the height of a game from this queue
+		 */
+		public int getGameHeight(){
+			return gameHeight;
+		}
+
+		/**
+		 * @return the amount of players waiting
+		 */
+		public int depth(){
+			return depth.get();
+		}
+
+		/**
+		 * @return the amount of games started from this queue
+		 */
+		public long matches(){
+			return matches.sum();
+		}
+
+		/**
+		 * @return the amount of players that left before they were matched
+		 */
+		public long left(){
+			return left.sum();
+		}
+
+		/**
+		 * @return the amount of players that were matched
+		 */
+		public long matchedPlayers(){
+			return matchedPlayers.sum();
+		}
+
+		/**
+		 * @return the time every matched player waited added up in ms
+		 */
+		public double totalWait(){
+			return totalWait.sum() / 1e6;
+		}
+
+		/**
+		 * @return the average time a matched player waited in ms
+		 */
+		public double averageWait(){
+			long players = matchedPlayers.sum();
+			return players == 0 ? 0 : totalWait.sum() / 1e6 / players;
+		}
+
+		/**
+		 * @return the longest time a matched player waited in ms
+		 */
+		public double maxWait(){
+			return maxWait.get() / 1e6;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+/**
+ * Receives batches of formatted log messages from the {@link GameLog} consumer thread
+ */
+public interface LogSink {
+
+	/**
+	 * output a batch of messages
+	 * @param text	one or more lines of formatted messages
+	 */
+	void write(String text);
+
+	/**
+	 * release anything held by the sink
+	 */
+	default void close(){}
+}
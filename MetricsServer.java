@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the server's metrics in the Prometheus text format on {@code /metrics}
+ * and the best players on {@code /leaderboard}.
+ * Only listens on the loopback address
+ */
+public class MetricsServer {
+	/**
+	 * The path the metrics are served on
+	 */
+	public static final String PATH = "/metrics";
+
+	/**
+	 * The path the leaderboard is served on, {@code ?top=n} asks for the best n players
+	 */
+	public static final String LEADERBOARD_PATH = "/leaderboard";
+
+	/**
+	 * Players served when the request doesn't say how many
+	 */
+	public static final int DEFAULT_TOP = 10;
+
+	/**
+	 * Most players served for one request
+	 */
+	public static final int MAX_TOP = 1000;
+
+	private HttpServer server;
+	private GameMetrics metrics;
+	private Leaderboard leaderboard;
+
+	/**
+	 * @param metrics	the metrics to serve
+	 * @param port		the port to listen on
+	 * @throws IOException
+	 */
+	public MetricsServer(GameMetrics metrics, int port) throws IOException {
+		this(metrics, null, port);
+	}
+
+	/**
+	 * @param metrics		the metrics to serve
+	 * @param leaderboard	the leaderboard to serve, null to not serve one
+	 * @param port			the port to listen on
+	 * @throws IOException
+	 */
+	public MetricsServer(GameMetrics metrics, Leaderboard leaderboard, int port) throws IOException {
+		this.metrics = metrics;
+		this.leaderboard = leaderboard;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(PATH, this::handle);
+		if(leaderboard != null)
+			server.createContext(LEADERBOARD_PATH, this::handleLeaderboard);
+	}
+
+	/**
+	 * start serving on a background thread
+	 * @return this
+	 */
+	public MetricsServer start(){
+		server.start();
+		return this;
+	}
+
+	/**
+	 * stop serving
+	 */
+	public void stop(){
+		server.stop(0);
+	}
+
+	/**
+	 * answer a request with the current metrics
+	 * @param exchange	the request
+	 * @throws IOException
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(body);
+		}
+	}
+
+	/**
+	 * answer a request with the best players, one per line
+	 * @param exchange	the request
+	 * @throws IOException
+	 */
+	private void handleLeaderboard(HttpExchange exchange) throws IOException {
+		int top = DEFAULT_TOP;
+		String query = exchange.getRequestURI().getQuery();
+		if(query != null && query.startsWith("top=")){
+			try {
+				top = Math.min(Math.max(Integer.parseInt(query.substring(4)), 1), MAX_TOP);
+			} catch(NumberFormatException e){
+				top = DEFAULT_TOP;
+			}
+		}
+
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("# %d players%n# rank id games wins points%n", leaderboard.size()));
+		int rank = 1;
+		for(Leaderboard.Standing standing : leaderboard.top(top))
+			text.append(String.format("%d %d %d %d %d%n", rank++, standing.getId(), standing.getGames(), standing.getWins(), standing.getPoints()));
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,917 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A game driven by a {@link GameLoop} instead of its own thread.
+ * It speaks the same protocol as {@link GameService} but never blocks on a socket,
+ * commands are parsed from whatever bytes are available and replies are queued
+ * until the player's socket can take them
+ */
+public class NioGameService implements GameConstants, Resumable, Watchable {
+	/**
+	 * Size of the buffer used to read commands from a player
+	 */
+	public static final int READ_BUFFER_SIZE = 64;
+
+	/**
+	 * Initial size of the buffer used to queue commands for a player
+	 */
+	public static final int WRITE_BUFFER_SIZE = 256;
+
+	private Client[] clients;
+	//the last command read, followed by its arguments
+	private int[] command = new int[Protocol.MAX_ARGS + 1];
+	private Broadcast toClients;
+	private GameLog gameLog;
+	private GameMetrics metrics;
+	private GameJournal journal;
+	private Leaderboard leaderboard;
+	private Sessions sessions;
+	private Audience.Feed feed;
+	private ScheduledExecutorService scheduler;
+	private Deadlines deadlines;
+	private volatile GameLoop loop;
+
+	private int gameNumber;
+	private int gameWidth;
+	private int gameHeight;
+	private int sleepTime;
+	private int rate;
+
+	private long turnStarted = 0;
+	//how many turns have been given, a turn deadline only counts for the turn it was set for
+	private int turns = 0;
+	private Deadlines.Timeout turnDeadline;
+	private long seed;
+	private Rules rules;
+	//flight recorder events that are still going, null while they aren't recorded
+	private GameEvents.Game gameEvent;
+	private GameEvents.Turn turnEvent;
+	private GameEvents.Hide hideEvent;
+	private GameEvents.Started startedEvent;
+	private boolean hiding = false;
+	private boolean replaying = false;
+	private boolean recovered = false;
+
+	private long[] tokens;
+	//who every player is across games, 0 for players that didn't say
+	private long[] ids;
+	private volatile boolean done = false;
+	private boolean ended = false;
+
+	/**
+	 * Construct a game service for the clients
+	 * @param channels		The clients to handle
+	 * @param versions		The version of the protocol every client speaks
+	 * @param ids			The id of every client, 0 for clients that didn't send one
+	 * @param gameNumber	The number of this game
+	 * @param gameLog		The servers log
+	 * @param metrics		The servers metrics
+	 * @param gameWidth		The width of the game
+	 * @param gameHeight	The height of the game
+	 * @param sleepTime		The amount of ms a mismatched pair is shown for
+	 * @param scheduler		The scheduler that hides mismatched pairs
+	 * @param deadlines		The deadlines of turns and connections
+	 * @param rate			The amount of commands a player can send per second, 0 for no limit
+	 * @param seed			The seed the board is shuffled with
+	 * @param journal		The journal the game is recorded in, null if games aren't recorded
+	 * @param leaderboard	The leaderboard the result is recorded on, null if results aren't recorded
+	 * @param sessions		The seats players can take again after losing their connection
+	 * @param audience		The spectators of every game
+	 */
+	public NioGameService(SocketChannel[] channels, int[] versions, long[] ids, int gameNumber, GameLog gameLog, GameMetrics metrics, int gameWidth, int gameHeight, int sleepTime, ScheduledExecutorService scheduler, Deadlines deadlines, int rate, long seed, GameJournal journal, Leaderboard leaderboard, Sessions sessions, Audience audience){
+		startedEvent = GameEvents.started();
+		gameEvent = GameEvents.game();
+		this.gameNumber = gameNumber;
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		this.toClients = new Broadcast(metrics);
+		this.sleepTime = sleepTime;
+		this.scheduler = scheduler;
+		this.deadlines = deadlines;
+		this.rate = rate;
+		this.seed = seed;
+		this.ids = ids;
+		this.journal = journal;
+		this.leaderboard = leaderboard;
+		this.sessions = sessions;
+		this.feed = audience.open(gameNumber, this);
+		this.gameWidth = gameWidth;
+		this.gameHeight = gameHeight;
+
+		boolean winnableGame = (gameWidth * gameHeight) % 2 == 0;
+		if(!winnableGame){
+			this.gameWidth = GameService.MIN_GAME_SIZE;
+			this.gameHeight = GameService.MIN_GAME_SIZE;
+		}
+
+		clients = new Client[channels.length];
+		for(int i = 0; i < channels.length; i++){
+			clients[i] = new Client(i, channels[i], versions[i]);
+			toClients.version(i, versions[i]);
+		}
+		shuffleCards();
+		createSessions();
+	}
+
+	/**
+	 * Rebuild a game from the journal after the server restarted.
+	 * Every player has lost its connection and has the grace period to take its seat again
+	 * @param game			The game as it was recorded
+	 * @param gameLog		The servers log
+	 * @param metrics		The servers metrics
+	 * @param sleepTime		The amount of ms a mismatched pair is shown for
+	 * @param scheduler		The scheduler that hides mismatched pairs
+	 * @param deadlines		The deadlines of turns and connections
+	 * @param rate			The amount of commands a player can send per second, 0 for no limit
+	 * @param journal		The journal the game is recorded in
+	 * @param leaderboard	The leaderboard the result is recorded on, null if results aren't recorded
+	 * @param sessions		The seats players can take again after losing their connection
+	 * @param audience		The spectators of every game
+	 */
+	public NioGameService(GameJournal.Game game, GameLog gameLog, GameMetrics metrics, int sleepTime, ScheduledExecutorService scheduler, Deadlines deadlines, int rate, GameJournal journal, Leaderboard leaderboard, Sessions sessions, Audience audience){
+		gameEvent = GameEvents.game();
+		this.gameNumber = game.getGame();
+		this.gameLog = gameLog;
+		this.metrics = metrics;
+		this.toClients = new Broadcast(metrics);
+		this.sleepTime = sleepTime;
+		this.scheduler = scheduler;
+		this.deadlines = deadlines;
+		this.rate = rate;
+		this.seed = game.getSeed();
+		this.ids = game.getIds();
+		this.journal = journal;
+		this.leaderboard = leaderboard;
+		this.sessions = sessions;
+		this.feed = audience.open(gameNumber, this);
+		this.gameWidth = game.getWidth();
+		this.gameHeight = game.getHeight();
+		this.recovered = true;
+
+		clients = new Client[game.getPlayers()];
+		for(int i = 0; i < clients.length; i++)
+			clients[i] = new Client(i, null, Protocol.V1);
+		rules = new Rules(clients.length, gameWidth * gameHeight, seed);
+		tokens = game.getTokens();
+		for(int i = 0; i < tokens.length; i++)
+			sessions.restore(tokens[i], this, i);
+		replay(game.getMoves());
+		log(GameLog.INFO, "RECOVERED, SEED: %d, %d PAIRS LEFT", seed, rules.getBoard().pairsLeft());
+	}
+
+	/**
+	 * Register the clients with the selector and initialize them.
+	 * Called on the thread of the loop that owns this game
+	 * @param loop	the owning loop
+	 */
+	void start(GameLoop loop){
+		this.loop = loop;
+		if(recovered){
+			if(done)
+				ended();
+			for(Client client : clients)
+				forfeitLater(client);
+			return;
+		}
+		try {
+			for(Client client : clients){
+				client.channel.configureBlocking(false);
+				client.key = client.channel.register(loop.selector(), 0, client);
+			}
+			initializeClients();
+			flush();
+			GameEvents.started(startedEvent, gameNumber, clients.length, gameWidth, gameHeight);
+			startedEvent = null;
+		} catch(IOException e){
+			log(GameLog.ERROR, e.getMessage());
+			close();
+		}
+	}
+
+	/**
+	 * Hand every player a token to take its seat again with
+	 */
+	private void createSessions(){
+		tokens = new long[clients.length];
+		for(int i = 0; i < clients.length; i++){
+			tokens[i] = sessions.create(this, i);
+			if(journal != null)
+				journal.session(gameNumber, i, tokens[i]);
+			if(journal != null && ids[i] != 0)
+				journal.player(gameNumber, i, ids[i]);
+		}
+	}
+
+	/**
+	 * Initialize the clients
+	 */
+	private void initializeClients(){
+		log(GameLog.INFO, "%s: Initializing clients. gameWidth: %d, gameHeight: %d", commandString(INIT), gameWidth, gameHeight);
+		for(int i = 0; i < clients.length; i++){
+			toClients.sendTo(i, INIT, i, gameWidth, gameHeight);
+			toClients.sendTo(i, SESSION, Sessions.high(tokens[i]), Sessions.low(tokens[i]));
+		}
+		setTurn(true);
+	}
+
+	/**
+	 * Give a player that lost its connection a new one and catch it up with the game.
+	 * The player is attached on the loop that owns this game
+	 * @param player	the player
+	 * @param channel	the player's new connection
+	 * @param version	the version of the protocol the new connection speaks
+	 * @return false if the game is over or not running on a loop yet
+	 */
+	public boolean resume(int player, SocketChannel channel, int version){
+		if(done || loop == null)
+			return false;
+		loop.execute(() -> clients[player].attach(channel, version));
+		return true;
+	}
+
+	/**
+	 * Queue everything a player needs to pick the game up again,
+	 * the cards that are face up, its points and whose turn it is
+	 * @param out		where to queue the commands
+	 * @param player	the player
+	 */
+	private void catchUp(Broadcast out, int player){
+		out.send(INIT, player, gameWidth, gameHeight);
+		out.send(SESSION, Sessions.high(tokens[player]), Sessions.low(tokens[player]));
+		faceUp(out);
+		if(rules.getPoints(player) > 0)
+			out.send(MATCH, rules.getPoints(player));
+		out.send(SETTURN, rules.getCurrentPlayer());
+	}
+
+	/**
+	 * Queue a {@code REVEAL} for every card that is face up, matched or picked this turn
+	 * @param out	where to queue the commands
+	 */
+	private void faceUp(Broadcast out){
+		Board board = rules.getBoard();
+		for(int card = board.nextMatched(0); card >= 0; card = board.nextMatched(card + 1))
+			out.send(REVEAL, card, board.value(card));
+		int picked = hiding ? 2 : rules.getPick();
+		for(int i = 0; i < picked; i++)
+			out.send(REVEAL, rules.getChosen(i), board.value(rules.getChosen(i)));
+	}
+
+	/**
+	 * Add a spectator, it gets the cards that are face up and whose turn it is
+	 * followed by everything the players are sent.
+	 * The spectator is added on the loop that owns this game
+	 * @param channel	the spectator's connection
+	 * @return false if the game is over or not running on a loop yet
+	 */
+	public boolean watch(SocketChannel channel){
+		if(done || loop == null)
+			return false;
+		loop.execute(() -> {
+			Broadcast snapshot = new Broadcast();
+			snapshot.send(INIT, -1, gameWidth, gameHeight);
+			faceUp(snapshot);
+			snapshot.send(SETTURN, rules.getCurrentPlayer());
+			//the game ended while the spectator was on its way
+			if(done)
+				snapshot.send(DONE);
+			feed.subscribe(channel, snapshot);
+		});
+		return true;
+	}
+
+	/**
+	 * Make a player forfeit the game once the grace period is over unless it comes back
+	 * @param client	the player
+	 */
+	private void forfeitLater(Client client){
+		int drop = client.drops;
+		deadlines.schedule(() -> loop.execute(() -> forfeit(client, drop)), sessions.getGrace());
+	}
+
+	/**
+	 * End the game with a player that didn't come back losing it
+	 * @param client	the player
+	 * @param drop		the lost connection the forfeit was scheduled for
+	 */
+	private void forfeit(Client client, int drop){
+		if(done || client.isConnected() || client.drops != drop)
+			return;
+		log(GameLog.INFO, "player %d didn't come back", client.player + 1);
+		determineWinner(client.player);
+		flush();
+		clientClosed();
+	}
+
+	/**
+	 * Treat a player that takes too long for its turn as having quit
+	 * @param turn	the turn the deadline was set for
+	 */
+	private void turnExpired(int turn){
+		if(done || hiding || turns != turn)
+			return;
+		log(GameLog.INFO, "player %d took longer than %dms for its turn", rules.getCurrentPlayer() + 1, deadlines.getTurnTime());
+		metrics.turnTimedOut();
+		determineWinner(rules.getCurrentPlayer());
+		flush();
+		clientClosed();
+	}
+
+	/**
+	 * Give the current player until the turn deadline to finish its turn, replacing the last deadline
+	 */
+	private void turnLater(){
+		if(turnDeadline != null)
+			turnDeadline.cancel();
+		if(deadlines.getTurnTime() == 0 || replaying)
+			return;
+		int turn = turns;
+		turnDeadline = deadlines.schedule(() -> loop.execute(() -> turnExpired(turn)), deadlines.getTurnTime());
+	}
+
+	/**
+	 * Gives a player a turn and times the turn that ended.
+	 * Only the player with the turn is read from, commands from other players wait in their sockets
+	 * @param initial	ensures the first turn is given to player 0
+	 */
+	private void setTurn(boolean initial){
+		long now = System.nanoTime();
+		if(!initial && !replaying)
+			metrics.turnEnded(now - turnStarted);
+		turnStarted = now;
+		clients[rules.getCurrentPlayer()].interested(SelectionKey.OP_READ, false);
+		if(!initial)
+			rules.endPair();
+		turns++;
+		turnLater();
+		GameEvents.commit(turnEvent);
+		turnEvent = replaying ? null : GameEvents.turn(gameNumber, rules.getCurrentPlayer(), turns);
+
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Giving player %d a turn", commandString(SETTURN), rules.getCurrentPlayer() + 1);
+
+		broadcast(SETTURN, rules.getCurrentPlayer());
+		clients[rules.getCurrentPlayer()].interested(SelectionKey.OP_READ, true);
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "waiting for commands from player %d", rules.getCurrentPlayer() + 1);
+	}
+
+	/**
+	 * Process the commands that have been read from the current player.
+	 * Keeps going while a turn change hands the game to a player that already has commands waiting
+	 */
+	private void processCommands(){
+		int player;
+		do {
+			player = rules.getCurrentPlayer();
+			processCommands(clients[player]);
+		} while(!done && player != rules.getCurrentPlayer());
+	}
+
+	/**
+	 * Process the commands that have been read from the client,
+	 * a client that sends something that isn't a command is dropped
+	 * @param client	the client the commands were read from
+	 */
+	private void processCommands(Client client){
+		ByteBuffer in = client.in;
+		in.flip();
+		while(!done && client.player == rules.getCurrentPlayer()){
+			int count = Protocol.get(in, client.version, command);
+			if(count == 0)
+				break;
+			if(count < 0){
+				metrics.playerDropped();
+				in.clear();
+				client.disconnected("dropped for sending a malformed frame");
+				return;
+			}
+			int cmd = command[0];
+			metrics.commandReceived(cmd);
+			if(cmd == RECEIVE || cmd == QUIT){
+				int value = command[1];
+				if(!admit(client, cmd, value))
+					return;
+				if(cmd == RECEIVE && hiding){
+					if(gameLog.isEnabled(GameLog.DEBUG))
+						log(GameLog.DEBUG, "%s: ignored %d while the last pair is shown", commandString(cmd), value);
+				} else if(cmd == RECEIVE){
+					if(gameLog.isEnabled(GameLog.DEBUG))
+						log(GameLog.DEBUG, "%s: received %d from current player", commandString(cmd), value);
+					revealCard(value);
+				} else {
+					log(GameLog.INFO, "%s: player %d quit the game", commandString(cmd), value + 1);
+					determineWinner(value);
+				}
+			} else if(!admit(client, cmd, 0))
+				return;
+		}
+		in.compact();
+	}
+
+	/**
+	 * Check a command before the game acts on it. A player that sends more commands than
+	 * its bucket allows, picks a card that isn't on the board or quits for another player
+	 * is dropped before anything is sent for the command
+	 * @param client	the client the command was read from
+	 * @param cmd		the command
+	 * @param value		the argument of the command
+	 * @return false if the client was dropped
+	 */
+	private boolean admit(Client client, int cmd, int value){
+		String reason = null;
+		if(!client.bucket.take())
+			reason = "sending more than " + rate + " commands a second";
+		else if(cmd == RECEIVE && !rules.getBoard().isCard(value))
+			reason = "picking card " + value + " of " + rules.getBoard().size();
+		else if(cmd == QUIT && value != client.player)
+			reason = "quitting for player " + (value + 1);
+		if(reason == null)
+			return true;
+		metrics.playerDropped();
+		client.in.clear();
+		client.disconnected("dropped for " + reason);
+		return false;
+	}
+
+	/**
+	 * Reveals the card the client picked.
+	 * If the client has picked 2 cards, the server will determine if there is a match.
+	 * If the last 2 cards are uncovered, the server will determine a winner.
+	 * Cards that are already matched or already picked this turn are ignored
+	 * @param cardToReveal	the card to reveal
+	 */
+	private void revealCard(int cardToReveal){
+		Board board = rules.getBoard();
+		int outcome = rules.reveal(cardToReveal);
+		if(outcome == Rules.IGNORED){
+			if(gameLog.isEnabled(GameLog.DEBUG))
+				log(GameLog.DEBUG, "%s: ignored %d, the card is already face up", commandString(RECEIVE), cardToReveal);
+			return;
+		}
+
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Revealing card %d with a value of %d", commandString(REVEAL), cardToReveal, board.value(cardToReveal));
+		if(journal != null && !replaying)
+			journal.reveal(gameNumber, cardToReveal);
+		if(!replaying)
+			GameEvents.reveal(gameNumber, rules.getCurrentPlayer(), cardToReveal, board.value(cardToReveal));
+		broadcast(REVEAL, cardToReveal, board.value(cardToReveal));
+		if(outcome == Rules.PICKED)
+			return;
+		if(outcome == Rules.MATCHED || outcome == Rules.OVER){
+			int player = rules.getCurrentPlayer();
+			if(gameLog.isEnabled(GameLog.DEBUG))
+				log(GameLog.DEBUG, "%s: Match found at cards %d and %d, adding %d point(s)", commandString(MATCH), rules.getChosen(0), rules.getChosen(1), Rules.POINTS_TO_GIVE);
+			toClients.sendTo(player, MATCH, rules.getPoints(player));
+			if(!replaying)
+				GameEvents.match(gameNumber, player, rules.getChosen(0), rules.getChosen(1), rules.getPoints(player));
+			if(outcome == Rules.OVER){
+				determineWinner();
+				return;
+			}
+		} else if(!replaying){
+			clientSleep();
+			hiding = true;
+			hideEvent = GameEvents.hide(gameNumber, rules.getCurrentPlayer(), rules.getChosen(0), rules.getChosen(1));
+			scheduler.schedule(() -> loop.execute(this::endTurn), sleepTime, TimeUnit.MILLISECONDS);
+			return;
+		}
+		setTurn(false);
+	}
+
+	/**
+	 * Play the recorded moves again without telling anyone,
+	 * mismatched pairs are hidden right away
+	 * @param moves	the cards that were revealed
+	 */
+	private void replay(int[] moves){
+		replaying = true;
+		for(int card : moves)
+			if(!done && card >= 0 && card < rules.getBoard().size())
+				revealCard(card);
+		replaying = false;
+		toClients.clear();
+	}
+
+	/**
+	 * Tell the clients how long the mismatched pair is shown for
+	 */
+	private void clientSleep(){
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Showing the pair for %dms", commandString(WAIT), sleepTime);
+		broadcast(WAIT, sleepTime);
+	}
+
+	/**
+	 * Hide the mismatched pair and give the next player a turn.
+	 * Runs on the loop once the scheduler decides the pair has been shown long enough
+	 */
+	private void endTurn(){
+		if(done)
+			return;
+		hiding = false;
+		GameEvents.commit(hideEvent);
+		hideEvent = null;
+		hideCards();
+		setTurn(false);
+		processCommands();
+		flush();
+	}
+
+	/**
+	 * Hides the cards a player has uncovered
+	 */
+	private void hideCards(){
+		if(gameLog.isEnabled(GameLog.DEBUG))
+			log(GameLog.DEBUG, "%s: Hiding cards %d and %d", commandString(HIDE), rules.getChosen(0), rules.getChosen(1));
+		broadcast(HIDE, rules.getChosen(0), rules.getChosen(1));
+	}
+
+	/**
+	 * Determines who wins the game
+	 */
+	private void determineWinner(){
+		determineWinner(-1);
+	}
+
+	/**
+	 * Determines who wins the game and puts the result on the leaderboard.
+	 * The player who quit will automatically lose the game
+	 * @param quitter	The player that quit the game
+	 */
+	private void determineWinner(int quitter){
+		int player = rules.winner(quitter);
+		GameEvents.commit(turnEvent);
+		turnEvent = null;
+		GameEvents.ended(gameEvent, gameNumber, player, turns);
+		gameEvent = null;
+		broadcast(WIN, player);
+		log(GameLog.INFO, "%s: Player %d won", commandString(WIN), player + 1);
+		if(leaderboard != null)
+			leaderboard.record(ids, rules.getPoints(), player);
+		quitGame();
+	}
+
+	/**
+	 * quit the game.
+	 * The sockets are closed once everything queued for them has been written
+	 */
+	private void quitGame(){
+		broadcast(DONE);
+		done = true;
+	}
+
+	/**
+	 * Queue a command for every client
+	 * @param values	the command followed by its arguments
+	 */
+	private void broadcast(int... values){
+		toClients.send(values);
+	}
+
+	/**
+	 * Write what has been queued for every client.
+	 * Once the game is done, clients with nothing left to write are closed.
+	 * A client that can't be written to has lost its connection,
+	 * the commands sent to every client are passed on to the spectators
+	 */
+	private void flush(){
+		try {
+			for(Client client : clients){
+				try {
+					client.write(toClients);
+				} catch(IOException e){
+					client.disconnected(e.getMessage());
+				}
+			}
+		} finally {
+			feed.publish(toClients);
+			toClients.clear();
+		}
+	}
+
+	/**
+	 * close every socket and end the game
+	 */
+	private void close(){
+		done = true;
+		for(Client client : clients)
+			client.close();
+	}
+
+	/**
+	 * called whenever a socket is closed, ends the game once it is done and all of them are
+	 */
+	private void clientClosed(){
+		if(!done)
+			return;
+		for(Client client : clients)
+			if(client.isConnected())
+				return;
+		ended();
+	}
+
+	/**
+	 * forget the sessions and count the game as ended, only the first call counts
+	 */
+	private void ended(){
+		if(ended)
+			return;
+		ended = true;
+		if(turnDeadline != null)
+			turnDeadline.cancel();
+		for(long token : tokens)
+			sessions.remove(token);
+		metrics.gameEnded();
+		if(journal != null)
+			journal.end(gameNumber);
+		feed.close();
+		log(GameLog.INFO, "ENDING GAME%n");
+	}
+
+	/**
+	 * creates the game board and shuffles cards
+	 */
+	private void shuffleCards(){
+		log(GameLog.INFO, "SHUFFLING CARDS, SEED: %d", seed);
+		rules = new Rules(clients.length, gameWidth * gameHeight, seed);
+		if(journal != null)
+			journal.start(gameNumber, seed, gameWidth, gameHeight, rules.getPlayers());
+	}
+
+	/**
+	 * output log messages to the server log and count errors.
+	 * Messages below the level of the log are dropped before anything is queued,
+	 * per move messages check the level before they are logged so their arguments aren't boxed
+	 * @param level	the level of the message
+	 * @param msg	the message to output
+	 * @param vals	values used in place of tokens specified in msg
+	 */
+	private void log(int level, String msg, Object... vals){
+		if(level == GameLog.ERROR)
+			metrics.error();
+		if(gameLog.isEnabled(level))
+			gameLog.log(level, gameNumber, msg, vals);
+	}
+
+	/**
+	 * A player's connection and the bytes waiting to be read from or written to it
+	 */
+	class Client {
+		private int player;
+		private SocketChannel channel;
+		private SelectionKey key;
+		//how often the player has lost its connection, a pending forfeit only counts for the latest one
+		private int drops = 0;
+		//how often bytes were left unwritten, a stalled deadline only counts for the latest time
+		private int stalls = 0;
+		private Deadlines.Timeout stalled;
+		//how many commands the connection may still send
+		private TokenBucket bucket = new TokenBucket(rate);
+		//the version of the protocol the connection speaks
+		private int version;
+		private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+		/**
+		 * @param player	the player number of the client
+		 * @param channel	the client's socket
+		 * @param version	the version of the protocol the client speaks
+		 */
+		Client(int player, SocketChannel channel, int version){
+			this.player = player;
+			this.channel = channel;
+			this.version = version;
+		}
+
+		/**
+		 * handle a ready key of this client
+		 * @param key	the key of this client
+		 */
+		void handle(SelectionKey key){
+			//a task that ran after the key was selected closed the connection
+			if(!key.isValid())
+				return;
+			try {
+				if(key.isWritable())
+					flush();
+				if(key.isValid() && key.isReadable()){
+					int read = channel.read(in);
+					if(read == -1)
+						throw new IOException("player " + (player + 1) + " disconnected");
+					metrics.bytesIn(read);
+					processCommands();
+					NioGameService.this.flush();
+				}
+			} catch(IOException e){
+				disconnected(e.getMessage());
+				NioGameService.this.flush();
+			} catch(RuntimeException e){
+				log(GameLog.ERROR, e.getMessage());
+				NioGameService.this.close();
+			}
+		}
+
+		/**
+		 * take a new connection for this player, the old one is closed
+		 * @param channel	the new connection
+		 * @param version	the version of the protocol the new connection speaks
+		 */
+		void attach(SocketChannel channel, int version){
+			if(done){
+				metrics.socketClosed();
+				try {
+					channel.close();
+				} catch(IOException e){}
+				return;
+			}
+			if(isConnected()){
+				metrics.socketClosed();
+				try {
+					this.channel.close();
+				} catch(IOException e){}
+			}
+			this.channel = channel;
+			drops++;
+			bucket = new TokenBucket(rate);
+			this.version = version;
+			toClients.version(player, version);
+			in.clear();
+			out.clear();
+			idleLater();
+			log(GameLog.INFO, "%s: player %d is back", commandString(RESUME), player + 1);
+			try {
+				channel.configureBlocking(false);
+				key = channel.register(loop.selector(), 0, this);
+				Broadcast catchUp = new Broadcast(metrics);
+				catchUp.version(player, version);
+				catchUp(catchUp, player);
+				write(catchUp);
+				interested(SelectionKey.OP_READ, player == rules.getCurrentPlayer() && !hiding);
+				//the player gets a whole turn once it is back
+				if(player == rules.getCurrentPlayer() && !hiding)
+					turnLater();
+				if(player == rules.getCurrentPlayer())
+					processCommands();
+				NioGameService.this.flush();
+			} catch(IOException e){
+				disconnected(e.getMessage());
+			}
+		}
+
+		/**
+		 * the connection failed, the player forfeits the game if it isn't back in time
+		 * @param reason	why the connection failed
+		 */
+		void disconnected(String reason){
+			if(done){
+				close();
+				return;
+			}
+			if(!isConnected())
+				return;
+			log(GameLog.INFO, "player %d lost its connection: %s", player + 1, reason);
+			GameEvents.ioError(gameNumber, player, reason);
+			close();
+			drops++;
+			forfeitLater(this);
+		}
+
+		/**
+		 * @return true if the player has an open connection
+		 */
+		boolean isConnected(){
+			return channel != null && channel.isOpen();
+		}
+
+		/**
+		 * write the commands queued for this client with one gathered write,
+		 * whatever the socket doesn't accept is copied to the client's own queue
+		 * @param frames	the commands queued for the game
+		 * @throws IOException
+		 */
+		void write(Broadcast frames) throws IOException {
+			if(!isConnected())
+				return;
+			int count = frames.prepare(player);
+			ByteBuffer[] views = frames.views();
+			if(count > 0 && !hasPending()){
+				GameEvents.Write event = GameEvents.write();
+				long written = channel.write(views, 0, count);
+				metrics.bytesOut(written);
+				GameEvents.wrote(event, gameNumber, player, written);
+			}
+			for(int i = 0; i < count; i++)
+				queue(views[i]);
+			flush();
+		}
+
+		/**
+		 * queue bytes for this client
+		 * @param bytes	the bytes to queue
+		 */
+		private void queue(ByteBuffer bytes){
+			if(out.remaining() < bytes.remaining()){
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.remaining()));
+				out.flip();
+				larger.put(out);
+				out = larger;
+			}
+			out.put(bytes);
+		}
+
+		/**
+		 * write as much of the queue as the socket accepts and
+		 * only ask to be woken up for writing while something is left
+		 * @throws IOException
+		 */
+		void flush() throws IOException {
+			if(!isConnected())
+				return;
+			if(hasPending()){
+				out.flip();
+				GameEvents.Write event = GameEvents.write();
+				int written = channel.write(out);
+				metrics.bytesOut(written);
+				GameEvents.wrote(event, gameNumber, player, written);
+				out.compact();
+			}
+			interested(SelectionKey.OP_WRITE, hasPending());
+			idleLater();
+			if(done && !hasPending())
+				close();
+		}
+
+		/**
+		 * give a client with bytes left to write until the idle deadline to take all of them,
+		 * the deadline is cancelled once nothing is left
+		 */
+		private void idleLater(){
+			if(!hasPending() || !isConnected()){
+				if(stalled != null)
+					stalled.cancel();
+				stalled = null;
+				return;
+			}
+			if(stalled != null || deadlines.getIdleTime() == 0)
+				return;
+			int stall = ++stalls;
+			stalled = deadlines.schedule(() -> loop.execute(() -> stalled(stall)), deadlines.getIdleTime());
+		}
+
+		/**
+		 * the client left bytes unread until the idle deadline, it has lost its connection
+		 * @param stall	the time bytes were left unwritten the deadline was set for
+		 */
+		private void stalled(int stall){
+			if(stalled == null || stalls != stall)
+				return;
+			stalled = null;
+			log(GameLog.INFO, "player %d didn't read what it was sent for %dms", player + 1, deadlines.getIdleTime());
+			metrics.connectionStalled();
+			disconnected("stopped reading");
+			NioGameService.this.flush();
+		}
+
+		/**
+		 * @return true if there are bytes that still need to be written
+		 */
+		boolean hasPending(){
+			return out.position() > 0;
+		}
+
+		/**
+		 * add or remove an operation from the interest set of this client
+		 * @param op		the operation
+		 * @param interested	whether the operation should be selected for
+		 */
+		void interested(int op, boolean interested){
+			if(key == null || !key.isValid())
+				return;
+			int ops = key.interestOps();
+			key.interestOps(interested ? ops | op : ops & ~op);
+		}
+
+		/**
+		 * close the client's socket
+		 */
+		void close(){
+			if(!isConnected())
+				return;
+			metrics.socketClosed();
+			try {
+				channel.close();
+			} catch(IOException e){
+				log(GameLog.ERROR, e.getMessage());
+			}
+			idleLater();
+			clientClosed();
+		}
+	}
+}
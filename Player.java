@@ -2,10 +2,14 @@ import java.awt.*;
 import javax.swing.*;
 import java.io.*;
 import java.net.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+import java.util.prefs.Preferences;
 
 /**
  *	Memory Game client 0
@@ -13,11 +17,40 @@ import java.awt.event.ActionEvent;
 public class Player extends JFrame implements GameConstants, Runnable{
 	private static final String SERVER = "-server";
 	private static final String IMG = "-img";
+	private static final String PLAYERS = "-players";
+	private static final String WIDTH = "-width";
+	private static final String HEIGHT = "-height";
+	private static final String CANVAS = "-canvas";
+	private static final String WATCH_GAME = "-watch";
 	private static final String HELP = "-help";
 
-	private Socket socket;
-	private DataOutputStream toServer;
-	private DataInputStream fromServer;
+	/**
+	 * How long a player that lost its connection keeps trying to get back into its game in ms
+	 */
+	public static final int RECONNECT_TIME = 30000;
+
+	/**
+	 * How long to wait between attempts to get back into the game in ms
+	 */
+	public static final int RECONNECT_INTERVAL = 1000;
+
+	/**
+	 * Where the player's id is kept between runs
+	 */
+	public static final String PREFERENCES = "concentration";
+
+	//replaced by the reading thread when it gets back into the game
+	private volatile Socket socket;
+	private volatile DataOutputStream toServer;
+	private volatile DataInputStream fromServer;
+	//every connection speaks version 1 until the server answers VERSION
+	private volatile Protocol protocol = new Protocol(Protocol.V1);
+	//the last command read, followed by its arguments
+	private int[] command = new int[Protocol.MAX_ARGS + 1];
+	private String serverHost;
+	//the token to get back into the game with, both halves are 0 until the server sends one
+	private int sessionHigh;
+	private int sessionLow;
 
 	private JLabel gameStatusLabel;
 	private JLabel pairsLabel;
@@ -26,26 +59,34 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	private JButton quitButton;
 	//private JButton restartButton;
 
-	private int gameWidth;
-	private int gameHeight;
-
 	private Card[] cards;
+	private boolean canvas;
+	private BoardView board;
+
+	//written by any thread, read by the event dispatch thread
+	private final Object stateLock = new Object();
+	private GameState state = GameState.NONE;
+	private AtomicBoolean renderScheduled = new AtomicBoolean();
+	//only used on the event dispatch thread
+	private GameState rendered = GameState.NONE;
 
-	private int player = 0;
-	private boolean myTurn = false;
-	private boolean win = false;
-	private boolean gameOver = false;
-	private int picks = 0;
-	private int points = 0;
+	private boolean paused = false;
+	private List<Runnable> afterPause = new ArrayList<>();
 
 	private String imagePath;
+	private IconCache icons;
 
 	/**
 	 * Create player
 	 * Optional arguments can be add in the form of '-arg (value)'
 	 * <ul>
 	 * 	<li>{@code -server host: The server address}</li>
-	 *  <li>{@code -img dir: image directory.}</li>
+	 *  <li>{@code -img path: image directory or sprite sheet.}</li>
+	 *  <li>{@code -players n: ask for a game with n players}</li>
+	 *  <li>{@code -width n: ask for a game board n cards wide}</li>
+	 *  <li>{@code -height n: ask for a game board n cards high}</li>
+	 *  <li>{@code -canvas: paint the board in one component instead of a button per card}</li>
+	 *  <li>{@code -watch n: watch game n instead of playing}</li>
 	 *  <li>{@code -help: show program usage}</li>
 	 * </ul>
 	 * @param args	command line arguments
@@ -53,16 +94,22 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	public static void main(String[] args){
 		String serverHost = "";
 		String imagePath = "";
+		int players = 0;
+		int gameWidth = 0;
+		int gameHeight = 0;
+		boolean canvas = false;
+		int watch = 0;
 
 		//true from the start to ensure a -server argument is passed
 		boolean help = true;
 
 		if(args.length > 0){
 			int i = 0;
+			try {
 			while(i < args.length){
 				if(args[i].equals(SERVER)){
 					i++;
-					if(i == args.length || args[i].equals(HELP) || args[i].equals(IMG))
+					if(i == args.length || isOption(args[i]))
 						break;
 					else{
 						serverHost = args[i];
@@ -73,25 +120,68 @@ public class Player extends JFrame implements GameConstants, Runnable{
 				}
 				else if(args[i].equals(IMG)){
 					i++;
-					if(i == args.length || args[i].equals(HELP) || args[i].equals(SERVER))
+					if(i == args.length || isOption(args[i]))
 						break;
 					else {
 						imagePath = imagePath + args[i];
-						log("Image directory: %s", imagePath);
-						help = false;
+						log("Images: %s", imagePath);
 					}
 				}
-				else if(args[i].equals(HELP))
+				else if(args[i].equals(PLAYERS)){
+					i++;
+					if(i == args.length || isOption(args[i]))
+						break;
+					else
+						players = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(WIDTH)){
+					i++;
+					if(i == args.length || isOption(args[i]))
+						break;
+					else
+						gameWidth = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(HEIGHT)){
+					i++;
+					if(i == args.length || isOption(args[i]))
+						break;
+					else
+						gameHeight = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(CANVAS)){
+					canvas = true;
+				}
+				else if(args[i].equals(WATCH_GAME)){
+					i++;
+					if(i == args.length || isOption(args[i]))
+						break;
+					else
+						watch = Integer.parseInt(args[i]);
+				}
+				else if(args[i].equals(HELP)){
+					help = true;
 					break;
+				}
 
 				i++;
 			}
+			} catch(NumberFormatException e){
+				help = true;
+			}
 		}
 
 		if(help)
 			logHelp();
 		else
-			new Player(serverHost, imagePath);
+			new Player(serverHost, imagePath, players, gameWidth, gameHeight, canvas, watch);
+	}
+
+	/**
+	 * @param arg	a command line argument
+	 * @return true if the argument is one of the client options
+	 */
+	private static boolean isOption(String arg){
+		return arg.equals(SERVER) || arg.equals(IMG) || arg.equals(PLAYERS) || arg.equals(WIDTH) || arg.equals(HEIGHT) || arg.equals(CANVAS) || arg.equals(WATCH_GAME) || arg.equals(HELP);
 	}
 
 	/**
@@ -100,14 +190,58 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 *	@param imageDirectory define images directory and use images if defined
 	 */
 	public Player(String serverHost, String imagePath){
+		this(serverHost, imagePath, 0, 0, 0);
+	}
+
+	/**
+	 *	construct the game client and ask for a specific game,
+	 *	0 leaves the choice to the server
+	 *	@param serverHost the server to interact with
+	 *	@param imagePath define images directory and use images if defined
+	 *	@param players the amount of players to play with
+	 *	@param gameWidth the width of the game board
+	 *	@param gameHeight the height of the game board
+	 */
+	public Player(String serverHost, String imagePath, int players, int gameWidth, int gameHeight){
+		this(serverHost, imagePath, players, gameWidth, gameHeight, false);
+	}
+
+	/**
+	 *	construct the game client and ask for a specific game,
+	 *	0 leaves the choice to the server
+	 *	@param serverHost the server to interact with
+	 *	@param imagePath define images directory and use images if defined
+	 *	@param players the amount of players to play with
+	 *	@param gameWidth the width of the game board
+	 *	@param gameHeight the height of the game board
+	 *	@param canvas paint the board in one component instead of a button per card
+	 */
+	public Player(String serverHost, String imagePath, int players, int gameWidth, int gameHeight, boolean canvas){
+		this(serverHost, imagePath, players, gameWidth, gameHeight, canvas, 0);
+	}
+
+	/**
+	 *	construct the game client and ask for a specific game or watch one,
+	 *	0 leaves the choice to the server
+	 *	@param serverHost the server to interact with
+	 *	@param imagePath define images directory and use images if defined
+	 *	@param players the amount of players to play with
+	 *	@param gameWidth the width of the game board
+	 *	@param gameHeight the height of the game board
+	 *	@param canvas paint the board in one component instead of a button per card
+	 *	@param watch the number of the game to watch as the server logs it, 0 to play
+	 */
+	public Player(String serverHost, String imagePath, int players, int gameWidth, int gameHeight, boolean canvas, int watch){
 		this.imagePath = imagePath;
+		this.canvas = canvas;
+		this.serverHost = serverHost;
 
-		openConnection(serverHost);
+		openConnection(serverHost, players, gameWidth, gameHeight, watch);
 		createUI();
 
 		if(socket != null && !socket.isClosed()){
 			(new Thread(this)).start();
-			log("Waiting for other players");
+			log(watch > 0 ? "Waiting for game %d" : "Waiting for other players", watch);
 		} else {
 			log("COULD NOT CONNECT");
 		}
@@ -115,14 +249,36 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	}
 
 	/**
-	 * open connection with host
+	 * open connection with host and ask for a game or to watch one,
+	 * players ask for the newest version of the protocol and say who they are
 	 * @param serverHost the host to connect to
+	 * @param players the amount of players to play with
+	 * @param gameWidth the width of the game board
+	 * @param gameHeight the height of the game board
+	 * @param watch the number of the game to watch as the server logs it, 0 to play
 	 */
-	private void openConnection(String serverHost){
+	private void openConnection(String serverHost, int players, int gameWidth, int gameHeight, int watch){
 		try {
 			this.socket = new Socket(serverHost, PORT);
 			this.fromServer = new DataInputStream(socket.getInputStream());
 			this.toServer = new DataOutputStream(socket.getOutputStream());
+			this.protocol = new Protocol(Protocol.V1);
+			if(watch > 0){
+				toServer.writeInt(WATCH);
+				toServer.writeInt(watch - 1);
+			} else {
+				long id = playerId();
+				toServer.writeInt(VERSION);
+				toServer.writeInt(Protocol.LATEST);
+				toServer.writeInt(PLAYER);
+				toServer.writeInt((int) (id >>> 32));
+				toServer.writeInt((int) id);
+				toServer.writeInt(JOIN);
+				toServer.writeInt(players);
+				toServer.writeInt(gameWidth);
+				toServer.writeInt(gameHeight);
+			}
+			toServer.flush();
 		} catch(SecurityException e){
 			log(e.getMessage());
 		} catch(UnknownHostException e){
@@ -132,6 +288,26 @@ public class Player extends JFrame implements GameConstants, Runnable{
 		}
 	}
 
+	/**
+	 * the id the server keeps this player's results under, picked the first time the game is played
+	 * @return the player's id
+	 */
+	private static long playerId(){
+		try {
+			Preferences preferences = Preferences.userRoot().node(PREFERENCES);
+			long id = preferences.getLong("id", 0);
+			if(id == 0){
+				id = new Random().nextLong() & Long.MAX_VALUE | 1;
+				preferences.putLong("id", id);
+				preferences.flush();
+			}
+			return id;
+		} catch(Exception e){
+			//results aren't kept for a player without an id
+			return 0;
+		}
+	}
+
 	/**
 	 * close socket
 	 */
@@ -144,72 +320,142 @@ public class Player extends JFrame implements GameConstants, Runnable{
 			log(e.getCause().getMessage());
 		}
 		socket = null;
-		updateGUI("CONNECTION CLOSED");
 		//Another client may have disconnected so we need to make sure no more inputs can be detected
-		gameOver = true;
+		update(state -> state.closed());
 		log("CONNECTION CLOSED");
 	}
 
+	/**
+	 * read commands from the server until the game is done.
+	 * Commands only change the game state, the cards and labels are updated on the
+	 * event dispatch thread so reading never waits for the board to be drawn.
+	 * A lost connection is replaced with a new one if the server handed out a token
+	 */
 	public void run(){
-		boolean done = false;
-
 		try {
-			while(!done){
-				int msg = fromServer.readInt();
-				switch(msg){
-				case INIT:
-					this.player = fromServer.readInt();
-					gameWidth = fromServer.readInt();
-					gameHeight = fromServer.readInt();
-					cards = new Card[gameWidth * gameHeight];
-					createPanel();
-					log("%s: Game initialized", commandString(msg));
-					log("YOU ARE PLAYER %d", (int) player + 1);
-					break;
-				case SETTURN:
-					int turn = fromServer.readInt();
-					log("%s: It's player %d's turn", commandString(SETTURN), (int) turn + 1);
-					setTurn(turn);
-					break;
-				case REVEAL:
-					int cardToReveal = fromServer.readInt();
-					int cardValue = fromServer.readInt();
-					revealCard(cardToReveal, cardValue);
-					log("%s: Card %d revealed", commandString(msg), cardToReveal, cardValue);
-					break;
-				case MATCH:
-					int pointsToAdd = fromServer.readInt();
-					addPoints(pointsToAdd);
-					log("%s: Match found! %d points added", commandString(msg), pointsToAdd);
-					break;
-				case WAIT:
-					int timeToSleep = fromServer.readInt();
-					log("%s: Waiting for %dms", commandString(msg), timeToSleep);
-					sleep(timeToSleep);
-					break;
-				case HIDE:
-					int cardToHide1 = fromServer.readInt();
-					int cardToHide2 = fromServer.readInt();
-					log("%s: Hiding cards %d and %d", commandString(msg), cardToHide1, cardToHide2);
-					hideCards(cardToHide1, cardToHide2);
-					break;
-				case WIN:
-					int winner = fromServer.readInt();
-					log("%s: Player %d won", commandString(msg), (int) winner + 1);
-					gameOver(winner);
-					break;
-				case DONE:
-					log("%s: done", commandString(msg));
-					done = true;
-					break;
+			while(true){
+				try {
+					while(readCommand());
+					return;
+				} catch(IOException e){
+					if(!reconnect())
+						return;
 				}
 			}
-		} catch(IOException e){
-	         //do nothing
 		} finally {
 			closeConnection();
 		}
+	}
 
+	/**
+	 * read a command from the server and apply it
+	 * @return false once the game is done
+	 * @throws IOException
+	 */
+	private boolean readCommand() throws IOException {
+		protocol.read(fromServer, command);
+		int msg = command[0];
+		switch(msg){
+		case VERSION:
+			protocol = new Protocol(command[1]);
+			log("%s: Speaking version %d", commandString(msg), command[1]);
+			break;
+		case INIT:
+			int player = command[1];
+			int gameWidth = command[2];
+			int gameHeight = command[3];
+			//a resumed game starts over with INIT, the icons are already loaded
+			if(!currentState().isInitialized())
+				loadIcons();
+			update(state -> state.init(player, gameWidth, gameHeight));
+			log("%s: Game initialized", commandString(msg));
+			log("YOU ARE PLAYER %d", (int) player + 1);
+			break;
+		case SESSION:
+			sessionHigh = command[1];
+			sessionLow = command[2];
+			log("%s: Session token received", commandString(msg));
+			break;
+		case SETTURN:
+			int turn = command[1];
+			log("%s: It's player %d's turn", commandString(SETTURN), (int) turn + 1);
+			afterPause(() -> setTurn(turn));
+			break;
+		case REVEAL:
+			int cardToReveal = command[1];
+			int cardValue = command[2];
+			afterPause(() -> revealCard(cardToReveal, cardValue));
+			log("%s: Card %d revealed", commandString(msg), cardToReveal, cardValue);
+			break;
+		case MATCH:
+			int pointsToAdd = command[1];
+			afterPause(() -> addPoints(pointsToAdd));
+			log("%s: Match found! %d points added", commandString(msg), pointsToAdd);
+			break;
+		case WAIT:
+			int timeToSleep = command[1];
+			log("%s: Waiting for %dms", commandString(msg), timeToSleep);
+			pause(timeToSleep);
+			break;
+		case HIDE:
+			int cardToHide1 = command[1];
+			int cardToHide2 = command[2];
+			log("%s: Hiding cards %d and %d", commandString(msg), cardToHide1, cardToHide2);
+			afterPause(() -> hideCards(cardToHide1, cardToHide2));
+			break;
+		case WIN:
+			int winner = command[1];
+			log("%s: Player %d won", commandString(msg), (int) winner + 1);
+			afterPause(() -> gameOver(winner));
+			break;
+		case DONE:
+			log("%s: done", commandString(msg));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * get back into the game on a new connection with the token the server handed out.
+	 * The server answers with the state of the game, or DONE if the game is over
+	 * @return false if there is no game to get back into or the server can't be reached in time
+	 */
+	private boolean reconnect(){
+		GameState current = currentState();
+		if((sessionHigh == 0 && sessionLow == 0) || current.isGameOver())
+			return false;
+		log("CONNECTION LOST, RECONNECTING");
+		updateGUI("RECONNECTING");
+		try {
+			socket.close();
+		} catch(IOException e){}
+
+		long deadline = System.currentTimeMillis() + RECONNECT_TIME;
+		while(System.currentTimeMillis() < deadline){
+			try {
+				Socket next = new Socket(serverHost, PORT);
+				DataOutputStream out = new DataOutputStream(next.getOutputStream());
+				out.writeInt(VERSION);
+				out.writeInt(Protocol.LATEST);
+				out.writeInt(RESUME);
+				out.writeInt(sessionHigh);
+				out.writeInt(sessionLow);
+				out.flush();
+				protocol = new Protocol(Protocol.V1);
+				fromServer = new DataInputStream(next.getInputStream());
+				toServer = out;
+				socket = next;
+				log("%s: Reconnected", commandString(RESUME));
+				return true;
+			} catch(IOException e){
+				try {
+					Thread.sleep(RECONNECT_INTERVAL);
+				} catch(InterruptedException ex){
+					return false;
+				}
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -217,13 +463,7 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 *	@param player the player that gets a turn
 	 */
 	public void setTurn(int player){
-		if(this.player == player){
-			myTurn = true;
-			picks = 0;
-		} else {
-			myTurn = false;
-		}
-		updateGUI();
+		update(state -> state.turn(player));
 	}
 
 	/**
@@ -231,16 +471,15 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 *	@param index the card index to send to the server
 	 */
 	public void pickCard(int index){
-		if(gameOver)
+		GameState current = currentState();
+		if(current.isGameOver() || current.isClosed())
 			return;
-		if(myTurn){
-			if(picks < 2){
-				picks++;
-				updateGUI();
+		if(current.isMyTurn()){
+			if(current.getPicks() < 2){
+				update(state -> state.picked());
 				log("%s: Sending card %d to server", commandString(RECEIVE), index);
 				try {
-					toServer.writeInt(RECEIVE);
-					toServer.writeInt(index);
+					protocol.write(toServer, RECEIVE, index);
 					toServer.flush();
 				}
 				catch(IOException e){
@@ -260,7 +499,7 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 *	@param cardValue the value of the card revealed
 	 */
 	public void revealCard(int card, int cardValue){
-		cards[card].revealCard(cardValue);
+		update(state -> state.reveal(card, cardValue));
 	}
 
 	/**
@@ -268,8 +507,7 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 *	@param card	the card to hide
 	 */
 	public void hideCards(int card1, int card2){
-		cards[card1].hideCard();
-		cards[card2].hideCard();
+		update(state -> state.hide(card1, card2));
 	}
 
 	/**
@@ -277,8 +515,7 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 *	@param points the player has now
 	 */
 	public void addPoints(int points){
-		this.points = points;
-		updateGUI();
+		update(state -> state.points(points));
 	}
 
 	/**
@@ -287,22 +524,19 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	 */
 	public void gameOver(int player){
 		log("GAME OVER");
-		win = this.player == player;
-		gameOver = true;
-		myTurn = false;
-		updateGUI();
+		update(state -> state.over(player));
 	}
 
 	/**
 	 *	ends the game and forces the player that quit to lose
 	 */
 	public void quitGameAction(){
-		if(gameOver)
+		GameState current = currentState();
+		if(current.isGameOver() || current.isClosed())
 			return;
-		else if(myTurn){
+		else if(current.isMyTurn()){
 			try{
-				toServer.writeInt(QUIT);
-				toServer.writeInt(player);
+				protocol.write(toServer, QUIT, current.getPlayer());
 			} catch(IOException e){
 				log(e.getMessage());
 			}
@@ -312,18 +546,78 @@ public class Player extends JFrame implements GameConstants, Runnable{
 	}
 
 	/**
-	 *	update the gui
-	 *	@param msg a message to show the client
+	 *	show a message to the client
+	 *	@param msg the message
 	 */
 	private void updateGUI(String msg){
-		pairsLabel.setText(this.points + " points");
+		update(state -> state.message(msg));
+	}
+
+	/**
+	 * change the game state and have the gui catch up with it.
+	 * Safe to call from any thread, changes made before the gui gets to them
+	 * are drawn together
+	 * @param change	the change to make to the game state
+	 */
+	private void update(UnaryOperator<GameState> change){
+		synchronized(stateLock){
+			state = change.apply(state);
+		}
+		if(renderScheduled.compareAndSet(false, true))
+			SwingUtilities.invokeLater(this::render);
+	}
+
+	/**
+	 * @return the latest game state
+	 */
+	private GameState currentState(){
+		synchronized(stateLock){
+			return state;
+		}
+	}
+
+	/**
+	 *	update the gui to the latest game state,
+	 *	only the cards that changed since the last update are touched
+	 */
+	private void render(){
+		renderScheduled.set(false);
+		GameState next = currentState();
+		if(next == rendered)
+			return;
+
+		boolean created = false;
+		if(next.isInitialized() && !rendered.isInitialized()){
+			createPanel(next);
+			created = true;
+		}
+		if(next.isInitialized())
+			for(int i = 0; i < next.getGameWidth() * next.getGameHeight(); i++){
+				int before = created ? GameState.HIDDEN : rendered.card(i);
+				int value = next.card(i);
+				if(value == before)
+					continue;
+				if(board != null){
+					if(value == GameState.HIDDEN)
+						board.hideCard(i);
+					else
+						board.revealCard(i, value);
+				} else if(value == GameState.HIDDEN)
+					cards[i].hideCard();
+				else
+					cards[i].revealCard(value);
+			}
+
+		pairsLabel.setText(next.isSpectator() ? "Watching" : next.getPoints() + " points");
 		gameStatusLabel.setForeground(Color.BLACK);
-		if(myTurn)
+		if(next.isMyTurn())
 			gameStatusLabel.setText("Your Turn");
+		else if(next.isSpectator())
+			gameStatusLabel.setText(next.isGameOver() ? "Player " + (next.getTurn() + 1) + " won" : "Player " + (next.getTurn() + 1) + "'s turn");
 		else
 			gameStatusLabel.setText("Wait");
-		if(gameOver)
-			if(win){
+		if(next.isGameOver() && !next.isSpectator())
+			if(next.isWin()){
 				gameStatusLabel.setText("YOU WON!");
 				gameStatusLabel.setForeground(Color.GREEN);
 			} else {
@@ -331,62 +625,106 @@ public class Player extends JFrame implements GameConstants, Runnable{
 				gameStatusLabel.setForeground(Color.BLUE);
 			}
 
-		messageLabel.setText(msg);
+		messageLabel.setText(next.getMessage());
+		rendered = next;
 	}
+
 	/**
-	 *	update the gui
+	 * show the revealed pair for the specified amount of milliseconds.
+	 * Newer servers hide the pair themselves once the time is up, older servers
+	 * send the HIDE right away so it is held back until the pause is over.
+	 * The socket keeps being read during the pause
+	 * @param ms	milliseconds to pause for
 	 */
-	private void updateGUI(){
-		updateGUI("");
+	public void pause(int ms){
+		synchronized(afterPause){
+			paused = true;
+		}
+		Timer timer = new Timer(ms, e -> resume());
+		timer.setRepeats(false);
+		timer.start();
 	}
 
 	/**
-	 * sleep for the specified amount of milliseconds
-	 * @param ms	milliseconds to sleep
+	 * end the pause and apply everything that was held back during it
 	 */
-	public void sleep(int ms){
-		try{
-			Thread.sleep(ms);
-		} catch(InterruptedException e){
-			e.printStackTrace();
+	private void resume(){
+		while(true){
+			List<Runnable> updates;
+			synchronized(afterPause){
+				if(afterPause.isEmpty()){
+					paused = false;
+					return;
+				}
+				updates = new ArrayList<>(afterPause);
+				afterPause.clear();
+			}
+			for(Runnable update : updates)
+				update.run();
 		}
 	}
 
+	/**
+	 * apply an update now or hold it back until the current pause is over
+	 * so updates are always applied in the order they were received
+	 * @param update	the update to apply
+	 */
+	private void afterPause(Runnable update){
+		synchronized(afterPause){
+			if(paused){
+				afterPause.add(update);
+				return;
+			}
+		}
+		update.run();
+	}
+
 	/**
 	 * output help to the console
 	 */
 	public static void logHelp(){
 		System.out.println("A memory game client that can connect to the internet and play with others\n");
-		System.out.println("java Player -server <server address> [-help] [-img <image directory>]\n");
+		System.out.println("java Player -server <server address> [-help] [-img <image directory or sprite sheet>] [-players <players>] [-width <width>] [-height <height>] [-canvas] [-watch <game>]\n");
 		System.out.println("\t-server\t\tThe server address to connect to");
+		System.out.println("\t-players\tThe amount of players to play with, the server decides if left out");
+		System.out.println("\t-width\t\tThe width of the game board, the server decides if left out");
+		System.out.println("\t-height\t\tThe height of the game board, the server decides if left out");
+		System.out.println("\t-canvas\t\tPaints the board in one component instead of a button per card, faster for big boards");
+		System.out.println("\t-watch\t\tWatch the game with the number the server logs for it instead of playing");
 		System.out.println("\t-help\t\tShows this help information");
-		System.out.println("\t-img\t\tSpecifies a directory to use to find images for the cards in the game");
-		System.out.println("\t\t\tThere are a total of 20 images in the jpg format; 1 back image and 19 front images");
+		System.out.println("\t-img\t\tSpecifies a directory or a sprite sheet to use to find images for the cards in the game");
+		System.out.println("\t\t\tA directory has images in the jpg format; 1 back image and any number of front images");
 		System.out.println("\t\t\tThe back image must be a in the form 'back.jpg'");
-		System.out.println("\t\t\tThe front images must be in the form 'n.jpg' where n is a number from 0 - 18");
+		System.out.println("\t\t\tThe front images must be in the form 'n.jpg' where n is a number counting up from 0");
+		System.out.println("\t\t\tA sprite sheet is a row of square images, the back image followed by the front images");
+		System.out.println("\t\t\tCards with no front image get a drawn face");
 	}
 
 	/**
 	 *	creates the game GUI
+	 *	@param state	the state of the new game
 	 */
-	private void createPanel(){
+	private void createPanel(GameState state){
+		int gameWidth = state.getGameWidth();
+		int gameHeight = state.getGameHeight();
+
 		JPanel statusPanel = new JPanel(new GridLayout(0,3));
 		statusPanel.add(gameStatusLabel);
 		statusPanel.add(new JLabel(" "));
 		statusPanel.add(pairsLabel);
 
-		JPanel cardPanel = new JPanel(new GridLayout(gameHeight, gameWidth));
-
-		boolean hasImages = hasImages();
-		if(hasImages)
-			log("All images found");
-		else
-			log("Images will not be used");
-
-		for(int i = 0; i < gameWidth * gameHeight; i++){
-			cards[i] = new Card(i, imagePath, hasImages);
-			cards[i].addActionListener(new clickListener(cards[i], this));
-			cardPanel.add(cards[i]);
+		JComponent cardPanel;
+		if(canvas){
+			board = new BoardView(gameWidth, gameHeight, icons, this::pickCard);
+			cardPanel = board;
+		} else {
+			cardPanel = new JPanel(new GridLayout(gameHeight, gameWidth));
+			cards = new Card[gameWidth * gameHeight];
+			for(int i = 0; i < gameWidth * gameHeight; i++){
+				cards[i] = new Card(i, icons);
+				cards[i].addActionListener(new clickListener(cards[i], this));
+				cardPanel.add(cards[i]);
+			}
 		}
 
 		JPanel controlPanel = new JPanel(new GridLayout(0,3));
@@ -402,21 +740,39 @@ public class Player extends JFrame implements GameConstants, Runnable{
 		add(gamePanel);
 
 		setSize(550, 500);
-		setTitle("Memory Game - Player " + ( (int) player + 1));
+		setTitle(state.isSpectator() ? "Memory Game - Watching" : "Memory Game - Player " + (state.getPlayer() + 1));
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setVisible(true);
 	}
 
 	/**
-	 * @return true if the required images exist in the directory specified otherwise false
+	 * decode the card images on their own thread so the game isn't held up,
+	 * cards show text until the images are ready
 	 */
-	private boolean hasImages(){
-		boolean hasBackImage = Files.exists(Paths.get(imagePath + "/back.jpg"));
-		for(int i = 0; i < Card.NUM_OF_FRONT_IMAGES; i++){
-			if(!Files.exists(Paths.get(imagePath + "/" + i + ".jpg")))
-				return false;
+	private void loadIcons(){
+		if(imagePath.isEmpty() || !new File(imagePath).exists()){
+			log("Images will not be used");
+			return;
 		}
-		return hasBackImage;
+
+		icons = new IconCache(imagePath);
+		Thread loader = new Thread(() -> {
+			try {
+				icons.load();
+				log("%d images found", icons.getNumOfFaces() + 1);
+				SwingUtilities.invokeLater(() -> {
+					if(board != null)
+						board.updateIcons();
+					if(cards != null)
+						for(Card card : cards)
+							card.updateIcons();
+				});
+			} catch(IOException e){
+				log("Images will not be used: %s", e.getMessage());
+			}
+		}, "image-loader");
+		loader.setDaemon(true);
+		loader.start();
 	}
 
 	/**
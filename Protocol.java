@@ -0,0 +1,279 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * How commands are put on the wire by one side of a connection.
+ * Version 1 sends a command and every one of its arguments as a 4 byte big-endian int,
+ * the receiver knows from the command how many arguments follow.
+ * Version 2 sends every command as a frame: the length of the rest of the frame as a varint,
+ * the command as one byte and its arguments as varints. Numbers below 128 take one byte so most
+ * commands take 3 or 4 bytes, and a receiver skips arguments and commands it doesn't know.
+ * Every connection starts out in version 1. A client that speaks version 2 sends {@code VERSION}
+ * before {@code JOIN} or {@code RESUME}, the server answers with {@code VERSION} and the version
+ * it picked before anything else and both sides speak that version from then on.
+ * A server that doesn't answer speaks version 1
+ */
+public class Protocol implements GameConstants {
+	/**
+	 * Every number is a 4 byte int
+	 */
+	public static final int V1 = 1;
+
+	/**
+	 * Length prefixed frames of varints
+	 */
+	public static final int V2 = 2;
+
+	/**
+	 * The newest version, clients ask for it and servers speak it when asked
+	 */
+	public static final int LATEST = V2;
+
+	/**
+	 * Most arguments any command has, arguments after these are skipped
+	 */
+	public static final int MAX_ARGS = 3;
+
+	/**
+	 * Longest version 2 frame after its length, room for 6 arguments that take 5 bytes
+	 */
+	public static final int MAX_FRAME = 32;
+
+	private int version;
+	private byte[] in = new byte[MAX_FRAME];
+	private ByteBuffer frame = ByteBuffer.wrap(in);
+	private ByteBuffer out = ByteBuffer.allocate(5 + MAX_FRAME);
+
+	/**
+	 * @param version	the version the connection speaks
+	 */
+	public Protocol(int version){
+		this.version = version;
+	}
+
+	/**
+	 * @return the version the connection speaks
+	 */
+	public int getVersion(){
+		return version;
+	}
+
+	/**
+	 * Read a command from a blocking stream
+	 * @param stream	the stream to read from
+	 * @param values	filled with the command followed by its arguments, missing arguments are 0,
+	 * 					needs room for {@link #MAX_ARGS} arguments
+	 * @return the amount of bytes read
+	 * @throws ProtocolException	if the bytes aren't a command
+	 * @throws IOException
+	 */
+	public int read(DataInputStream stream, int[] values) throws IOException {
+		Arrays.fill(values, 0);
+		if(version == V1){
+			values[0] = stream.readInt();
+			int args = arguments(values[0]);
+			for(int i = 1; i <= args; i++)
+				values[i] = stream.readInt();
+			return 4 * (args + 1);
+		}
+
+		int length = 0;
+		int bytes = 0;
+		int b;
+		do {
+			if(bytes == 5)
+				throw new ProtocolException("a frame length longer than 5 bytes");
+			b = stream.readUnsignedByte();
+			length |= (b & 0x7f) << (7 * bytes++);
+		} while((b & 0x80) != 0);
+		if(length < 1 || length > MAX_FRAME)
+			throw new ProtocolException("a frame of " + length + " bytes");
+		stream.readFully(in, 0, length);
+		frame.clear();
+		if(decode(frame, length, values) < 0)
+			throw new ProtocolException("a malformed frame");
+		return bytes + length;
+	}
+
+	/**
+	 * Write a command to a blocking stream, nothing is flushed
+	 * @param stream	the stream to write to
+	 * @param values	the command followed by its arguments
+	 * @throws IOException
+	 */
+	public synchronized void write(DataOutputStream stream, int... values) throws IOException {
+		if(version == V1){
+			for(int value : values)
+				stream.writeInt(value);
+			return;
+		}
+		out.clear();
+		put(out, V2, values);
+		stream.write(out.array(), 0, out.position());
+	}
+
+	/**
+	 * @param cmd	a command
+	 * @return how many arguments follow the command in version 1, 0 for commands that aren't known
+	 */
+	static int arguments(int cmd){
+		switch(cmd){
+			case INIT:
+			case JOIN:
+				return 3;
+			case REVEAL:
+			case HIDE:
+			case SESSION:
+			case RESUME:
+			case PLAYER:
+				return 2;
+			case SETTURN:
+			case RECEIVE:
+			case WAIT:
+			case MATCH:
+			case WIN:
+			case QUIT:
+			case WATCH:
+			case VERSION:
+				return 1;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @param version	the version to encode in
+	 * @param values	the command followed by its arguments
+	 * @return the amount of bytes the command takes
+	 */
+	public static int size(int version, int... values){
+		if(version == V1)
+			return values.length * 4;
+		int payload = payload(values);
+		return varintSize(payload) + payload;
+	}
+
+	/**
+	 * Encode a command, the buffer needs room for {@link #size(int, int...)} bytes
+	 * @param buffer	the buffer to encode into
+	 * @param version	the version to encode in
+	 * @param values	the command followed by its arguments
+	 */
+	public static void put(ByteBuffer buffer, int version, int... values){
+		if(version == V1){
+			for(int value : values)
+				buffer.putInt(value);
+			return;
+		}
+		putVarint(buffer, payload(values));
+		buffer.put((byte) values[0]);
+		for(int i = 1; i < values.length; i++)
+			putVarint(buffer, values[i]);
+	}
+
+	/**
+	 * Decode a command if all of its bytes are in the buffer, nothing is consumed if they aren't
+	 * @param buffer	the buffer to decode from
+	 * @param version	the version the buffer is encoded in
+	 * @param values	filled with the command followed by its arguments, missing arguments are 0,
+	 * 					needs room for {@link #MAX_ARGS} arguments
+	 * @return the amount of values decoded, 0 if the command isn't complete or -1 if the bytes aren't a command
+	 */
+	public static int get(ByteBuffer buffer, int version, int[] values){
+		int start = buffer.position();
+		if(version == V1){
+			if(buffer.remaining() < 4)
+				return 0;
+			int args = arguments(buffer.getInt(start));
+			if(buffer.remaining() < 4 * (args + 1))
+				return 0;
+			Arrays.fill(values, 0);
+			for(int i = 0; i <= args; i++)
+				values[i] = buffer.getInt();
+			return args + 1;
+		}
+
+		int length = 0;
+		for(int bytes = 0; ; bytes++){
+			if(bytes == 5)
+				return -1;
+			if(!buffer.hasRemaining()){
+				buffer.position(start);
+				return 0;
+			}
+			byte b = buffer.get();
+			length |= (b & 0x7f) << (7 * bytes);
+			if(b >= 0)
+				break;
+		}
+		if(length < 1 || length > MAX_FRAME)
+			return -1;
+		if(buffer.remaining() < length){
+			buffer.position(start);
+			return 0;
+		}
+		Arrays.fill(values, 0);
+		return decode(buffer, buffer.position() + length, values);
+	}
+
+	/**
+	 * decode the rest of a frame, arguments that don't fit in the values are skipped
+	 * @param buffer	the buffer positioned after the length of the frame
+	 * @param end		where the frame ends in the buffer
+	 * @param values	filled with the command followed by its arguments
+	 * @return the amount of values decoded or -1 if an argument runs past the end of the frame
+	 */
+	private static int decode(ByteBuffer buffer, int end, int[] values){
+		values[0] = buffer.get() & 0xff;
+		int count = 1;
+		while(buffer.position() < end){
+			int value = 0;
+			byte b;
+			int bytes = 0;
+			do {
+				if(bytes == 5 || buffer.position() == end)
+					return -1;
+				b = buffer.get();
+				value |= (b & 0x7f) << (7 * bytes++);
+			} while(b < 0);
+			if(count < values.length)
+				values[count++] = value;
+		}
+		return count;
+	}
+
+	/**
+	 * @param values	the command followed by its arguments
+	 * @return the amount of bytes of a frame after its length
+	 */
+	private static int payload(int... values){
+		int payload = 1;
+		for(int i = 1; i < values.length; i++)
+			payload += varintSize(values[i]);
+		return payload;
+	}
+
+	/**
+	 * @param value	a number, negative numbers are sent as their unsigned 32 bits
+	 * @return the amount of bytes the number takes as a varint
+	 */
+	static int varintSize(int value){
+		return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+	}
+
+	/**
+	 * @param buffer	the buffer to encode into
+	 * @param value		a number, negative numbers are sent as their unsigned 32 bits
+	 */
+	private static void putVarint(ByteBuffer buffer, int value){
+		while((value & ~0x7f) != 0){
+			buffer.put((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
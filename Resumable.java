@@ -0,0 +1,16 @@
+import java.nio.channels.SocketChannel;
+
+/**
+ * A game players can take their seat in again after losing their connection
+ */
+public interface Resumable {
+
+	/**
+	 * Give a player a new connection and catch it up with the game
+	 * @param player	the player
+	 * @param channel	the player's new connection
+	 * @param version	the version of the protocol the new connection speaks
+	 * @return false if the game is over and the player can't take its seat again
+	 */
+	boolean resume(int player, SocketChannel channel, int version);
+}
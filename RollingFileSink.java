@@ -0,0 +1,88 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes log messages to a file.
+ * Once the file grows past its size limit it is renamed to {@code file.1},
+ * older files are shifted up and the oldest one is deleted
+ */
+public class RollingFileSink implements LogSink {
+	/**
+	 * Default size of a log file before it is rolled over
+	 */
+	public static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+	/**
+	 * Default amount of old log files to keep
+	 */
+	public static final int DEFAULT_MAX_FILES = 5;
+
+	private File file;
+	private long maxBytes;
+	private int maxFiles;
+	private Writer writer;
+	private long size;
+
+	/**
+	 * @param path	the file to write to
+	 * @throws IOException
+	 */
+	public RollingFileSink(String path) throws IOException {
+		this(path, DEFAULT_MAX_BYTES, DEFAULT_MAX_FILES);
+	}
+
+	/**
+	 * @param path		the file to write to
+	 * @param maxBytes	the size of a file before it is rolled over
+	 * @param maxFiles	the amount of old files to keep
+	 * @throws IOException
+	 */
+	public RollingFileSink(String path, long maxBytes, int maxFiles) throws IOException {
+		this.file = new File(path);
+		this.maxBytes = maxBytes;
+		this.maxFiles = maxFiles;
+		open();
+	}
+
+	public void write(String text){
+		try {
+			if(size >= maxBytes)
+				roll();
+			writer.write(text);
+			writer.flush();
+			size += text.getBytes(StandardCharsets.UTF_8).length;
+		} catch(IOException e){
+			System.err.println(e.getMessage());
+		}
+	}
+
+	public void close(){
+		try {
+			writer.close();
+		} catch(IOException e){
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * open the log file for appending
+	 * @throws IOException
+	 */
+	private void open() throws IOException {
+		size = file.length();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * shift the old files up and start a new file
+	 * @throws IOException
+	 */
+	private void roll() throws IOException {
+		writer.close();
+		new File(file.getPath() + "." + maxFiles).delete();
+		for(int i = maxFiles - 1; i > 0; i--)
+			new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+		file.renameTo(new File(file.getPath() + ".1"));
+		open();
+	}
+}
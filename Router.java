@@ -0,0 +1,532 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends players to one of many game servers and passes the bytes between them.
+ * Game servers started with {@code -router} send a {@link Heartbeat} every second, a server
+ * the router stops hearing from is taken out of rotation until it is heard from again.
+ * A new game goes to the server with the fewest connections, players that ask for the same
+ * game are sent to the same server until it has enough of them so its lobby can match them.
+ * {@code RESUME} and {@code WATCH} are tried on every server until one of them has the game
+ */
+public class Router implements Runnable, GameConstants {
+	private static final String PORT_OPTION = "-port";
+	private static final String EXPIRE = "-expire";
+	private static final String LEVEL = "-level";
+	private static final String HELP = "-help";
+
+	/**
+	 * Default amount of ms without a heartbeat before a server is taken out of rotation
+	 */
+	public static final int DEFAULT_EXPIRE = 3 * Heartbeat.INTERVAL;
+
+	/**
+	 * How long connecting to a server may take in ms
+	 */
+	public static final int CONNECT_TIMEOUT = 1000;
+
+	/**
+	 * Size of the buffers bytes are passed on with
+	 */
+	public static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * Size of the longest handshake, VERSION, PLAYER and JOIN with their arguments
+	 */
+	public static final int HELLO_SIZE = 9 * 4;
+
+	private Map<InetSocketAddress, Backend> backends = new ConcurrentHashMap<>();
+	//the server every game that is still filling up is pinned to
+	private Map<Long, Table> tables = new ConcurrentHashMap<>();
+	private ScheduledExecutorService scheduler;
+	private GameLog gameLog;
+	private int port;
+	private int expire;
+
+	/**
+	 * Create router and pass command line arguments
+	 * Optional arguments can be add in the form of '-arg num'
+	 * <ul>
+	 * 	<li>{@code -port n: the port to listen on for players and heartbeats}</li>
+	 *  <li>{@code -expire ms: how long a server can go without a heartbeat}</li>
+	 *  <li>{@code -level l: lowest level that is logged, debug, info or error}</li>
+	 *  <li>{@code -help: show help information}</li>
+	 * </ul>
+	 * @param args	command line arguments
+	 */
+	public static void main(String[] args){
+		int port = PORT;
+		int expire = DEFAULT_EXPIRE;
+		int logLevel = GameLog.INFO;
+
+		boolean help = false;
+
+		if(args.length > 0){
+			help = true;
+			int i = 0;
+			try {
+				while(i < args.length){
+					if(args[i].equals(PORT_OPTION)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							port = Integer.parseInt(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(EXPIRE)){
+						i++;
+						if(i == args.length || isOption(args[i]))
+							break;
+						else {
+							expire = Integer.parseInt(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(LEVEL)){
+						i++;
+						if(i == args.length || isOption(args[i]) || GameLog.level(args[i]) == -1)
+							break;
+						else {
+							logLevel = GameLog.level(args[i]);
+							help = false;
+						}
+					}
+					else if(args[i].equals(HELP))
+						break;
+					i++;
+				}
+			} catch(NumberFormatException e){}
+		}
+
+		if(help){
+			logHelp();
+			return;
+		}
+
+		new Router(port, expire, new GameLog(logLevel).addSink(new ConsoleSink())).run();
+	}
+
+	/**
+	 * @param arg	a command line argument
+	 * @return true if the argument is one of the router options
+	 */
+	private static boolean isOption(String arg){
+		return arg.equals(PORT_OPTION) || arg.equals(EXPIRE) || arg.equals(LEVEL) || arg.equals(HELP);
+	}
+
+	/**
+	 * Create a router that listens for heartbeats and players on the same port once it is run
+	 * @param port		the port to listen on
+	 * @param expire	the amount of ms without a heartbeat before a server is taken out of rotation
+	 * @param gameLog	the log to output to
+	 */
+	public Router(int port, int expire, GameLog gameLog){
+		this.port = port;
+		this.expire = expire;
+		this.gameLog = gameLog.start();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "router-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start taking servers that stop sending heartbeats out of rotation and receiving heartbeats,
+	 * then route players on the calling thread until the port can't be listened on
+	 */
+	public void run(){
+		scheduler.scheduleAtFixedRate(this::expire, expire, Heartbeat.INTERVAL, TimeUnit.MILLISECONDS);
+		(new Thread(() -> heartbeats(port), "router-heartbeats")).start();
+		listen(port);
+	}
+
+	/**
+	 * Receive heartbeats, a server that is heard from for the first time joins the rotation
+	 * @param port	the port to receive heartbeats on
+	 */
+	private void heartbeats(int port){
+		try(DatagramChannel channel = DatagramChannel.open()){
+			channel.bind(new InetSocketAddress(port));
+			ByteBuffer bytes = ByteBuffer.allocate(Heartbeat.SIZE + 1);
+			while(true){
+				bytes.clear();
+				InetSocketAddress from = (InetSocketAddress) channel.receive(bytes);
+				Heartbeat heartbeat = Heartbeat.decode(bytes.flip());
+				if(heartbeat == null)
+					continue;
+				InetSocketAddress address = new InetSocketAddress(from.getAddress(), heartbeat.getPort());
+				Backend backend = backends.computeIfAbsent(address, key -> {
+					log("SERVER %s JOINED", key);
+					return new Backend(key, heartbeat);
+				});
+				backend.heard(heartbeat);
+			}
+		} catch(IOException e){
+			log("HEARTBEATS: %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Take the servers that haven't been heard from in time out of rotation
+	 */
+	private void expire(){
+		long now = System.nanoTime();
+		for(Backend backend : backends.values())
+			if(now - backend.heardAt > TimeUnit.MILLISECONDS.toNanos(expire))
+				leave(backend, "no heartbeat for " + TimeUnit.NANOSECONDS.toMillis(now - backend.heardAt) + "ms");
+	}
+
+	/**
+	 * Take a server out of rotation, it joins again with its next heartbeat
+	 * @param backend	the server
+	 * @param reason	why it is taken out
+	 */
+	private void leave(Backend backend, String reason){
+		if(backends.remove(backend.address, backend))
+			log("SERVER %s LEFT: %s", backend.address, reason);
+	}
+
+	/**
+	 * Listen for players. Every player gets a virtual thread for its handshake
+	 * and two for passing bytes once it has a server
+	 * @param port	the port to listen on
+	 */
+	private void listen(int port){
+		log("%nROUTING PLAYERS FROM PORT %d%n", port);
+
+		try(ServerSocketChannel serverChannel = ServerSocketChannel.open()){
+			serverChannel.bind(new InetSocketAddress(port));
+			while(true){
+				SocketChannel channel = serverChannel.accept();
+				channel.socket().setTcpNoDelay(true);
+				Thread.ofVirtual().name("route").start(() -> route(channel));
+			}
+		} catch(IOException e){
+			log(e.getMessage());
+		}
+	}
+
+	/**
+	 * Read what the player asks for and connect it to a server.
+	 * The bytes read are sent on to the server so it sees the same handshake,
+	 * the version of the protocol is left for the server to pick.
+	 * {@code VERSION} and {@code PLAYER} can each be sent once before the command,
+	 * a client that sends one of them again is closed
+	 * @param client	the player's socket
+	 */
+	private void route(SocketChannel client){
+		Socket socket = client.socket();
+		ByteBuffer hello = ByteBuffer.allocate(HELLO_SIZE);
+		int cmd = -1;
+		int[] args = new int[3];
+		try {
+			socket.setSoTimeout(GameServer.HANDSHAKE_TIMEOUT);
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			cmd = in.readInt();
+			hello.putInt(cmd);
+			boolean versioned = false;
+			boolean named = false;
+			while(cmd == VERSION || cmd == PLAYER){
+				if(cmd == VERSION ? versioned : named)
+					throw new ProtocolException(commandString(cmd) + " sent twice");
+				versioned |= cmd == VERSION;
+				named |= cmd == PLAYER;
+				for(int i = Protocol.arguments(cmd); i > 0; i--)
+					hello.putInt(in.readInt());
+				cmd = in.readInt();
+				hello.putInt(cmd);
+			}
+			int count = cmd == JOIN ? 3 : cmd == RESUME ? 2 : cmd == WATCH ? 1 : 0;
+			for(int i = 0; i < count; i++){
+				args[i] = in.readInt();
+				hello.putInt(args[i]);
+			}
+		} catch(SocketTimeoutException e){
+			//clients from before the lobby never send JOIN
+			cmd = -1;
+		} catch(ProtocolException | BufferOverflowException e){
+			log(GameLog.DEBUG, "HANDSHAKE: %s from %s", e, socket.getRemoteSocketAddress());
+			close(client);
+			return;
+		} catch(IOException e){
+			close(client);
+			return;
+		}
+		hello.flip();
+
+		try {
+			socket.setSoTimeout(0);
+			if(cmd == RESUME || cmd == WATCH)
+				probe(client, hello, cmd);
+			else if(cmd == JOIN)
+				join(client, hello, args[0], args[1], args[2]);
+			else
+				join(client, hello, 0, 0, 0);
+		} catch(IOException e){
+			log(e.getMessage());
+			close(client);
+		}
+	}
+
+	/**
+	 * Send a player to the server its game is filling up on or to the server with the fewest connections.
+	 * A server that can't be reached is taken out of rotation and the next one is tried
+	 * @param client		the player's socket
+	 * @param hello			the handshake to send on
+	 * @param players		the amount of players asked for, 0 for the server's default
+	 * @param gameWidth		the width asked for, 0 for the server's default
+	 * @param gameHeight	the height asked for, 0 for the server's default
+	 * @throws IOException
+	 */
+	private void join(SocketChannel client, ByteBuffer hello, int players, int gameWidth, int gameHeight) throws IOException {
+		players = players == 0 ? 0 : GameServer.clamp(players, 0, GameServer.MIN_CLIENTS, GameServer.MAX_CLIENTS);
+		gameWidth = gameWidth == 0 ? 0 : GameServer.clamp(gameWidth, 0, GameServer.MIN_GAME_SIZE, GameServer.MAX_GAME_SIZE);
+		gameHeight = gameHeight == 0 ? 0 : GameServer.clamp(gameHeight, 0, GameServer.MIN_GAME_SIZE, GameServer.MAX_GAME_SIZE);
+		long key = (long) players << 32 | gameWidth << 16 | gameHeight;
+
+		Backend backend;
+		while((backend = seat(key, players)) != null){
+			SocketChannel server = connect(backend);
+			if(server == null)
+				continue;
+			log(GameLog.DEBUG, "JOIN: %s to %s", client.socket().getRemoteSocketAddress(), backend.address);
+			server.write(hello);
+			pipe(client, server, null);
+			return;
+		}
+		log("JOIN: no server for %s", client.socket().getRemoteSocketAddress());
+		close(client);
+	}
+
+	/**
+	 * @param key		the game asked for
+	 * @param players	the amount of players asked for, 0 for the server's default
+	 * @return the server to send a player of the game to or null if there is none
+	 */
+	private synchronized Backend seat(long key, int players){
+		Table table = tables.get(key);
+		if(table != null && table.seats > 0 && backends.get(table.backend.address) == table.backend){
+			table.seats--;
+			table.backend.routed.incrementAndGet();
+			return table.backend;
+		}
+
+		Backend least = null;
+		for(Backend backend : backends.values())
+			if(least == null || backend.load() < least.load())
+				least = backend;
+		if(least == null){
+			tables.remove(key);
+			return null;
+		}
+		int seats = (players == 0 ? least.heartbeat.getPlayers() : players) - 1;
+		tables.put(key, new Table(least, seats));
+		least.routed.incrementAndGet();
+		return least;
+	}
+
+	/**
+	 * Try the handshake on every server until one of them doesn't answer with {@code DONE}
+	 * @param client	the player's socket
+	 * @param hello		the handshake to send on
+	 * @param cmd		the command of the handshake
+	 * @throws IOException
+	 */
+	private void probe(SocketChannel client, ByteBuffer hello, int cmd) throws IOException {
+		List<Backend> candidates = new ArrayList<>(backends.values());
+		ByteBuffer answer = ByteBuffer.allocate(4);
+		for(Backend backend : candidates){
+			SocketChannel server = connect(backend);
+			if(server == null)
+				continue;
+			try {
+				server.write(hello.duplicate());
+				answer.clear();
+				server.socket().setSoTimeout(CONNECT_TIMEOUT);
+				DataInputStream in = new DataInputStream(server.socket().getInputStream());
+				int first = in.readInt();
+				if(first != DONE){
+					server.socket().setSoTimeout(0);
+					log(GameLog.DEBUG, "%s: %s to %s", commandString(cmd), client.socket().getRemoteSocketAddress(), backend.address);
+					pipe(client, server, answer.putInt(first).flip());
+					return;
+				}
+			} catch(IOException e){}
+			close(server);
+		}
+		client.write(ByteBuffer.allocate(4).putInt(DONE).flip());
+		close(client);
+	}
+
+	/**
+	 * Connect to a server, a server that can't be reached is taken out of rotation
+	 * @param backend	the server
+	 * @return the socket or null if the server can't be reached
+	 */
+	private SocketChannel connect(Backend backend){
+		SocketChannel server = null;
+		try {
+			server = SocketChannel.open();
+			server.socket().connect(backend.address, CONNECT_TIMEOUT);
+			server.socket().setTcpNoDelay(true);
+			return server;
+		} catch(IOException e){
+			if(server != null)
+				close(server);
+			leave(backend, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Pass bytes both ways between a player and a server until either of them closes
+	 * @param client	the player's socket
+	 * @param server	the server's socket
+	 * @param first		bytes already read from the server, null if there are none
+	 * @throws IOException
+	 */
+	private void pipe(SocketChannel client, SocketChannel server, ByteBuffer first) throws IOException {
+		if(first != null)
+			while(first.hasRemaining())
+				client.write(first);
+		Thread.ofVirtual().name("route-up").start(() -> copy(client, server));
+		copy(server, client);
+	}
+
+	/**
+	 * Copy bytes from one socket to another until either of them closes, then close both
+	 * @param from	the socket to read from
+	 * @param to	the socket to write to
+	 */
+	private static void copy(SocketChannel from, SocketChannel to){
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			while(from.read(buffer) != -1){
+				buffer.flip();
+				while(buffer.hasRemaining())
+					to.write(buffer);
+				buffer.clear();
+			}
+		} catch(IOException e){
+			//either side went away
+		} finally {
+			close(from);
+			close(to);
+		}
+	}
+
+	/**
+	 * @param channel	a socket to close
+	 */
+	private static void close(SocketChannel channel){
+		try {
+			channel.close();
+		} catch(IOException e){}
+	}
+
+	/**
+	 * output help to the console
+	 */
+	public static void logHelp(){
+		System.out.println("Sends memory game clients to one of many game servers\n");
+		System.out.println("java Router [" + PORT_OPTION + " <port>] [" + EXPIRE + " <ms>] [" + LEVEL + " <debug|info|error>] [" + HELP + "]\n");
+		System.out.println("\t" + PORT_OPTION + "\t\tThe port to listen on for players and heartbeats, defaults to " + PORT);
+		System.out.println("\t" + EXPIRE + "\t\tHow many milliseconds a server can go without a heartbeat before no more players are sent to it, defaults to " + DEFAULT_EXPIRE);
+		System.out.println("\t" + LEVEL + "\t\tThe lowest level that is logged, debug logs every player, defaults to info");
+		System.out.println("\t" + HELP + "\t\tShows this help information");
+		System.out.println("\nstart game servers with -port <port> -router <router host>[:<port>]");
+	}
+
+	/**
+	 * output log messages to the router log
+	 * @param msg	the message to output
+	 * @param vals	values used in place of tokens specified in msg
+	 */
+	private void log(String msg, Object... vals){
+		log(GameLog.INFO, msg, vals);
+	}
+
+	/**
+	 * output log messages to the router log
+	 * @param level	the level of the message
+	 * @param msg	the message to output
+	 * @param vals	values used in place of tokens specified in msg
+	 */
+	private void log(int level, String msg, Object... vals){
+		if(gameLog.isEnabled(level))
+			gameLog.log(level, GameLog.NO_GAME, msg, vals);
+	}
+
+	/**
+	 * A game server and what it last said about itself
+	 */
+	static class Backend {
+		private InetSocketAddress address;
+		private volatile Heartbeat heartbeat;
+		private volatile long heardAt;
+		//players sent to the server since its last heartbeat
+		private AtomicInteger routed = new AtomicInteger();
+
+		/**
+		 * @param address	the address the server listens on for players
+		 * @param heartbeat	the first heartbeat the server sent
+		 */
+		Backend(InetSocketAddress address, Heartbeat heartbeat){
+			this.address = address;
+			heard(heartbeat);
+		}
+
+		/**
+		 * @param heartbeat	the heartbeat the server sent
+		 */
+		void heard(Heartbeat heartbeat){
+			this.heartbeat = heartbeat;
+			this.heardAt = System.nanoTime();
+			routed.set(0);
+		}
+
+		/**
+		 * @return the connections the server reported and the players sent to it since
+		 */
+		long load(){
+			return heartbeat.getConnections() + routed.get();
+		}
+	}
+
+	/**
+	 * A game that is filling up on a server
+	 */
+	static class Table {
+		private Backend backend;
+		private int seats;
+
+		/**
+		 * @param backend	the server the game is filling up on
+		 * @param seats		the amount of players still needed
+		 */
+		Table(Backend backend, int seats){
+			this.backend = backend;
+			this.seats = seats;
+		}
+	}
+}
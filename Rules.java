@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+/**
+ * The rules of a game without any sockets, logging or timing.
+ * Players take turns picking 2 cards, a pair gives the player a point and a mismatched pair
+ * stays face up until it has been shown. Either way the turn passes to the next player
+ * once the pair is done with, the game is over when every pair has been matched.
+ * Servers tell players about every step, the simulator plays millions of games with the
+ * same rules, so a new game reuses the board and the points and only allocates the
+ * random generator of its shuffle
+ */
+public class Rules {
+	/**
+	 * Points a player gets for a pair
+	 */
+	public static final int POINTS_TO_GIVE = 1;
+
+	/**
+	 * The card is already face up, nothing happened
+	 */
+	public static final int IGNORED = 0;
+
+	/**
+	 * The card is the first card of the turn
+	 */
+	public static final int PICKED = 1;
+
+	/**
+	 * The card matched the first card of the turn, the player gets a point and the turn passes
+	 */
+	public static final int MATCHED = 2;
+
+	/**
+	 * The card didn't match the first card of the turn, the turn is over once the pair has been shown
+	 */
+	public static final int MISSED = 3;
+
+	/**
+	 * The card matched the last pair, the game is over
+	 */
+	public static final int OVER = 4;
+
+	private Board board;
+	private int[] points;
+	private int currentPlayer = 0;
+	private int currentPick = 0;
+	private int[] chosenCards = new int[2];
+
+	/**
+	 * @param players	the amount of players
+	 * @param cards		the number of cards on the board
+	 * @param seed		the seed the board is shuffled with
+	 */
+	public Rules(int players, int cards, long seed){
+		board = new Board(cards, seed);
+		points = new int[players];
+	}
+
+	/**
+	 * Start a new game with the same players on a board of the same size
+	 * @param seed	the seed the board is shuffled with
+	 */
+	public void reset(long seed){
+		board.reset(seed);
+		Arrays.fill(points, 0);
+		currentPlayer = 0;
+		currentPick = 0;
+	}
+
+	/**
+	 * Turn a card face up for the current player
+	 * @param card	the card, it has to be on the board
+	 * @return what happened, {@link #IGNORED}, {@link #PICKED}, {@link #MATCHED}, {@link #MISSED} or {@link #OVER}
+	 */
+	public int reveal(int card){
+		if(board.isMatched(card) || (currentPick == 1 && chosenCards[0] == card))
+			return IGNORED;
+		chosenCards[currentPick] = card;
+		currentPick = ++currentPick % 2;
+		if(currentPick == 1)
+			return PICKED;
+		if(!board.isPair(chosenCards[0], chosenCards[1]))
+			return MISSED;
+		points[currentPlayer] += POINTS_TO_GIVE;
+		board.match(chosenCards[0], chosenCards[1]);
+		return board.pairsLeft() == 0 ? OVER : MATCHED;
+	}
+
+	/**
+	 * End a turn once its pair is done with, {@link #MATCHED} and {@link #MISSED} pairs both
+	 * hand the turn to the next player
+	 */
+	public void endPair(){
+		currentPlayer = ++currentPlayer % points.length;
+	}
+
+	/**
+	 * @param quitter	the player that quit the game or -1
+	 * @return the player that wins the game as it stands
+	 */
+	public int winner(int quitter){
+		return winner(points, currentPlayer, quitter);
+	}
+
+	/**
+	 * The player with the most points wins, ties go to the current player
+	 * and the player who quit can't win
+	 * @param points		the points of every player
+	 * @param currentPlayer	the player whose turn it is
+	 * @param quitter		the player that quit the game or -1
+	 * @return the winner
+	 */
+	static int winner(int[] points, int currentPlayer, int quitter){
+		int mostPoints = -1;
+		int player = 0;
+
+		for(int i = 0; i < points.length; i++){
+			if(points[i] > mostPoints && i != quitter){
+				mostPoints = points[i];
+				player = i;
+			}
+		}
+
+		if(points[currentPlayer] == mostPoints && currentPlayer != quitter)
+			player = currentPlayer;
+		return player;
+	}
+
+	/**
+	 * @return the cards of the game
+	 */
+	public Board getBoard(){
+		return board;
+	}
+
+	/**
+	 * @return the amount of players
+	 */
+	public int getPlayers(){
+		return points.length;
+	}
+
+	/**
+	 * @return the player whose turn it is
+	 */
+	public int getCurrentPlayer(){
+		return currentPlayer;
+	}
+
+	/**
+	 * @param player	a player
+	 * @return the points of the player
+	 */
+	public int getPoints(int player){
+		return points[player];
+	}
+
+	/**
+	 * @return the points of every player, not to be changed
+	 */
+	public int[] getPoints(){
+		return points;
+	}
+
+	/**
+	 * @return how many cards have been picked this turn, 0 once the second card has been picked
+	 */
+	public int getPick(){
+		return currentPick;
+	}
+
+	/**
+	 * @param pick	0 for the first card of the turn and 1 for the second
+	 * @return the card that was picked, the last turn's cards until the next one is picked
+	 */
+	public int getChosen(int pick){
+		return chosenCards[pick];
+	}
+}
@@ -0,0 +1,135 @@
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The seats of the games being played and the tokens players can take them again with.
+ * Every player gets a token with {@code SESSION} when its game starts, a player that loses its
+ * connection has the grace period to send the token with {@code RESUME} before it forfeits the game
+ */
+public class Sessions {
+	/**
+	 * Default amount of ms a player has to come back
+	 */
+	public static final int DEFAULT_GRACE = 30000;
+
+	//keeps both halves of a token negative, no command is negative
+	private static final long SIGN_BITS = 0x8000_0000_8000_0000L;
+
+	private ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+	private SecureRandom random = new SecureRandom();
+	private int grace;
+
+	/**
+	 * @param grace	the amount of ms a player has to come back
+	 */
+	public Sessions(int grace){
+		this.grace = grace;
+	}
+
+	/**
+	 * @return the amount of ms a player has to come back
+	 */
+	public int getGrace(){
+		return grace;
+	}
+
+	/**
+	 * Hand out a token for a seat
+	 * @param game		the game
+	 * @param player	the player the seat belongs to
+	 * @return the token
+	 */
+	public long create(Resumable game, int player){
+		Session session = new Session(game, player);
+		long token;
+		do {
+			token = random.nextLong() | SIGN_BITS;
+		} while(sessions.putIfAbsent(token, session) != null);
+		return token;
+	}
+
+	/**
+	 * Take back a token that was handed out before the server restarted
+	 * @param token		the token
+	 * @param game		the game
+	 * @param player	the player the seat belongs to
+	 */
+	public void restore(long token, Resumable game, int player){
+		sessions.put(token, new Session(game, player));
+	}
+
+	/**
+	 * @param token	a token
+	 * @return the seat of the token or null if there is none
+	 */
+	public Session get(long token){
+		return sessions.get(token);
+	}
+
+	/**
+	 * Forget a token once its game is over
+	 * @param token	the token
+	 */
+	public void remove(long token){
+		sessions.remove(token);
+	}
+
+	/**
+	 * @return the amount of seats
+	 */
+	public int size(){
+		return sessions.size();
+	}
+
+	/**
+	 * @param token	a token
+	 * @return the half of the token that is sent first
+	 */
+	public static int high(long token){
+		return (int) (token >>> 32);
+	}
+
+	/**
+	 * @param token	a token
+	 * @return the half of the token that is sent last
+	 */
+	public static int low(long token){
+		return (int) token;
+	}
+
+	/**
+	 * @param high	the half of the token that is sent first
+	 * @param low	the half of the token that is sent last
+	 * @return the token
+	 */
+	public static long token(int high, int low){
+		return (long) high << 32 | (low & 0xffffffffL);
+	}
+
+	/**
+	 * A player's seat in a game
+	 */
+	public static class Session {
+		private Resumable game;
+		private int player;
+
+		Session(Resumable game, int player){
+			this.game = game;
+			this.player = player;
+		}
+
+		/**
+		 * @return the game
+		 */
+		public Resumable getGame(){
+			return game;
+		}
+
+		/**
+		 * @return the player the seat belongs to
+		 */
+		public int getPlayer(){
+			return player;
+		}
+	}
+}
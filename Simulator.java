@@ -0,0 +1,507 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays bot games with the server's {@link Rules} on every core to see how balanced the game is,
+ * how often every seat wins for every board size and amount of players.
+ * Games are split over a fork/join pool, every task plays its games on one board and one set of bots
+ * that are reset between games. Every game is seeded by its number so a run gives the same results
+ * no matter how it is split or how many threads play it
+ */
+public class Simulator {
+	private static final String GAMES = "-games";
+	private static final String PLAYERS = "-players";
+	private static final String BOARDS = "-boards";
+	private static final String MEMORY = "-memory";
+	private static final String SEED = "-seed";
+	private static final String THREADS = "-threads";
+	private static final String HELP = "-help";
+
+	/**
+	 * The most games a task plays before it is split
+	 */
+	public static final int GAMES_PER_TASK = 1024;
+
+	private ForkJoinPool pool;
+	private long numOfGames;
+	private double memory;
+	private long seed;
+
+	/**
+	 * Simulate games
+	 * <ul>
+	 * 	<li>{@code -games n: the amount of games for every board and amount of players}</li>
+	 *  <li>{@code -players n,m: the amounts of players}</li>
+	 *  <li>{@code -boards WxH,WxH: the board sizes}</li>
+	 *  <li>{@code -memory p: the chance a bot remembers a card it has seen}</li>
+	 *  <li>{@code -seed n: the seed of the first game}</li>
+	 *  <li>{@code -threads n: the amount of threads to play on}</li>
+	 *  <li>{@code -help: show help information}</li>
+	 * </ul>
+	 * @param args	command line arguments
+	 */
+	public static void main(String[] args){
+		long numOfGames = 1_000_000;
+		int[] players = {2};
+		int[][] boards = {{4, 4}};
+		double memory = 1;
+		long seed = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		boolean help = false;
+
+		int i = 0;
+		try {
+			while(i < args.length){
+				if(args[i].equals(GAMES)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					numOfGames = Math.max(1, Long.parseLong(args[i]));
+				}
+				else if(args[i].equals(PLAYERS)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					String[] list = args[i].split(",");
+					players = new int[list.length];
+					for(int j = 0; j < list.length; j++)
+						players[j] = GameServer.clamp(Integer.parseInt(list[j]), 2, GameServer.MIN_CLIENTS, GameServer.MAX_CLIENTS);
+				}
+				else if(args[i].equals(BOARDS)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					String[] list = args[i].split(",");
+					boards = new int[list.length][];
+					for(int j = 0; j < list.length; j++){
+						String[] size = list[j].split("x");
+						if(size.length != 2)
+							throw new NumberFormatException(list[j]);
+						int width = GameServer.clamp(Integer.parseInt(size[0]), GameServer.MIN_GAME_SIZE, GameServer.MIN_GAME_SIZE, GameServer.MAX_GAME_SIZE);
+						int height = GameServer.clamp(Integer.parseInt(size[1]), GameServer.MIN_GAME_SIZE, GameServer.MIN_GAME_SIZE, GameServer.MAX_GAME_SIZE);
+						//like the server, a board without pairs for every card isn't played
+						if((width * height) % 2 != 0)
+							width = height = GameServer.MIN_GAME_SIZE;
+						boards[j] = new int[]{width, height};
+					}
+				}
+				else if(args[i].equals(MEMORY)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					memory = Math.min(Math.max(Double.parseDouble(args[i]), 0), 1);
+				}
+				else if(args[i].equals(SEED)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					seed = Long.parseLong(args[i]);
+				}
+				else if(args[i].equals(THREADS)){
+					i++;
+					if(i == args.length || isOption(args[i])){
+						help = true;
+						break;
+					}
+					threads = Math.max(1, Integer.parseInt(args[i]));
+				}
+				else {
+					help = true;
+					break;
+				}
+				i++;
+			}
+		} catch(NumberFormatException e){
+			help = true;
+		}
+
+		if(help){
+			logHelp();
+			return;
+		}
+
+		Simulator simulator = new Simulator(numOfGames, memory, seed, threads);
+		log("%d games for every board and amount of players on %d threads, bots remember %.0f%% of the cards they see%n", numOfGames, threads, memory * 100);
+		for(int[] board : boards)
+			for(int numOfPlayers : players)
+				simulator.report(board[0], board[1], numOfPlayers);
+	}
+
+	/**
+	 * @param arg	a command line argument
+	 * @return true if the argument is one of the simulator options
+	 */
+	private static boolean isOption(String arg){
+		return arg.equals(GAMES) || arg.equals(PLAYERS) || arg.equals(BOARDS) || arg.equals(MEMORY) || arg.equals(SEED)
+			|| arg.equals(THREADS) || arg.equals(HELP);
+	}
+
+	/**
+	 * @param numOfGames	the amount of games for every board and amount of players
+	 * @param memory		the chance a bot remembers a card it has seen, from 0 to 1
+	 * @param seed			the seed of the first game
+	 * @param threads		the amount of threads to play on
+	 */
+	public Simulator(long numOfGames, double memory, long seed, int threads){
+		this.numOfGames = numOfGames;
+		this.memory = memory;
+		this.seed = seed;
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Play the games on a board size with an amount of players
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 * @param players		the amount of players
+	 * @return the totals of the games
+	 */
+	public Tally simulate(int gameWidth, int gameHeight, int players){
+		return pool.invoke(new Games(gameWidth * gameHeight, players, 0, numOfGames));
+	}
+
+	/**
+	 * Play the games on a board size with an amount of players and output how they went
+	 * @param gameWidth		the width of the game board
+	 * @param gameHeight	the height of the game board
+	 * @param players		the amount of players
+	 */
+	private void report(int gameWidth, int gameHeight, int players){
+		long start = System.nanoTime();
+		Tally tally = simulate(gameWidth, gameHeight, players);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		StringBuilder wins = new StringBuilder();
+		for(int i = 0; i < players; i++)
+			wins.append(String.format(" %d: %.2f%%", i + 1, tally.getWins(i) * 100.0 / tally.getGames()));
+		log("%dx%d, %d players: %d games in %.2fs (%.0f/s), %.1f turns a game, wins by player%s, %.2f%% won on a tie",
+			gameWidth, gameHeight, players, tally.getGames(), seconds, tally.getGames() / seconds,
+			tally.getTurns() / (double) tally.getGames(), wins, tally.getTies() * 100.0 / tally.getGames());
+	}
+
+	/**
+	 * @param game	the number of a game
+	 * @return the random numbers of the game, the same for every run with the same seed
+	 */
+	private SplittableRandom random(long game){
+		return new SplittableRandom(seed + game * 0x9e3779b97f4a7c15L);
+	}
+
+	/**
+	 * A range of games, split in half until it is small enough to play on one thread
+	 */
+	private class Games extends RecursiveTask<Tally> {
+		private static final long serialVersionUID = 1L;
+
+		private int cards;
+		private int players;
+		private long from;
+		private long to;
+
+		/**
+		 * @param cards		the number of cards on the board
+		 * @param players	the amount of players
+		 * @param from		the number of the first game
+		 * @param to		the number after the last game
+		 */
+		Games(int cards, int players, long from, long to){
+			this.cards = cards;
+			this.players = players;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Tally compute(){
+			if(to - from > GAMES_PER_TASK){
+				long middle = (from + to) >>> 1;
+				Games first = new Games(cards, players, from, middle);
+				first.fork();
+				Tally tally = new Games(cards, players, middle, to).compute();
+				return tally.add(first.join());
+			}
+
+			Tally tally = new Tally(players);
+			Rules rules = new Rules(players, cards, 0);
+			Bots bots = new Bots(cards, memory);
+			for(long game = from; game < to; game++)
+				play(rules, bots, random(game), tally);
+			return tally;
+		}
+
+		/**
+		 * play a game until every pair has been matched
+		 * @param rules		the rules, reset for the game
+		 * @param bots		the bots, reset for the game
+		 * @param random	the random numbers of the game
+		 * @param tally		where the game is counted
+		 */
+		private void play(Rules rules, Bots bots, SplittableRandom random, Tally tally){
+			rules.reset(random.nextLong());
+			bots.reset(random);
+			Board board = rules.getBoard();
+			int turns = 1;
+			while(true){
+				int first = bots.first();
+				rules.reveal(first);
+				bots.seen(first, board.value(first), -1);
+				int second = bots.second(first);
+				int outcome = rules.reveal(second);
+				bots.seen(second, board.value(second), first);
+				if(outcome != Rules.MISSED)
+					bots.matched(first, second, board.value(first));
+				if(outcome == Rules.OVER)
+					break;
+				rules.endPair();
+				turns++;
+			}
+			tally.add(rules, turns);
+		}
+	}
+
+	/**
+	 * What every bot knows about the board, the bots share it since every card is revealed to all of them.
+	 * The cards nobody remembers are kept in a list so a random one is picked in constant time,
+	 * cards are remembered by their value until their pair shows up
+	 */
+	static class Bots {
+		private double memory;
+		private SplittableRandom random;
+		//the cards nobody remembers and where every card is in that list, -1 for remembered cards
+		private int[] unknown;
+		private int[] slot;
+		private int unknownCount;
+		//for every value, the one card of it that is remembered or -1
+		private int[] known;
+		//pairs where both cards are remembered, 2 cards for every pair
+		private int[] pairs;
+		private int pairCount;
+		//the remembered card that matches the first card of the turn or -1
+		private int partner = -1;
+
+		/**
+		 * @param cards		the number of cards on the board
+		 * @param memory	the chance a card that is seen is remembered
+		 */
+		Bots(int cards, double memory){
+			this.memory = memory;
+			unknown = new int[cards];
+			slot = new int[cards];
+			known = new int[cards / 2];
+			pairs = new int[cards];
+		}
+
+		/**
+		 * forget every card for a new game
+		 * @param random	the random numbers of the game
+		 */
+		void reset(SplittableRandom random){
+			this.random = random;
+			for(int i = 0; i < unknown.length; i++){
+				unknown[i] = i;
+				slot[i] = i;
+			}
+			unknownCount = unknown.length;
+			Arrays.fill(known, -1);
+			pairCount = 0;
+			partner = -1;
+		}
+
+		/**
+		 * @return the first card of a turn, a remembered pair or a card nobody remembers
+		 */
+		int first(){
+			if(pairCount > 0)
+				return pairs[pairCount - 2];
+			return unknown[random.nextInt(unknownCount)];
+		}
+
+		/**
+		 * @param first	the first card of the turn
+		 * @return the second card of the turn, the first card's pair if it is remembered
+		 */
+		int second(int first){
+			if(pairCount > 0 && pairs[pairCount - 2] == first){
+				pairCount -= 2;
+				return pairs[pairCount + 1];
+			}
+			if(partner >= 0)
+				return partner;
+			int card;
+			do {
+				card = unknown[random.nextInt(unknownCount)];
+			} while(card == first);
+			return card;
+		}
+
+		/**
+		 * learn a card that was revealed
+		 * @param card	the card
+		 * @param value	the value of the card
+		 * @param first	the first card of the turn or -1 if this is the first card
+		 */
+		void seen(int card, int value, int first){
+			if(first < 0)
+				partner = -1;
+			if(slot[card] < 0)
+				return;
+			int other = known[value];
+			if(other >= 0){
+				if(first < 0)
+					partner = other;
+				else if(other != first){
+					pairs[pairCount++] = other;
+					pairs[pairCount++] = card;
+				}
+				known[value] = -1;
+				remove(card);
+			} else if(random.nextDouble() < memory){
+				known[value] = card;
+				remove(card);
+			}
+		}
+
+		/**
+		 * forget a pair that was matched
+		 * @param card1	a card of the pair
+		 * @param card2	the other card of the pair
+		 * @param value	the value of the pair
+		 */
+		void matched(int card1, int card2, int value){
+			remove(card1);
+			remove(card2);
+			known[value] = -1;
+		}
+
+		/**
+		 * take a card off the list of cards nobody remembers
+		 * @param card	the card
+		 */
+		private void remove(int card){
+			int i = slot[card];
+			if(i < 0)
+				return;
+			int last = unknown[--unknownCount];
+			unknown[i] = last;
+			slot[last] = i;
+			slot[card] = -1;
+		}
+	}
+
+	/**
+	 * The totals of a range of games
+	 */
+	public static class Tally {
+		private long games;
+		private long turns;
+		private long ties;
+		private long[] wins;
+
+		/**
+		 * @param players	the amount of players
+		 */
+		Tally(int players){
+			wins = new long[players];
+		}
+
+		/**
+		 * count a game that is over
+		 * @param rules	the rules the game was played with
+		 * @param turns	the amount of turns the game took
+		 */
+		void add(Rules rules, int turns){
+			int winner = rules.winner(-1);
+			games++;
+			this.turns += turns;
+			wins[winner]++;
+			for(int i = 0; i < rules.getPlayers(); i++){
+				if(i != winner && rules.getPoints(i) == rules.getPoints(winner)){
+					ties++;
+					break;
+				}
+			}
+		}
+
+		/**
+		 * @param other	the totals of other games
+		 * @return this tally with the other games added
+		 */
+		Tally add(Tally other){
+			games += other.games;
+			turns += other.turns;
+			ties += other.ties;
+			for(int i = 0; i < wins.length; i++)
+				wins[i] += other.wins[i];
+			return this;
+		}
+
+		/**
+		 * @return the amount of games
+		 */
+		public long getGames(){
+			return games;
+		}
+
+		/**
+		 * @return the amount of turns of every game together
+		 */
+		public long getTurns(){
+			return turns;
+		}
+
+		/**
+		 * @return the amount of games the winner was tied with another player and won for having the last turn
+		 */
+		public long getTies(){
+			return ties;
+		}
+
+		/**
+		 * @param player	a player
+		 * @return the amount of games the player won
+		 */
+		public long getWins(int player){
+			return wins[player];
+		}
+	}
+
+	/**
+	 * output help to the console
+	 */
+	public static void logHelp(){
+		System.out.println("Plays memory games between bots on every core to see how balanced the game is\n");
+		System.out.println("java Simulator [" + GAMES + " <games>] [" + PLAYERS + " <players,...>] [" + BOARDS + " <width>x<height>,...] [" + MEMORY + " <chance>] ["
+			+ SEED + " <seed>] [" + THREADS + " <threads>] [" + HELP + "]\n");
+		System.out.println("\t" + GAMES + "\t\tThe amount of games for every board and amount of players, defaults to 1000000");
+		System.out.println("\t" + PLAYERS + "\tThe amounts of players, separated by commas, defaults to 2");
+		System.out.println("\t" + BOARDS + "\t\tThe board sizes, separated by commas, defaults to 4x4");
+		System.out.println("\t" + MEMORY + "\t\tThe chance a bot remembers a card it has seen, from 0 to 1, defaults to 1");
+		System.out.println("\t" + SEED + "\t\tThe seed of the first game, the same seed gives the same results, defaults to 0");
+		System.out.println("\t" + THREADS + "\tThe amount of threads to play on, defaults to the amount of cores");
+		System.out.println("\t" + HELP + "\t\tShows this help information");
+		System.out.println("\nwidth and height are restricted to values of " + GameServer.MIN_GAME_SIZE + " - " + GameServer.MAX_GAME_SIZE
+			+ ", players to " + GameServer.MIN_CLIENTS + " - " + GameServer.MAX_CLIENTS);
+	}
+
+	/**
+	 * output log messages to the console
+	 * @param msg	the message to output
+	 * @param vals	values used in place of tokens specified in msg
+	 */
+	private static void log(String msg, Object... vals){
+		System.out.println(String.format(msg, vals));
+	}
+}
@@ -0,0 +1,59 @@
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * Shows log messages in a text area.
+ * Text is only appended on the event dispatch thread and
+ * only the last lines are kept so a long running server doesn't keep its whole log in memory
+ */
+public class TextAreaSink implements LogSink {
+	/**
+	 * Default amount of lines kept in the text area
+	 */
+	public static final int DEFAULT_MAX_LINES = 5000;
+
+	private JTextArea logArea;
+	private int maxLines;
+
+	/**
+	 * @param logArea	the text area to show messages in
+	 */
+	public TextAreaSink(JTextArea logArea){
+		this(logArea, DEFAULT_MAX_LINES);
+	}
+
+	/**
+	 * @param logArea	the text area to show messages in
+	 * @param maxLines	the amount of lines to keep
+	 */
+	public TextAreaSink(JTextArea logArea, int maxLines){
+		this.logArea = logArea;
+		this.maxLines = maxLines;
+	}
+
+	public void write(String text){
+		SwingUtilities.invokeLater(() -> append(text));
+	}
+
+	/**
+	 * append text and remove the oldest lines
+	 * @param text	the text to append
+	 */
+	private void append(String text){
+		logArea.append(text);
+		Document document = logArea.getDocument();
+		Element root = document.getDefaultRootElement();
+		int excess = root.getElementCount() - maxLines;
+		if(excess > 0){
+			try {
+				document.remove(0, root.getElement(excess - 1).getEndOffset());
+			} catch(BadLocationException e){
+				//the offsets come from the document itself
+			}
+		}
+		logArea.setCaretPosition(document.getLength());
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Limits how many commands a player's connection can send.
+ * A connection can send a burst of commands at once and then one for every 1/rate seconds
+ * that pass, time is counted in nanoseconds so refilling is a subtraction and a compare.
+ * Not thread safe, every connection has its own bucket and only the game reading it takes from it
+ */
+public class TokenBucket {
+	/**
+	 * Default amount of commands a player can send per second
+	 */
+	public static final int DEFAULT_RATE = 50;
+
+	private long interval;
+	private long capacity;
+	private long credit;
+	private long last;
+
+	/**
+	 * Create a full bucket
+	 * @param rate	the amount of commands per second, 0 for no limit
+	 */
+	public TokenBucket(int rate){
+		if(rate > 0){
+			interval = 1_000_000_000L / rate;
+			capacity = interval * rate;
+		}
+		credit = capacity;
+		last = System.nanoTime();
+	}
+
+	/**
+	 * Take a token for a command
+	 * @return false if the connection has sent more commands than it is allowed to
+	 */
+	public boolean take(){
+		if(interval == 0)
+			return true;
+		long now = System.nanoTime();
+		credit = Math.min(capacity, credit + (now - last));
+		last = now;
+		if(credit < interval)
+			return false;
+		credit -= interval;
+		return true;
+	}
+}
@@ -0,0 +1,14 @@
+import java.nio.channels.SocketChannel;
+
+/**
+ * A game that can be watched by spectators
+ */
+public interface Watchable {
+
+	/**
+	 * Add a spectator to the game, it gets the state of the game followed by everything that happens in it
+	 * @param channel	the spectator's connection
+	 * @return false if the game is over
+	 */
+	boolean watch(SocketChannel channel);
+}
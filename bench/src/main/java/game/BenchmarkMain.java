@@ -0,0 +1,34 @@
+package game;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler so the allocation of every operation
+ * is reported next to its time, results are also written to jmh-result.json
+ * so they can be compared between releases. Takes the usual JMH options
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if(commandLine.shouldHelp()){
+			commandLine.showHelp();
+			return;
+		}
+		if(commandLine.shouldList()){
+			new Runner(commandLine).list();
+			return;
+		}
+
+		Options options = new OptionsBuilder()
+			.parent(commandLine)
+			.addProfiler(GCProfiler.class)
+			.resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+			.build();
+		new Runner(options).run();
+	}
+}
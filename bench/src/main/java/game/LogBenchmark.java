@@ -0,0 +1,45 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Logging a move, from the game queueing the message to the text reaching a sink
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogBenchmark implements GameConstants {
+	private GameLog gameLog;
+	private long written;
+	private int card = 17;
+	private int value = 8;
+
+	@Setup
+	public void setup(){
+		gameLog = new GameLog(GameLog.INFO).addSink(text -> written += text.length());
+	}
+
+	@Benchmark
+	public void disabled(){
+		gameLog.log(GameLog.DEBUG, 0, "%s: Revealing card %d with a value of %d", commandString(REVEAL), card, value);
+	}
+
+	@Benchmark
+	public int logAndFormat(){
+		gameLog.log(GameLog.INFO, 0, "%s: Revealing card %d with a value of %d", commandString(REVEAL), card, value);
+		return gameLog.drain();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GameLog.MAX_BATCH)
+	public int logAndFormatBatch(){
+		for(int i = 0; i < GameLog.MAX_BATCH; i++)
+			gameLog.log(GameLog.INFO, 0, "%s: Revealing card %d with a value of %d", commandString(REVEAL), card, value);
+		return gameLog.drain();
+	}
+}
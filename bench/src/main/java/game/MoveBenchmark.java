@@ -0,0 +1,35 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encoding the updates of one move for every player of a game,
+ * two reveals followed by a match and the next turn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveBenchmark implements GameConstants {
+	@Param({"2", "8"})
+	public int players;
+
+	private Broadcast broadcast = new Broadcast();
+
+	@Benchmark
+	public int move(){
+		broadcast.clear();
+		broadcast.send(REVEAL, 17, 8);
+		broadcast.send(REVEAL, 23, 8);
+		broadcast.sendTo(0, MATCH, 3);
+		broadcast.send(SETTURN, 0);
+		int views = 0;
+		for(int i = 0; i < players; i++)
+			views += broadcast.prepare(i);
+		return views;
+	}
+}
@@ -0,0 +1,79 @@
+package game;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encoding and decoding every command in every version of the protocol
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolBenchmark implements GameConstants {
+	@Param({"INIT", "JOIN", "SETTURN", "RECEIVE", "REVEAL", "WAIT", "MATCH", "HIDE", "WIN", "QUIT", "DONE"})
+	public String command;
+
+	@Param({"1", "2"})
+	public int version;
+
+	private int[] values;
+	private int[] decoded = new int[Protocol.MAX_ARGS + 1];
+	private Protocol protocol;
+	private ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+	private DataOutputStream out = new DataOutputStream(bytes);
+	private ByteArrayInputStream encoded;
+	private DataInputStream in;
+	private Broadcast broadcast = new Broadcast();
+
+	@Setup
+	public void setup() throws IOException {
+		switch(command){
+			case "INIT": values = new int[]{INIT, 1, 6, 6}; break;
+			case "JOIN": values = new int[]{JOIN, 2, 6, 6}; break;
+			case "SETTURN": values = new int[]{SETTURN, 1}; break;
+			case "RECEIVE": values = new int[]{RECEIVE, 17}; break;
+			case "REVEAL": values = new int[]{REVEAL, 17, 8}; break;
+			case "WAIT": values = new int[]{WAIT, GameService.DEFAULT_SLEEP_TIME}; break;
+			case "MATCH": values = new int[]{MATCH, 3}; break;
+			case "HIDE": values = new int[]{HIDE, 17, 23}; break;
+			case "WIN": values = new int[]{WIN, 1}; break;
+			case "QUIT": values = new int[]{QUIT, 1}; break;
+			default: values = new int[]{DONE}; break;
+		}
+		protocol = new Protocol(version);
+		broadcast.version(0, version);
+		encode();
+		encoded = new ByteArrayInputStream(bytes.toByteArray());
+		in = new DataInputStream(encoded);
+	}
+
+	@Benchmark
+	public int encode() throws IOException {
+		bytes.reset();
+		protocol.write(out, values);
+		return bytes.size();
+	}
+
+	@Benchmark
+	public int decode() throws IOException {
+		encoded.reset();
+		return protocol.read(in, decoded);
+	}
+
+	@Benchmark
+	public int broadcast(){
+		broadcast.clear();
+		broadcast.send(values);
+		return broadcast.prepare(0);
+	}
+
+	@Benchmark
+	public String commandString(){
+		return commandString(values[0]);
+	}
+}
@@ -0,0 +1,33 @@
+package game;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Shuffling a board at every size from 2x2 to 6x6 and a few large boards
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShuffleBenchmark {
+	@Param({"2x2", "2x3", "2x4", "2x5", "2x6", "3x4", "3x6", "4x4", "4x5", "4x6", "5x6", "6x6", "20x20", "200x200"})
+	public String board;
+
+	private int cardsSize;
+	private long seed;
+
+	@Setup
+	public void setup(){
+		String[] size = board.split("x");
+		cardsSize = Integer.parseInt(size[0]) * Integer.parseInt(size[1]);
+	}
+
+	@Benchmark
+	public int[] shuffle(){
+		return Board.shuffle(cardsSize, seed++);
+	}
+}
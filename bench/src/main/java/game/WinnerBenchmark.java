@@ -0,0 +1,42 @@
+package game;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Finding the winner of games with many players
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WinnerBenchmark {
+	@Param({"2", "8", "64", "1024"})
+	public int players;
+
+	private int[] points;
+	private int currentPlayer;
+
+	@Setup
+	public void setup(){
+		Random random = new Random(players);
+		points = new int[players];
+		for(int i = 0; i < players; i++)
+			points[i] = random.nextInt(18);
+		currentPlayer = players / 2;
+	}
+
+	@Benchmark
+	public int winner(){
+		return Rules.winner(points, currentPlayer, -1);
+	}
+
+	@Benchmark
+	public int winnerAfterQuit(){
+		return Rules.winner(points, currentPlayer, currentPlayer);
+	}
+}